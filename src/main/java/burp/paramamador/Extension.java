@@ -5,7 +5,6 @@ import burp.api.montoya.MontoyaApi;
 import burp.api.montoya.core.Registration;
 import burp.api.montoya.extension.ExtensionUnloadingHandler;
 import burp.api.montoya.http.handler.*;
-import burp.api.montoya.http.message.MimeType;
 import burp.api.montoya.http.message.params.HttpParameterType;
 import burp.api.montoya.logging.Logging;
 import burp.api.montoya.scope.Scope;
@@ -21,7 +20,13 @@ import burp.paramamador.datastore.DataStore;
 import burp.paramamador.scanner.SiteTreeScanner;
 import burp.paramamador.ui.ParamamadorTab;
 import burp.paramamador.util.IOUtils;
+import burp.paramamador.util.AppendJournal;
+import burp.paramamador.util.ContentFingerprinter;
+import burp.paramamador.util.ContentStore;
+import burp.paramamador.util.ScopeCache;
 import burp.paramamador.integrations.JsluiceService;
+import burp.paramamador.pipeline.AnalysisPipeline;
+import burp.paramamador.pipeline.JsWorkScheduler;
 
 import javax.swing.*;
 import java.awt.*;
@@ -42,14 +47,16 @@ public class Extension implements BurpExtension {
     private Logging log;
     private UserInterface ui;
     private Scope scope;
+    private ScopeCache scopeCache;
     private SiteMap siteMap;
 
     private final DataStore store = new DataStore();
     private final Settings settings = new Settings();
 
-    private LinkedBlockingQueue<JsTask> jsQueue;
-    private ExecutorService jsExecutor;
+    private JsWorkScheduler jsScheduler;
+    private AnalysisPipeline pipeline;
     private ScheduledExecutorService scheduler;
+    private volatile boolean storageFailureLogged;
 
     private Registration httpHandlerReg;
     private Registration suiteTabReg;
@@ -59,6 +66,7 @@ public class Extension implements BurpExtension {
 
     private ParamamadorTab tab;
     private SiteTreeScanner siteTreeScanner;
+    private JsEndpointAnalyzer jsAnalyzer;
     private JsluiceService jsluiceService;
 
     private final AtomicBoolean started = new AtomicBoolean(false);
@@ -69,7 +77,11 @@ public class Extension implements BurpExtension {
         this.log = api.logging();
         this.ui = api.userInterface();
         this.scope = api.scope();
+        // Memoized scope decisions, dropped whenever the Burp scope changes
+        this.scopeCache = new ScopeCache(scope);
         this.siteMap = api.siteMap();
+        // Results saved by older versions carry full regex sources as pattern labels
+        burp.paramamador.datastore.SymbolTable.registerPatternAliases(JsEndpointAnalyzer.legacyPatternNames());
 
         api.extension().setName("Paramamador");
         log.logToOutput("Paramamador loaded (" + Instant.now() + ")");
@@ -81,14 +93,6 @@ public class Extension implements BurpExtension {
             log.logToError("Failed to load YAML settings: " + t.getMessage());
         }
 
-        // Prepare Fixed thread pool for parallel analysis of heavy JS files (> settings.maxInlineJsKb)
-        this.jsExecutor = Executors.newFixedThreadPool(settings.getWorkerThreads(), r -> {
-            Thread t = new Thread(r, "paramamador-js-worker");
-            t.setDaemon(true);
-            return t;
-        });
-        // The queue for storing heavy JS files for analysis via jsExecutor
-        this.jsQueue = new LinkedBlockingQueue<>(settings.getMaxQueueSize());
         this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
             Thread t = new Thread(r, "paramamador-scheduler");
             t.setDaemon(true);
@@ -110,6 +114,21 @@ public class Extension implements BurpExtension {
             log.logToError("Failed to load ignore lists: " + t.getMessage());
         }
 
+        // JS bodies by content hash (jsluice_js); context snippets are ranges into them.
+        // Resolved per call, the export dir can still change.
+        store.setContentStore(new ContentStore(settings::jsluiceStoreDir, () -> settings.getJsStoreMaxMb() * 1024L * 1024L));
+
+        // Large projects: keep endpoints in memory-mapped files, only a bounded cache on the heap.
+        // Must happen before any results are loaded.
+        if (settings.isDiskStorage()) {
+            try {
+                store.useDiskStorage(settings.diskStorageDir(), settings.getDiskCacheEntries());
+                log.logToOutput("Endpoint storage on disk: " + settings.diskStorageDir() + " (cache " + settings.getDiskCacheEntries() + " endpoints)");
+            } catch (Throwable t) {
+                log.logToError("Disk storage unavailable, keeping endpoints in memory: " + t.getMessage());
+            }
+        }
+
         // Load previously scanned JS URL+hash list for content dedupe
         try {
             burp.paramamador.analyzer.JsEndpointAnalyzer.loadProcessedFromFile(settings.scannedJsFilePath());
@@ -136,15 +155,19 @@ public class Extension implements BurpExtension {
         // Initialize jsluice integration (if enabled)
         if (settings.isEnableJsluice()) {
             try {
-                this.jsluiceService = new JsluiceService(store, settings, scope, log);
+                this.jsluiceService = new JsluiceService(store, settings, scopeCache, log);
                 this.jsluiceService.tryInit();
             } catch (Throwable t) {
                 log.logToError("Failed to init jsluice service: " + t.getMessage());
             }
         }
 
-        // Start scheduled autosave
-        scheduler.scheduleAtFixedRate(this::saveAllSafe, settings.getAutoSaveSeconds(), settings.getAutoSaveSeconds(), TimeUnit.SECONDS);
+        // Start scheduled autosave: changed records go to the change log every few seconds,
+        // full snapshots (compaction of that log) only when something changed
+        scheduler.scheduleWithFixedDelay(this::flushChangesSafe, settings.getChangeLogFlushSeconds(), settings.getChangeLogFlushSeconds(), TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(() -> {
+            if (store.hasChangesSinceSnapshot()) saveAllSafe();
+        }, settings.getAutoSaveSeconds(), settings.getAutoSaveSeconds(), TimeUnit.SECONDS);
 
         // Optionally load previous session JSONs from export dir (user opt-in)
         try {
@@ -154,9 +177,27 @@ public class Extension implements BurpExtension {
                 try (java.util.stream.Stream<java.nio.file.Path> stream = java.nio.file.Files.list(dir)) {
                     stream.filter(p -> p != null && p.toString().toLowerCase().endsWith(".json")).forEach(jsons::add);
                 }
-                if (!jsons.isEmpty()) {
+                // The binary snapshot holds the same data as the JSON files unless one of them was written later
+                boolean fromBinary = false;
+                java.nio.file.Path bin = settings.binarySnapshotFilePath();
+                if (java.nio.file.Files.isRegularFile(bin) && !anyNewerThan(jsons, java.nio.file.Files.getLastModifiedTime(bin))) {
+                    try {
+                        long t0 = System.nanoTime();
+                        fromBinary = store.loadBinarySnapshot(bin);
+                        if (fromBinary) log.logToOutput("Loaded binary snapshot in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+                    } catch (Throwable t) {
+                        log.logToError("Binary snapshot unreadable, loading JSON: " + t.getMessage());
+                        store.clearAll();
+                    }
+                }
+                if (!fromBinary && !jsons.isEmpty()) {
                     store.loadFromFiles(jsons);
                 }
+                // Changes logged after the last snapshot (e.g. before a crash)
+                int replayed = store.replayChangeLog(settings.changeLogFilePath());
+                if (replayed > 0) log.logToOutput("Replayed " + replayed + " change log entries");
+                // Everything loaded so far is already on disk
+                store.discardPendingChanges();
             }
         } catch (Throwable t) {
             log.logToError("Failed to load previous results: " + t.getMessage());
@@ -169,11 +210,11 @@ public class Extension implements BurpExtension {
             log.logToError("Startup snapshot creation failed: " + t.getMessage());
         }
 
-        // Periodically refresh UI so new data appears in tables
+        // Periodically refresh UI so new data appears in tables (only what changed since the last refresh)
         scheduler.scheduleAtFixedRate(() -> {
             try {
                 if (tab != null) {
-                    tab.refreshAll();
+                    tab.refreshChanged();
                 }
             } catch (Throwable t) {
                 log.logToError("UI refresh error: " + t.getMessage());
@@ -294,9 +335,16 @@ public class Extension implements BurpExtension {
         this.contextMenuReg = ui.registerContextMenuItemsProvider(new SimpleContextMenuProvider());
 
         // Site tree scanner depends on API + analyzers
-        JsEndpointAnalyzer jsAnalyzer = new JsEndpointAnalyzer(store, settings, scope, log);
+        this.jsAnalyzer = new JsEndpointAnalyzer(store, settings, scopeCache, log);
         this.siteTreeScanner = new SiteTreeScanner(api, jsAnalyzer, settings, store, log, jsluiceService);
 
+        // Priority scheduler for heavy JS files (> settings.maxInlineJsKb): in-scope, fresh hosts and small bodies first
+        this.jsScheduler = new JsWorkScheduler(settings.getWorkerThreads(), settings.getMaxQueueSize(),
+                w -> jsAnalyzer.extractEndpoints(w.sourceUrl(), w.referer(), w.body(), w.raw(), w.fingerprint(), w.inScope()), log);
+
+        // Staged analysis of proxied responses (off Burp's handler threads)
+        this.pipeline = new AnalysisPipeline(settings, log, new ParameterAnalyzer(store, settings, log), jsAnalyzer, jsluiceService, jsScheduler::submit);
+
         // Register HTTP handler for passive analysis
         this.httpHandlerReg = api.http().registerHttpHandler(new PassiveHttpHandler());
 
@@ -327,20 +375,6 @@ public class Extension implements BurpExtension {
         return ahost.equals(bhost);
     }
 
-    private static String originOnly(String url) {
-        try {
-            if (url == null || url.isBlank()) return url;
-            java.net.URI u = java.net.URI.create(url);
-            String scheme = u.getScheme();
-            String host = u.getHost();
-            if (scheme == null || host == null || host.isBlank()) return url;
-            int port = u.getPort();
-            return scheme + "://" + host + (port > 0 ? ":" + port : "");
-        } catch (Throwable ignored) {
-            return url;
-        }
-    }
-
     private static String safeParseHostPort(String url) {
         try {
             if (url == null || url.isBlank()) return null;
@@ -360,8 +394,26 @@ public class Extension implements BurpExtension {
         if (contextMenuReg != null) contextMenuReg.deregister();
         if (unloadReg != null) unloadReg.deregister();
         if (scheduler != null) scheduler.shutdownNow();
-        if (jsExecutor != null) jsExecutor.shutdownNow();
+        if (pipeline != null) {
+            log.logToOutput(pipeline.describe());
+            pipeline.shutdown();
+        }
+        if (jsScheduler != null) {
+            log.logToOutput(jsScheduler.describe());
+            jsScheduler.shutdown();
+        }
+        log.logToOutput(ContentFingerprinter.describe());
+        if (jsAnalyzer != null) jsAnalyzer.shutdown();
         if (jsluiceService != null) jsluiceService.shutdown();
+        if (store.contentStore() != null) store.contentStore().close();
+        // Records touched by work that finished after the final snapshot
+        flushChangesSafe();
+        AppendJournal.closeAll();
+        store.close();
+        if (scopeCache != null) {
+            log.logToOutput(scopeCache.describe());
+            scopeCache.shutdown();
+        }
         log.logToOutput("Paramamador unloaded");
     }
 
@@ -388,12 +440,34 @@ public class Extension implements BurpExtension {
             if (paramsFile != null) IOUtils.ensureDir(paramsFile.getParent());
             if (endpointsFile != null) IOUtils.ensureDir(endpointsFile.getParent());
 
-            store.saveToDisk(paramsFile, endpointsFile);
+            store.compact(paramsFile, endpointsFile, settings.binarySnapshotFilePath(), settings.changeLogFilePath());
         } catch (Throwable t) {
             log.logToError("Save failed: " + t.getMessage());
         }
     }
 
+    private static boolean anyNewerThan(java.util.List<java.nio.file.Path> files, java.nio.file.attribute.FileTime t) {
+        for (java.nio.file.Path p : files) {
+            try {
+                if (java.nio.file.Files.getLastModifiedTime(p).compareTo(t) > 0) return true;
+            } catch (Throwable ignored) {}
+        }
+        return false;
+    }
+
+    private void flushChangesSafe() {
+        try {
+            store.flushChanges(settings.changeLogFilePath());
+        } catch (Throwable t) {
+            log.logToError("Change log flush failed: " + t.getMessage());
+        }
+        java.io.IOException failure = store.endpointStorageFailure();
+        if (failure != null && !storageFailureLogged) {
+            storageFailureLogged = true;
+            log.logToError("Disk storage stopped writing endpoints, keeping new ones in memory: " + failure.getMessage());
+        }
+    }
+
     private void createStartupSnapshots() {
         // Look for existing snapshot files in exportDir. Use them if exactly one exists per group.
         // If multiple exist in a group, merge only that group into a single file and delete the old ones.
@@ -593,15 +667,9 @@ public class Extension implements BurpExtension {
 
     // safeProjectName() removed; project name is persisted in YAML (lastProjectName) and set on first initialization.
 
-    
-
-    /** Simple background JS analysis task */
-    private record JsTask(String sourceUrl, String referer, String body, boolean inScope) {}
-
-    /** Passive HTTP handler; keep work light and offload heavy parsing. */
+    /** Passive HTTP handler; keep work light and hand responses off to the analysis pipeline. */
     private class PassiveHttpHandler implements HttpHandler {
         private final ParameterAnalyzer paramAnalyzer = new ParameterAnalyzer(store, settings, log);
-        private final JsEndpointAnalyzer jsAnalyzer = new JsEndpointAnalyzer(store, settings, scope, log);
 
         @Override
         public RequestToBeSentAction handleHttpRequestToBeSent(HttpRequestToBeSent request) {
@@ -617,56 +685,8 @@ public class Extension implements BurpExtension {
         @Override
         public ResponseReceivedAction handleHttpResponseReceived(HttpResponseReceived response) {
             try {
-                // Inline parameter extraction from response (cookies/JSON keys)
-                paramAnalyzer.extractFromResponse(response.initiatingRequest(), response);
-
-                // Detect JS and analyze endpoints
-                String url = response.initiatingRequest() != null ? response.initiatingRequest().url() : "";
-                String referer = null;
-                if (response.initiatingRequest() != null) {
-                    String ref = response.initiatingRequest().headerValue("Referer");
-                    String origin = response.initiatingRequest().headerValue("Origin");
-                    referer = (ref != null && !ref.isBlank()) ? ref : origin;
-                }
-                String ct = response.headerValue("Content-Type");
-                boolean looksLikeJs = response.mimeType() == MimeType.SCRIPT
-                        || (ct != null && ct.toLowerCase().contains("javascript"))
-                        || (url != null && url.toLowerCase().endsWith(".js"));
-
-                if (looksLikeJs) {
-                    String body = response.bodyToString();
-                    int sizeKb = body != null ? body.length() / 1024 : 0;
-                    boolean inScope = response.initiatingRequest() != null && response.initiatingRequest().isInScope();
-                    // Normalize referer to origin (scheme://host[:port])
-                    referer = originOnly(referer);
-
-                    // Enqueue for jsluice AST analysis if enabled
-                    if (jsluiceService != null && body != null && !body.isBlank()) {
-                        try { jsluiceService.enqueue(url, referer, body, inScope); } catch (Throwable ignored) {}
-                    }
-
-                    if (sizeKb <= settings.getMaxInlineJsKb()) {
-                        jsAnalyzer.extractEndpoints(url, referer, body, inScope);
-                    } else {
-                        // Offload to background workers; drop on overload
-                        boolean offered = jsQueue.offer(new JsTask(url, referer, body, inScope));
-                        if (offered) {
-                            jsExecutor.submit(() -> {
-                                try {
-                                    JsTask t = jsQueue.poll(1, TimeUnit.SECONDS);
-                                    if (t != null) {
-                                        jsAnalyzer.extractEndpoints(t.sourceUrl(), t.referer(), t.body(), t.inScope());
-                                    }
-                                } catch (InterruptedException ignored) {
-                                    Thread.currentThread().interrupt();
-                                } catch (Throwable ex) {
-                                    log.logToError("JS analysis error: " + ex.getMessage());
-                                }
-                            });
-                        } // else drop and continue
-                    }
-                }
-
+                // Capture and hand off; classification, parameter and JS analysis run on pipeline stages
+                pipeline.submit(response.initiatingRequest(), response);
             } catch (Throwable t) {
                 log.logToError("Response analysis error: " + t.getMessage());
             }
@@ -687,9 +707,7 @@ public class Extension implements BurpExtension {
                             var req = msg.requestResponse().request();
                             var res = msg.requestResponse().response();
                             if (res != null) {
-                                new PassiveHttpHandler().handleHttpResponseReceived(
-                                        new HttpResponseReceivedWrapper(res, req)
-                                );
+                                pipeline.submit(req, res);
                             }
                         });
                     } catch (Throwable t) {
@@ -714,121 +732,4 @@ public class Extension implements BurpExtension {
             }
         }
     }
-
-    // Lightweight wrapper to adapt plain HttpResponse/Request to HttpResponseReceived for reuse
-    private static class HttpResponseReceivedWrapper implements HttpResponseReceived {
-        private final burp.api.montoya.http.message.responses.HttpResponse response;
-        private final burp.api.montoya.http.message.requests.HttpRequest request;
-
-        HttpResponseReceivedWrapper(burp.api.montoya.http.message.responses.HttpResponse res,
-                                    burp.api.montoya.http.message.requests.HttpRequest req) {
-            this.response = res;
-            this.request = req;
-        }
-
-        @Override
-        public int messageId() { return -1; }
-        @Override
-        public burp.api.montoya.http.message.requests.HttpRequest initiatingRequest() { return request; }
-        @Override
-        public burp.api.montoya.core.Annotations annotations() { return null; }
-        @Override
-        public burp.api.montoya.core.ToolSource toolSource() { return null; }
-        @Override
-        public short statusCode() { return response.statusCode(); }
-        @Override
-        public String reasonPhrase() { return response.reasonPhrase(); }
-        @Override
-        public boolean isStatusCodeClass(burp.api.montoya.http.message.StatusCodeClass c) { return response.isStatusCodeClass(c); }
-        @Override
-        public String httpVersion() { return response.httpVersion(); }
-        @Override
-        public java.util.List<burp.api.montoya.http.message.HttpHeader> headers() { return response.headers(); }
-        @Override
-        public boolean hasHeader(burp.api.montoya.http.message.HttpHeader h) { return response.hasHeader(h); }
-        @Override
-        public boolean hasHeader(String n) { return response.hasHeader(n); }
-        @Override
-        public boolean hasHeader(String n, String v) { return response.hasHeader(n, v); }
-        @Override
-        public burp.api.montoya.http.message.HttpHeader header(String n) { return response.header(n); }
-        @Override
-        public String headerValue(String n) { return response.headerValue(n); }
-        @Override
-        public burp.api.montoya.core.ByteArray body() { return response.body(); }
-        @Override
-        public String bodyToString() { return response.bodyToString(); }
-        @Override
-        public int bodyOffset() { return response.bodyOffset(); }
-        @Override
-        public java.util.List<burp.api.montoya.core.Marker> markers() { return response.markers(); }
-        @Override
-        public java.util.List<burp.api.montoya.http.message.Cookie> cookies() { return response.cookies(); }
-        @Override
-        public burp.api.montoya.http.message.Cookie cookie(String name) { return response.cookie(name); }
-        @Override
-        public String cookieValue(String name) { return response.cookieValue(name); }
-        @Override
-        public boolean hasCookie(String name) { return response.hasCookie(name); }
-        @Override
-        public boolean hasCookie(burp.api.montoya.http.message.Cookie c) { return response.hasCookie(c); }
-        @Override
-        public MimeType mimeType() { return response.mimeType(); }
-        @Override
-        public MimeType statedMimeType() { return response.statedMimeType(); }
-        @Override
-        public MimeType inferredMimeType() { return response.inferredMimeType(); }
-        @Override
-        public java.util.List<burp.api.montoya.http.message.responses.analysis.KeywordCount> keywordCounts(String... keys) { return response.keywordCounts(keys); }
-        @Override
-        public java.util.List<burp.api.montoya.http.message.responses.analysis.Attribute> attributes(burp.api.montoya.http.message.responses.analysis.AttributeType... t) { return response.attributes(t); }
-        @Override
-        public boolean contains(String s, boolean b) { return response.contains(s, b); }
-        @Override
-        public boolean contains(java.util.regex.Pattern p) { return response.contains(p); }
-        @Override
-        public burp.api.montoya.core.ByteArray toByteArray() { return response.toByteArray(); }
-        @Override
-        public String toString() { return response.toString(); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withStatusCode(short s) { return response.withStatusCode(s); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withReasonPhrase(String s) { return response.withReasonPhrase(s); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withHttpVersion(String s) { return response.withHttpVersion(s); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withBody(String s) { return response.withBody(s); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withBody(burp.api.montoya.core.ByteArray b) { return response.withBody(b); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withAddedHeader(burp.api.montoya.http.message.HttpHeader h) { return response.withAddedHeader(h); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withAddedHeader(String n, String v) { return response.withAddedHeader(n, v); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withAddedHeaders(java.util.List<? extends burp.api.montoya.http.message.HttpHeader> headers) { return response.withAddedHeaders(headers); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withAddedHeaders(burp.api.montoya.http.message.HttpHeader... headers) { return response.withAddedHeaders(headers); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withUpdatedHeader(burp.api.montoya.http.message.HttpHeader h) { return response.withUpdatedHeader(h); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withUpdatedHeader(String n, String v) { return response.withUpdatedHeader(n, v); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withUpdatedHeaders(java.util.List<? extends burp.api.montoya.http.message.HttpHeader> headers) { return response.withUpdatedHeaders(headers); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withUpdatedHeaders(burp.api.montoya.http.message.HttpHeader... headers) { return response.withUpdatedHeaders(headers); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withRemovedHeader(burp.api.montoya.http.message.HttpHeader h) { return response.withRemovedHeader(h); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withRemovedHeader(String n) { return response.withRemovedHeader(n); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withRemovedHeaders(java.util.List<? extends burp.api.montoya.http.message.HttpHeader> headers) { return response.withRemovedHeaders(headers); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withRemovedHeaders(burp.api.montoya.http.message.HttpHeader... headers) { return response.withRemovedHeaders(headers); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withMarkers(java.util.List<burp.api.montoya.core.Marker> m) { return response.withMarkers(m); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse withMarkers(burp.api.montoya.core.Marker... m) { return response.withMarkers(m); }
-        @Override
-        public burp.api.montoya.http.message.responses.HttpResponse copyToTempFile() { return response.copyToTempFile(); }
-    }
 }
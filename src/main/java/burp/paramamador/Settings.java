@@ -13,6 +13,8 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.nio.charset.StandardCharsets;
 
+import burp.paramamador.util.IgnoreMatcher;
+
 // YAML
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.DumperOptions;
@@ -23,9 +25,14 @@ import org.yaml.snakeyaml.DumperOptions;
 public class Settings {
     private volatile boolean scopeOnly = true;
     private volatile int autoSaveSeconds = 300;
+    private volatile int changeLogFlushSeconds = 5; // dirty records are appended to the change log this often
     private volatile int maxInlineJsKb = 200;
     private volatile int maxQueueSize = 200;
     private volatile int workerThreads = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    private volatile int parallelScanThresholdKb = 1024; // JS bodies above this are scanned in parallel chunks
+    private volatile int scanChunkKb = 256;
+    private volatile boolean diskStorage = false; // keep endpoints in memory-mapped files instead of the heap (applies on next load)
+    private volatile int diskCacheEntries = 50_000; // endpoints kept on the heap when diskStorage is on
     private final List<String> globalIgnoredSources = Collections.synchronizedList(new ArrayList<>(List.of(
             "jquery", "bootstrap", "google-analytics", "gtag.js", "gpt.js"
     )));
@@ -33,6 +40,8 @@ public class Settings {
     private final List<String> globalIgnoredValues = Collections.synchronizedList(new ArrayList<>(List.of(
             "text/plain"
     )));
+    // Compiled form of both ignore lists; replaced (never mutated) whenever either list changes
+    private volatile IgnoreMatcher ignoreMatcher = new IgnoreMatcher(globalIgnoredSources, globalIgnoredValues);
 
     // Project-specific export dir (snapshots, project data)
     private volatile Path exportDir = defaultExportDir();
@@ -53,7 +62,12 @@ public class Settings {
     private volatile int jsluiceTimeoutSec = 30;
     private volatile int jsluiceWorkers = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
     private volatile int maxJsluiceFileMb = 8; // skip very big files
+    private volatile int jsluiceBatchMaxFiles = 32; // JS files per jsluice process (upper bound of the adaptive batch size)
+    private volatile int jsluiceBatchMaxKb = 4096; // total size of the JS files in one jsluice process
     private volatile String jsluiceStoreSubdir = "jsluice_js"; // subdir under exportDir for JS bodies
+    private volatile int jsStoreMaxMb = 2048; // oldest stored JS bodies are deleted beyond this (0 = no limit)
+    private volatile boolean storeJsBodies = false; // keep JS bodies and snippet references even with jsluice off
+    private volatile Path jsluiceStagingDir = null; // plain copies of bodies for jsluice; null = system temp dir
 
     public boolean isScopeOnly() { return scopeOnly; }
     public void setScopeOnly(boolean scopeOnly) { this.scopeOnly = scopeOnly; }
@@ -61,6 +75,9 @@ public class Settings {
     public int getAutoSaveSeconds() { return autoSaveSeconds; }
     public void setAutoSaveSeconds(int autoSaveSeconds) { this.autoSaveSeconds = Math.max(30, autoSaveSeconds); }
 
+    public int getChangeLogFlushSeconds() { return changeLogFlushSeconds; }
+    public void setChangeLogFlushSeconds(int s) { this.changeLogFlushSeconds = Math.max(1, s); }
+
     public int getMaxInlineJsKb() { return maxInlineJsKb; }
     public void setMaxInlineJsKb(int maxInlineJsKb) { this.maxInlineJsKb = Math.max(10, maxInlineJsKb); }
 
@@ -70,13 +87,36 @@ public class Settings {
     public int getWorkerThreads() { return workerThreads; }
     public void setWorkerThreads(int workerThreads) { this.workerThreads = Math.max(1, workerThreads); }
 
+    public int getParallelScanThresholdKb() { return parallelScanThresholdKb; }
+    public void setParallelScanThresholdKb(int kb) { this.parallelScanThresholdKb = Math.max(64, kb); }
+
+    public int getScanChunkKb() { return scanChunkKb; }
+    public void setScanChunkKb(int kb) { this.scanChunkKb = Math.max(16, kb); }
+
+    public boolean isDiskStorage() { return diskStorage; }
+    public void setDiskStorage(boolean v) { this.diskStorage = v; }
+
+    public int getDiskCacheEntries() { return diskCacheEntries; }
+    public void setDiskCacheEntries(int n) { this.diskCacheEntries = Math.max(1000, n); }
+
     public List<String> getGlobalIgnoredSources() { return new ArrayList<>(globalIgnoredSources); }
-    public void addGlobalIgnoredSource(String p) { if (p != null && !p.isBlank()) globalIgnoredSources.add(p); }
-    public void removeGlobalIgnoredSource(String p) { globalIgnoredSources.remove(p); }
+    public void addGlobalIgnoredSource(String p) { if (p != null && !p.isBlank() && globalIgnoredSources.add(p)) republishIgnoreMatcher(); }
+    public void removeGlobalIgnoredSource(String p) { if (globalIgnoredSources.remove(p)) republishIgnoreMatcher(); }
 
     public List<String> getGlobalIgnoredValues() { return new ArrayList<>(globalIgnoredValues); }
-    public void addGlobalIgnoredValue(String v) { if (v != null && !v.isBlank()) globalIgnoredValues.add(v); }
-    public void removeGlobalIgnoredValue(String v) { globalIgnoredValues.remove(v); }
+    public void addGlobalIgnoredValue(String v) { if (v != null && !v.isBlank() && globalIgnoredValues.add(v)) republishIgnoreMatcher(); }
+    public void removeGlobalIgnoredValue(String v) { if (globalIgnoredValues.remove(v)) republishIgnoreMatcher(); }
+
+    /** Current compiled ignore lists; cheap to call on every candidate. */
+    public IgnoreMatcher getIgnoreMatcher() { return ignoreMatcher; }
+
+    private synchronized void republishIgnoreMatcher() {
+        List<String> sources;
+        List<String> values;
+        synchronized (globalIgnoredSources) { sources = new ArrayList<>(globalIgnoredSources); }
+        synchronized (globalIgnoredValues) { values = new ArrayList<>(globalIgnoredValues); }
+        this.ignoreMatcher = new IgnoreMatcher(sources, values);
+    }
 
     public Path getExportDir() { return exportDir; }
     public void setExportDir(Path exportDir) { if (exportDir != null) this.exportDir = exportDir; }
@@ -99,9 +139,16 @@ public class Settings {
 
     // Per-project file that stores lines of "<full JS URL>\t<SHA-256 hash>"
     public Path scannedJsFilePath() { return exportDir.resolve("paramamador_scanned_js.txt"); }
+    // Binary copy of the last snapshot, preferred on startup over the JSON files it was written with
+    public Path binarySnapshotFilePath() { return exportDir.resolve("paramamador_snapshot.bin"); }
+    // Per-project NDJSON log of record changes since the last JSON snapshot
+    public Path changeLogFilePath() { return exportDir.resolve("paramamador_changes.ndjson"); }
+    // Scratch files of the disk-backed endpoint storage; emptied on every load
+    public Path diskStorageDir() { return exportDir.resolve("paramamador_store"); }
     public Path jsluiceScannedFilePath() { return exportDir.resolve("paramamador_jsluice_scanned.txt"); }
     public Path jsluiceStoreDir() { return exportDir.resolve(jsluiceStoreSubdir); }
     public Path jsluiceResultsDir() { return exportDir.resolve("jsluice").resolve("results"); }
+    public Path jsluiceResultsIndexPath() { return exportDir.resolve("jsluice").resolve("results_index.tsv"); }
 
     // Default values for path variables like :client, :companyCode
     private final Map<String,String> variableDefaults = Collections.synchronizedMap(new LinkedHashMap<>());
@@ -230,8 +277,22 @@ public class Settings {
     public void setJsluiceWorkers(int n) { this.jsluiceWorkers = Math.max(1, n); }
     public int getMaxJsluiceFileMb() { return maxJsluiceFileMb; }
     public void setMaxJsluiceFileMb(int mb) { this.maxJsluiceFileMb = Math.max(1, mb); }
+    public int getJsluiceBatchMaxFiles() { return jsluiceBatchMaxFiles; }
+    public void setJsluiceBatchMaxFiles(int n) { this.jsluiceBatchMaxFiles = Math.max(1, n); }
+    public int getJsluiceBatchMaxKb() { return jsluiceBatchMaxKb; }
+    public void setJsluiceBatchMaxKb(int kb) { this.jsluiceBatchMaxKb = Math.max(64, kb); }
     public String getJsluiceStoreSubdir() { return jsluiceStoreSubdir; }
     public void setJsluiceStoreSubdir(String v) { if (v != null && !v.isBlank()) this.jsluiceStoreSubdir = v; }
+    public int getJsStoreMaxMb() { return jsStoreMaxMb; }
+    public void setJsStoreMaxMb(int mb) { this.jsStoreMaxMb = Math.max(0, mb); }
+    public boolean isStoreJsBodies() { return storeJsBodies; }
+    public void setStoreJsBodies(boolean v) { this.storeJsBodies = v; }
+    public Path getJsluiceStagingDir() { return jsluiceStagingDir; }
+    public void setJsluiceStagingDir(Path p) { this.jsluiceStagingDir = p; }
+    public Path jsluiceStagingDirOrDefault() {
+        Path p = jsluiceStagingDir;
+        return p != null ? p : Paths.get(System.getProperty("java.io.tmpdir"), "paramamador-jsluice");
+    }
 
     private static Path defaultExportDir() {
         String home = System.getProperty("user.home");
@@ -286,9 +347,14 @@ public class Settings {
 
             if ((b = getBool.apply("scopeOnly")) != null) setScopeOnly(b);
             if ((i = getInt.apply("autoSaveSeconds")) != null) setAutoSaveSeconds(i);
+            if ((i = getInt.apply("changeLogFlushSeconds")) != null) setChangeLogFlushSeconds(i);
             if ((i = getInt.apply("maxInlineJsKb")) != null) setMaxInlineJsKb(i);
             if ((i = getInt.apply("maxQueueSize")) != null) setMaxQueueSize(i);
             if ((i = getInt.apply("workerThreads")) != null) setWorkerThreads(i);
+            if ((i = getInt.apply("parallelScanThresholdKb")) != null) setParallelScanThresholdKb(i);
+            if ((i = getInt.apply("scanChunkKb")) != null) setScanChunkKb(i);
+            if ((b = getBool.apply("diskStorage")) != null) setDiskStorage(b);
+            if ((i = getInt.apply("diskCacheEntries")) != null) setDiskCacheEntries(i);
 
             if ((s = getStr.apply("exportDir")) != null && !s.isBlank()) setExportDir(Paths.get(s));
             if ((s = getStr.apply("globalExportDir")) != null && !s.isBlank()) setGlobalExportDir(Paths.get(s));
@@ -302,7 +368,12 @@ public class Settings {
             if ((i = getInt.apply("jsluiceTimeoutSec")) != null) setJsluiceTimeoutSec(i);
             if ((i = getInt.apply("jsluiceWorkers")) != null) setJsluiceWorkers(i);
             if ((i = getInt.apply("maxJsluiceFileMb")) != null) setMaxJsluiceFileMb(i);
+            if ((i = getInt.apply("jsluiceBatchMaxFiles")) != null) setJsluiceBatchMaxFiles(i);
+            if ((i = getInt.apply("jsluiceBatchMaxKb")) != null) setJsluiceBatchMaxKb(i);
             if ((s = getStr.apply("jsluiceStoreSubdir")) != null && !s.isBlank()) setJsluiceStoreSubdir(s);
+            if ((i = getInt.apply("jsStoreMaxMb")) != null) setJsStoreMaxMb(i);
+            if ((b = getBool.apply("storeJsBodies")) != null) setStoreJsBodies(b);
+            if ((s = getStr.apply("jsluiceStagingDir")) != null && !s.isBlank()) setJsluiceStagingDir(Paths.get(s));
 
             if ((s = getStr.apply("lastProjectName")) != null) setLastProjectName(s);
         } catch (Throwable ignored) {
@@ -314,9 +385,14 @@ public class Settings {
             java.util.Map<String,Object> m = new java.util.LinkedHashMap<>();
             m.put("scopeOnly", isScopeOnly());
             m.put("autoSaveSeconds", getAutoSaveSeconds());
+            m.put("changeLogFlushSeconds", getChangeLogFlushSeconds());
             m.put("maxInlineJsKb", getMaxInlineJsKb());
             m.put("maxQueueSize", getMaxQueueSize());
             m.put("workerThreads", getWorkerThreads());
+            m.put("parallelScanThresholdKb", getParallelScanThresholdKb());
+            m.put("scanChunkKb", getScanChunkKb());
+            m.put("diskStorage", isDiskStorage());
+            m.put("diskCacheEntries", getDiskCacheEntries());
             m.put("exportDir", getExportDir() == null ? null : getExportDir().toString());
             m.put("globalExportDir", getGlobalExportDir() == null ? null : getGlobalExportDir().toString());
             m.put("overwriteOnSave", isOverwriteOnSave());
@@ -327,7 +403,12 @@ public class Settings {
             m.put("jsluiceTimeoutSec", getJsluiceTimeoutSec());
             m.put("jsluiceWorkers", getJsluiceWorkers());
             m.put("maxJsluiceFileMb", getMaxJsluiceFileMb());
+            m.put("jsluiceBatchMaxFiles", getJsluiceBatchMaxFiles());
+            m.put("jsluiceBatchMaxKb", getJsluiceBatchMaxKb());
             m.put("jsluiceStoreSubdir", getJsluiceStoreSubdir());
+            m.put("jsStoreMaxMb", getJsStoreMaxMb());
+            m.put("storeJsBodies", isStoreJsBodies());
+            m.put("jsluiceStagingDir", getJsluiceStagingDir() == null ? null : getJsluiceStagingDir().toString());
             m.put("lastProjectName", getLastProjectName());
 
             DumperOptions opts = new DumperOptions();
@@ -361,6 +442,7 @@ public class Settings {
                     globalIgnoredSources.clear();
                     globalIgnoredSources.addAll(cleaned);
                 }
+                republishIgnoreMatcher();
             } else {
                 saveGlobalIgnoredSourcesToGlobalDir();
             }
@@ -396,6 +478,7 @@ public class Settings {
                     globalIgnoredValues.clear();
                     globalIgnoredValues.addAll(cleaned);
                 }
+                republishIgnoreMatcher();
             } else {
                 saveGlobalIgnoredValuesToGlobalDir();
             }
@@ -1,37 +1,45 @@
 package burp.paramamador.analyzer;
 
 import burp.api.montoya.logging.Logging;
-import burp.api.montoya.scope.Scope;
 import burp.paramamador.Settings;
 import burp.paramamador.datastore.DataStore;
 import burp.paramamador.datastore.EndpointRecord;
+import burp.paramamador.datastore.SnippetRef;
+import burp.paramamador.util.ContentFingerprint;
+import burp.paramamador.util.AppendJournal;
+import burp.paramamador.util.ContentFingerprinter;
+import burp.paramamador.util.ContentStore;
+import burp.paramamador.util.ScopeCache;
 
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
-import java.util.regex.Matcher;
+import java.util.Map;
 import java.util.regex.Pattern;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.nio.charset.StandardCharsets;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 
 /**
  * Static JavaScript endpoint extraction inspired by LinkFinder.
- * Performs regex-based extraction, including full URLs, absolute/relative paths,
- * template literals and simple string concatenations. Variables / expressions are
- * replaced with EXPR to form a masked pattern.
+ * Extracts full URLs, absolute/relative paths, template literals and simple string
+ * concatenations in a single {@link JsLexer} pass. Variables / expressions in
+ * templates are replaced with EXPR to form a masked pattern.
+ * Bodies above the parallel-scan threshold are split into chunks scanned on a
+ * dedicated ForkJoin pool; candidates are merged and de-duplicated before they
+ * reach the store.
  */
 public class JsEndpointAnalyzer {
 
     private final DataStore store;
     private final Settings settings;
-    private final Scope scope;
+    private final ScopeCache scope;
     private final Logging log;
+    // Chunk scanning for oversized bodies; separate from the common pool so Burp/other extensions are not starved
+    private final ForkJoinPool chunkPool;
+    private final NotSureClassifier notSureClassifier;
 
+    // Grammar implemented by JsLexer; records store the symbolic name, older versions stored the regex source
     private static final Pattern FULL_URL = Pattern.compile("(?i)(https?:\\/\\/[^\\s\"'\\\\<>]+)");
     // RFC 3986 path characters: unreserved / pct-encoded / sub-delims / ":" / "@" and "/" as segment separator.
     // Allow optional query ("?" + [pchar|"/"|"?"]*) to preserve downstream query param extraction.
@@ -51,173 +59,159 @@ public class JsEndpointAnalyzer {
     private static final Pattern CONCAT_A = Pattern.compile("\"(?=[^\\\"]*/)(?=[^\\\"]*[A-Za-z0-9])([^\\\"]*)\"\\s*\\+\\s*([A-Za-z0-9_\\$\\.]+)");
     private static final Pattern CONCAT_B = Pattern.compile("([A-Za-z0-9_\\$\\.]+)\\s*\\+\\s*\"(?=[^\\\"]*/)(?=[^\\\"]*[A-Za-z0-9])([^\\\"]*)\"");
 
+    // Pattern labels stored on EndpointRecord.pattern / ParameterRecord.patternsFromJs
+    public static final String P_FULL_URL = "FULL_URL";
+    public static final String P_ABS_PATH = "ABS_PATH";
+    public static final String P_REL_PATH = "REL_PATH";
+    public static final String P_TEMPLATE = "TEMPLATE";
+    public static final String P_CONCAT_A = "CONCAT_A";
+    public static final String P_CONCAT_B = "CONCAT_B";
+
     // Deduplication of JS content via hash to avoid rescanning same content multiple times
     // and map the content hash to the first seen JS source URL (for persistence)
     private static final ConcurrentHashMap<String, String> PROCESSED_JS_HASH_TO_URL = new ConcurrentHashMap<>();
-    private static final Object SCANNED_FILE_LOCK = new Object();
 
-    public JsEndpointAnalyzer(DataStore store, Settings settings, Scope scope, Logging log) {
+    /** Regex sources stored as pattern labels by older versions, mapped to the current names. */
+    public static Map<String, String> legacyPatternNames() {
+        return Map.of(
+                FULL_URL.pattern(), P_FULL_URL,
+                ABS_PATH.pattern(), P_ABS_PATH,
+                REL_PATH.pattern(), P_REL_PATH,
+                TEMPLATE.pattern(), P_TEMPLATE,
+                CONCAT_A.pattern(), P_CONCAT_A,
+                CONCAT_B.pattern(), P_CONCAT_B);
+    }
+
+    public JsEndpointAnalyzer(DataStore store, Settings settings, ScopeCache scope, Logging log) {
         this.store = store;
         this.settings = settings;
         this.scope = scope;
         this.log = log;
+        this.notSureClassifier = NotSureClassifier.withDefaultRules(Set.of(P_ABS_PATH, P_REL_PATH));
+        this.chunkPool = new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()), pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName("paramamador-js-chunk-" + t.getPoolIndex());
+            t.setDaemon(true);
+            return t;
+        }, null, false);
+    }
+
+    public void shutdown() {
+        chunkPool.shutdownNow();
+    }
+
+    /** Rules deciding the "Not Sure" list; additional rules can be registered here. */
+    public NotSureClassifier notSureClassifier() {
+        return notSureClassifier;
     }
 
     public void extractEndpoints(String sourceUrl, String referer, String js, boolean inScopeHint) {
+        if (js == null || js.isBlank()) return;
+        extractEndpoints(sourceUrl, referer, js, ContentFingerprinter.of(js), inScopeHint);
+    }
+
+    public void extractEndpoints(String sourceUrl, String referer, String js, ContentFingerprint fingerprint, boolean inScopeHint) {
+        extractEndpoints(sourceUrl, referer, js, null, fingerprint, inScopeHint);
+    }
+
+    // raw: the original body bytes js was decoded from (ISO-8859-1), if the caller has them
+    public void extractEndpoints(String sourceUrl, String referer, String js, byte[] raw, ContentFingerprint fingerprint, boolean inScopeHint) {
         if (js == null || js.isBlank()) return;
         // Skip if this JS content has already been processed (content-hash based)
-        String bodyHash = sha256Hex(js);
+        String bodyHash = fingerprint == null ? null : fingerprint.sha256();
         if (bodyHash != null) {
             String prev = PROCESSED_JS_HASH_TO_URL.putIfAbsent(bodyHash, sourceUrl == null ? "" : sourceUrl);
             if (prev != null) return; // already processed this content
             // Persist this newly seen JS content (URL + hash) into project export dir file
             try {
-                Path file = settings.scannedJsFilePath();
-                Files.createDirectories(file.getParent());
-                String line = (sourceUrl == null ? "" : sourceUrl) + "\t" + bodyHash + System.lineSeparator();
-                synchronized (SCANNED_FILE_LOCK) {
-                    Files.writeString(file, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-                }
+                AppendJournal.forPath(settings.scannedJsFilePath()).append((sourceUrl == null ? "" : sourceUrl) + "\t" + bodyHash);
             } catch (Throwable ignored) {}
         }
         if (shouldIgnore(sourceUrl)) return;
+        // With the body in the content store, snippets are kept as ranges of it instead of copies. It is
+        // only written here when jsluice stores it anyway (or storeJsBodies asks for it); otherwise
+        // snippets stay text and analysis does no disk writes.
+        ContentStore contents = (settings.isEnableJsluice() || settings.isStoreJsBodies()) ? store.contentStore() : null;
+        boolean stored = bodyHash != null && contents != null && (raw != null ? contents.put(bodyHash, raw) : contents.put(bodyHash, js));
+        String refHash = stored ? bodyHash : null;
+
+        // One lexer pass; candidates are replayed in the order the individual patterns used to produce them
+        JsLexer.Result r = js.length() / 1024 > settings.getParallelScanThresholdKb() && !chunkPool.isShutdown()
+                ? JsLexer.scan(js, settings.getScanChunkKb() * 1024, chunkPool)
+                : JsLexer.scan(js);
+        // Repeats of the same candidate would only re-send identical arguments; the first occurrence wins in the store anyway
+        Set<String> seen = new HashSet<>();
 
         // Full URLs
-        Matcher m = FULL_URL.matcher(js);
-        while (m.find()) {
-            String url = m.group(1);
+        for (JsLexer.Candidate c : r.urls) {
+            String url = c.value();
+            if (!seen.add("U" + url)) continue;
             boolean inScope = inScopeHint || isInScope(url) || isRefererInScope(referer);
-            addEndpoint(url, EndpointRecord.Type.ABSOLUTE, inScope, sourceUrl, context(js, m.start(), m.end()), FULL_URL.pattern(), false, referer);
+            addEndpoint(url, EndpointRecord.Type.ABSOLUTE, inScope, sourceUrl, context(js, refHash, c.start(), c.end()), P_FULL_URL, null, referer);
         }
 
         // Absolute paths
-        m = ABS_PATH.matcher(js);
-        while (m.find()) {
-            String path = m.group(1);
+        for (JsLexer.Candidate c : r.absPaths) {
+            String path = c.value();
+            if (!seen.add("A" + path)) continue;
             if (shouldIgnoreValue(path)) continue;
             boolean inScope = inScopeHint || isRefererInScope(referer);
-            addEndpoint(path, EndpointRecord.Type.RELATIVE, inScope, sourceUrl, context(js, m.start(1), m.end(1)), ABS_PATH.pattern(), false, referer);
+            addEndpoint(path, EndpointRecord.Type.RELATIVE, inScope, sourceUrl, context(js, refHash, c.start(), c.end()), P_ABS_PATH, null, referer);
         }
 
         // Relative paths
-        m = REL_PATH.matcher(js);
-        while (m.find()) {
-            String path = m.group(1);
+        for (JsLexer.Candidate c : r.relPaths) {
+            String path = c.value();
+            if (!seen.add("R" + path)) continue;
             if (shouldIgnoreValue(path)) continue;
             boolean inScope = inScopeHint || isRefererInScope(referer);
-            addEndpoint(path, EndpointRecord.Type.RELATIVE, inScope, sourceUrl, context(js, m.start(1), m.end(1)), REL_PATH.pattern(), false, referer);
+            addEndpoint(path, EndpointRecord.Type.RELATIVE, inScope, sourceUrl, context(js, refHash, c.start(), c.end()), P_REL_PATH, null, referer);
         }
 
-        // Template literals: replace ${...} with EXPR
-        m = TEMPLATE.matcher(js);
-        while (m.find()) {
-            String tpl = m.group(1);
-            String masked = tpl.replaceAll("\\$\\{[^}]+}", "EXPR");
-            // Look for urls/paths inside
-            Matcher innerUrl = FULL_URL.matcher(masked);
-            while (innerUrl.find()) {
-                // Provide original (unmasked) template content as context snippet
-                addEndpoint(innerUrl.group(1), EndpointRecord.Type.TEMPLATE, inScopeHint || isRefererInScope(referer), sourceUrl,
-                        tpl, FULL_URL.pattern(), false, referer);
-            }
-            if (masked.startsWith("/")) {
-                // Provide original (unmasked) template content as context snippet
-                addEndpoint(masked, EndpointRecord.Type.TEMPLATE, inScopeHint || isRefererInScope(referer), sourceUrl,
-                        tpl, TEMPLATE.pattern(), false, referer);
-            }
+        // Template literals (${...} already masked as EXPR); original template content is the context snippet
+        for (JsLexer.Candidate c : r.templates) {
+            if (!seen.add((c.kind() == JsLexer.Kind.TEMPLATE_URL ? "T" : "P") + c.value())) continue;
+            String pattern = c.kind() == JsLexer.Kind.TEMPLATE_URL ? P_FULL_URL : P_TEMPLATE;
+            addEndpoint(c.value(), EndpointRecord.Type.TEMPLATE, inScopeHint || isRefererInScope(referer), sourceUrl,
+                    span(js, refHash, c.start(), c.end()), pattern, null, referer);
         }
 
         // Simple string concatenations "a" + var and var + "b"
-        for (Pattern p : List.of(CONCAT_A, CONCAT_B)) {
-            m = p.matcher(js);
-            while (m.find()) {
-                String candidate;
-                boolean suspiciousLiteral = false;
-                if (p == CONCAT_A) {
-                    String left = m.group(1);      // string literal content
-                    String var = m.group(2);       // variable/expression token
-                    candidate = left + var;        // keep variable name as-is (no EXPR masking)
-                    // If the literal part contains any of () $ ' + , @ ~ < > & = then mark as not-sure
-                    if (left != null && left.matches(".*[\u0028\u0029\u0024\u0027\u002B\u002C\u0040\u007E\u003C\u003E\u0026\u003D].*")) suspiciousLiteral = true;
-                } else { // CONCAT_B
-                    String var = m.group(1);       // variable/expression token
-                    String right = m.group(2);     // string literal content
-                    candidate = var + right;       // keep variable name as-is (no EXPR masking)
-                    if (right != null && right.matches(".*[\u0028\u0029\u0024\u0027\u002B\u002C\u0040\u007E\u003C\u003E\u0026\u003D].*")) suspiciousLiteral = true;
-                }
+        for (List<JsLexer.Candidate> list : List.of(r.concatA, r.concatB)) {
+            for (JsLexer.Candidate c : list) {
+                String candidate = c.value();    // keep variable name as-is (no EXPR masking)
+                // The literal part decides the not-sure verdict, so it is part of the identity
+                if (!seen.add((c.kind() == JsLexer.Kind.CONCAT_A ? "a" : "b") + c.literal() + '\0' + candidate)) continue;
                 if (!candidate.isBlank()) {
                     if (shouldIgnoreValue(candidate)) continue;
                     EndpointRecord.Type type = candidate.startsWith("/") ? EndpointRecord.Type.RELATIVE : EndpointRecord.Type.CONCAT;
-                    addEndpoint(candidate, type, inScopeHint || isRefererInScope(referer), sourceUrl, context(js, m.start(), m.end()), p.pattern(), suspiciousLiteral, referer);
+                    String pattern = c.kind() == JsLexer.Kind.CONCAT_A ? P_CONCAT_A : P_CONCAT_B;
+                    addEndpoint(candidate, type, inScopeHint || isRefererInScope(referer), sourceUrl, context(js, refHash, c.start(), c.end()), pattern, c.literal(), referer);
                 }
             }
         }
     }
 
     private boolean shouldIgnore(String urlOrName) {
-        if (urlOrName == null) return false;
-        String l = urlOrName.toLowerCase(Locale.ROOT);
-        for (String pat : settings.getGlobalIgnoredSources()) {
-            if (l.contains(pat.toLowerCase(Locale.ROOT))) return true;
-        }
-        return false;
+        return settings.getIgnoreMatcher().isIgnoredSource(urlOrName);
     }
 
     private boolean shouldIgnoreValue(String endpointValue) {
-        if (endpointValue == null) return false;
-        String v = endpointValue.trim();
-        if (v.isEmpty()) return false;
-        for (String ig : settings.getGlobalIgnoredValues()) {
-            if (ig != null && v.equalsIgnoreCase(ig.trim())) return true;
-        }
-        return false;
+        return settings.getIgnoreMatcher().isIgnoredValue(endpointValue);
     }
 
     private boolean isRefererInScope(String referer) {
-        if (referer == null || referer.isBlank()) return false;
-        try {
-            return scope.isInScope(referer);
-        } catch (Throwable t) {
-            return false;
-        }
+        return scope.isInScope(referer);
     }
 
     private boolean isInScope(String url) {
-        try {
-            return scope.isInScope(url);
-        } catch (Throwable t) {
-            return false;
-        }
+        return scope.isInScope(url);
     }
 
-    private void addEndpoint(String value, EndpointRecord.Type type, boolean inScope, String source, String ctx, String pattern, boolean extraNotSure, String referer) {
-        boolean notSure = false;
-        try {
-            // Rule 1: for ABS_PATH/REL_PATH derived (type RELATIVE and pattern equals ABS_PATH|REL_PATH),
-            // if path contains any of: () $ ' + , @ ~ < > & =
-            boolean fromRelPatterns = type == EndpointRecord.Type.RELATIVE
-                    && pattern != null
-                    && (pattern.equals(ABS_PATH.pattern()) || pattern.equals(REL_PATH.pattern()));
-            if (fromRelPatterns && value != null) {
-                String pathOnly = value;
-                int qpos = pathOnly.indexOf('?');
-                if (qpos >= 0) pathOnly = pathOnly.substring(0, qpos);
-                if (pathOnly.matches(".*[\u0020\u0028\u0029\u0024\u0027\u002B\u002C\u0040\u007E\u003C\u003E\u0026\u003D].*")) { // ( ) $ ' + , @ ~ < > & = SPACE_CHAR
-                    notSure = true;
-                }
-            }
-
-            // Rule 2: endpoints with no alphanumeric characters at all
-            if (value != null && !value.isEmpty() && !value.matches(".*[A-Za-z0-9].*")) {
-                notSure = true;
-            }
-            // Rule 3: suspicious literal in CONCAT patterns
-            if (extraNotSure) {
-                notSure = true;
-            }
-        } catch (Throwable ignored) {}
-
-        store.addOrUpdateEndpoint(value, type, inScope, source, ctx, pattern, notSure, referer);
+    // literal: string literal part of CONCAT matches (checked by the not-sure rules), otherwise null
+    private void addEndpoint(String value, EndpointRecord.Type type, boolean inScope, String source, Snippet ctx, String pattern, String literal, String referer) {
+        NotSureClassifier.Reason reason = notSureClassifier.classify(new NotSureClassifier.Candidate(value, type, pattern, literal));
+        store.addOrUpdateEndpoint(value, type, inScope, source, ctx.text(), ctx.ref(), pattern, reason != null, reason == null ? null : reason.name(), referer);
         // Derive parameter names from query strings in the endpoint and mark them as only-in-code
         // if (value != null) {
         //     int q = value.indexOf('?');
@@ -234,30 +228,22 @@ public class JsEndpointAnalyzer {
         // }
     }
 
-    private static String context(String s, int start, int end) {
-        int from = Math.max(0, start - 40);
-        int to = Math.min(s.length(), end + 40);
-        return s.substring(from, to);
+    // Context snippet: either copied text or, if the body is stored under refHash, a range of it
+    private record Snippet(String text, SnippetRef ref) {}
+
+    private static Snippet context(String s, String refHash, int start, int end) {
+        return span(s, refHash, Math.max(0, start - 40), Math.min(s.length(), end + 40));
     }
 
-    private static String sha256Hex(String s) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] digest = md.digest(s.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder(digest.length * 2);
-            for (byte b : digest) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (NoSuchAlgorithmException e) {
-            return null;
-        }
+    private static Snippet span(String s, String refHash, int from, int to) {
+        return refHash != null ? new Snippet(null, new SnippetRef(refHash, from, to - from)) : new Snippet(s.substring(from, to), null);
     }
 
     // Load previously scanned JS (URL + hash) from a file into the in-memory dedupe map
     public static void loadProcessedFromFile(java.nio.file.Path file) {
         if (file == null) return;
         try {
-            if (!java.nio.file.Files.isRegularFile(file)) return;
-            java.util.List<String> lines = java.nio.file.Files.readAllLines(file, java.nio.charset.StandardCharsets.UTF_8);
+            java.util.List<String> lines = AppendJournal.readLines(file);
             for (String line : lines) {
                 if (line == null) continue;
                 String t = line.trim();
@@ -0,0 +1,590 @@
+package burp.paramamador.analyzer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Single-pass JavaScript scanner that finds endpoint candidates.
+ *
+ * Walks the source once with a small state machine (code, string, template,
+ * line/block comment, regex literal) and classifies what it sees using the
+ * grammar of the {@link JsEndpointAnalyzer} patterns:
+ * <ul>
+ *   <li>FULL_URL: http(s) URLs anywhere in the text (code, strings, comments)</li>
+ *   <li>ABS_PATH / REL_PATH: quoted path spans inside string literals, template
+ *       literals and comments</li>
+ *   <li>TEMPLATE: template literal bodies (and backtick pairs in comments) with ${...}
+ *       masked as EXPR</li>
+ *   <li>CONCAT_A / CONCAT_B: "literal" + identifier and identifier + "literal"</li>
+ * </ul>
+ * Candidates are returned per kind in source order, so callers can replay them in
+ * the same order the former one-regex-per-pass implementation produced.
+ *
+ * Unlike the regexes, quoted spans never extend past the literal they start in,
+ * so minified code such as {@code '/a'+'/b'} yields {@code /a} and {@code /b}
+ * instead of one glued {@code /a'+'/b}.
+ *
+ * Large bodies can be scanned in parallel chunks, see {@link #scan(String, int, ExecutorService)}.
+ */
+final class JsLexer {
+
+    enum Kind { FULL_URL, ABS_PATH, REL_PATH, TEMPLATE_URL, TEMPLATE_PATH, CONCAT_A, CONCAT_B }
+
+    /**
+     * One candidate. {@code start}/{@code end} delimit the match in the source (for paths:
+     * the captured path; for templates: the template body). {@code literal} holds the
+     * string literal part of CONCAT candidates.
+     */
+    record Candidate(Kind kind, String value, int start, int end, String literal) {}
+
+    static final class Result {
+        final List<Candidate> urls = new ArrayList<>();
+        final List<Candidate> absPaths = new ArrayList<>();
+        final List<Candidate> relPaths = new ArrayList<>();
+        final List<Candidate> templates = new ArrayList<>();
+        final List<Candidate> concatA = new ArrayList<>();
+        final List<Candidate> concatB = new ArrayList<>();
+
+        private void append(Result o) {
+            urls.addAll(o.urls);
+            absPaths.addAll(o.absPaths);
+            relPaths.addAll(o.relPaths);
+            templates.addAll(o.templates);
+            concatA.addAll(o.concatA);
+            concatB.addAll(o.concatB);
+        }
+    }
+
+    private static final int CODE = 0, STRING = 1, TEMPLATE = 2, LINE_COMMENT = 3, BLOCK_COMMENT = 4, REGEX = 5;
+
+    // RFC 3986 pchar + "/" (path), plus "?" (query). '%' is handled separately as %XX.
+    private static final boolean[] PATH = new boolean[128];
+    private static final boolean[] QUERY = new boolean[128];
+    // [A-Za-z0-9_$.] as used by the concatenation patterns
+    private static final boolean[] IDENT = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) { PATH[c] = true; IDENT[c] = true; }
+        for (char c = 'A'; c <= 'Z'; c++) { PATH[c] = true; IDENT[c] = true; }
+        for (char c = '0'; c <= '9'; c++) { PATH[c] = true; IDENT[c] = true; }
+        for (char c : "-._~!$&'()*+,;=:@/".toCharArray()) PATH[c] = true;
+        System.arraycopy(PATH, 0, QUERY, 0, PATH.length);
+        QUERY['?'] = true;
+        IDENT['_'] = true; IDENT['$'] = true; IDENT['.'] = true;
+    }
+
+    private static final String[] REGEX_PREFIX_KEYWORDS = {
+            "return", "typeof", "instanceof", "in", "of", "new", "delete", "void",
+            "throw", "case", "do", "else", "yield", "await"
+    };
+
+    private final String s;
+    private final int end;
+    private final Result out = new Result();
+
+    // Next offset eligible for a FULL_URL match; matches never overlap, like Matcher.find()
+    private int urlFrontier;
+    // After an unterminated literal is abandoned, openers of that kind before these offsets are ignored
+    private int deadDouble = -1, deadSingle = -1, deadRegex = -1;
+    private boolean deadTemplate;
+    // First offset >= the requested stop at which the scan was back in plain code
+    private int syncEnd;
+
+    private JsLexer(String s) {
+        this.s = s;
+        this.end = s.length();
+    }
+
+    static Result scan(String js) {
+        JsLexer lx = new JsLexer(js);
+        lx.run(0, js.length());
+        return lx.out;
+    }
+
+    /**
+     * Scans {@code js} in chunks of about {@code chunkChars} on {@code pool}; the result is
+     * identical to {@link #scan(String)}.
+     *
+     * Chunks start at a newline or ';' and are scanned speculatively as if that offset
+     * were plain code. Each chunk keeps scanning past its nominal end until it is back in
+     * plain code (so a literal, comment or URL crossing the boundary is finished by the
+     * chunk that opened it) and reports that offset. Merging walks the chunks in order:
+     * a chunk is accepted only if it started exactly where its predecessor stopped,
+     * otherwise its range is rescanned from the real resynchronisation point.
+     */
+    static Result scan(String js, int chunkChars, ExecutorService pool) {
+        int[] starts = chunkStarts(js, chunkChars);
+        if (starts.length < 2 || pool == null) return scan(js);
+        int n = starts.length;
+        List<Future<JsLexer>> parts = new ArrayList<>(n);
+        for (int k = 0; k < n; k++) {
+            int from = starts[k];
+            int stop = k + 1 < n ? starts[k + 1] : js.length();
+            parts.add(pool.submit(() -> {
+                JsLexer lx = new JsLexer(js);
+                lx.run(from, stop);
+                return lx;
+            }));
+        }
+        Result merged = new Result();
+        int pos = 0;
+        for (int k = 0; k < n; k++) {
+            int next = k + 1 < n ? starts[k + 1] : js.length();
+            if (next <= pos) {
+                // Range already covered by a predecessor that ran past this chunk
+                parts.get(k).cancel(false);
+                continue;
+            }
+            JsLexer lx = null;
+            if (starts[k] == pos) {
+                try { lx = parts.get(k).get(); } catch (Throwable ignored) {}
+            } else {
+                parts.get(k).cancel(false);
+            }
+            if (lx == null) {
+                lx = new JsLexer(js);
+                lx.run(pos, next);
+            }
+            merged.append(lx.out);
+            pos = lx.syncEnd;
+        }
+        return merged;
+    }
+
+    /** Chunk start offsets: 0, then just after a newline (preferred) or ';' roughly every {@code chunkChars}. */
+    static int[] chunkStarts(String js, int chunkChars) {
+        int len = js.length();
+        int size = Math.max(1024, chunkChars);
+        int window = Math.max(256, size / 4);
+        List<Integer> starts = new ArrayList<>();
+        starts.add(0);
+        int pos = size;
+        while (pos < len) {
+            int limit = Math.min(len, pos + window);
+            int b = -1;
+            int semi = -1;
+            for (int k = pos; k < limit; k++) {
+                char c = js.charAt(k);
+                if (c == '\n') { b = k + 1; break; }
+                if (c == ';' && semi < 0) semi = k + 1;
+            }
+            if (b < 0) b = semi;
+            if (b < 0) {
+                pos = limit;
+                continue;
+            }
+            if (len - b < window) break; // not worth a chunk of its own
+            starts.add(b);
+            pos = b + size;
+        }
+        int[] out = new int[starts.size()];
+        for (int k = 0; k < out.length; k++) out[k] = starts.get(k);
+        return out;
+    }
+
+    /** Scans from {@code from} (assumed plain code) until the first clean code offset at or after {@code stopAt}. */
+    private void run(int from, int stopAt) {
+        urlFrontier = from;
+        int state = CODE;
+        int litStart = -1;
+        char quote = 0;
+        boolean escape = false;
+        boolean inClass = false;
+        int i = from;
+        while (true) {
+            if (i >= stopAt && state == CODE && i < end && isClean(i)) {
+                syncEnd = i;
+                return;
+            }
+            if (i >= end) {
+                // Unterminated literal at end of input: resync right after its opener
+                if (state == STRING || state == REGEX || state == TEMPLATE) {
+                    if (state == STRING) { if (quote == '"') deadDouble = end; else deadSingle = end; }
+                    else if (state == REGEX) deadRegex = end;
+                    else deadTemplate = true;
+                    state = CODE;
+                    escape = false;
+                    i = litStart + 1;
+                    continue;
+                }
+                if (state == LINE_COMMENT || state == BLOCK_COMMENT) scanComment(litStart + 2, end);
+                syncEnd = end;
+                break;
+            }
+            char c = s.charAt(i);
+            if (i >= urlFrontier) {
+                urlFrontier = i + 1;
+                if (c == 'h' || c == 'H') {
+                    int e = urlEnd(s, i, end);
+                    if (e > 0) {
+                        out.urls.add(new Candidate(Kind.FULL_URL, s.substring(i, e), i, e, null));
+                        urlFrontier = e;
+                    }
+                }
+            }
+            switch (state) {
+                case CODE -> {
+                    if (c == '"' || c == '\'') {
+                        if (i >= (c == '"' ? deadDouble : deadSingle)) {
+                            state = STRING;
+                            quote = c;
+                            litStart = i;
+                            escape = false;
+                        }
+                    } else if (c == '`') {
+                        if (!deadTemplate) {
+                            state = TEMPLATE;
+                            litStart = i;
+                            escape = false;
+                        }
+                    } else if (c == '/') {
+                        char n = i + 1 < end ? s.charAt(i + 1) : 0;
+                        if (n == '/') {
+                            state = LINE_COMMENT;
+                            litStart = i;
+                        } else if (n == '*') {
+                            state = BLOCK_COMMENT;
+                            litStart = i;
+                        } else if (i >= deadRegex && regexAllowed(i)) {
+                            state = REGEX;
+                            litStart = i;
+                            escape = false;
+                            inClass = false;
+                        }
+                    }
+                }
+                case STRING -> {
+                    if (escape) {
+                        // keep escaping across a CRLF line continuation
+                        escape = c == '\r' && i + 1 < end && s.charAt(i + 1) == '\n';
+                    } else if (c == '\\') {
+                        escape = true;
+                    } else if (c == quote) {
+                        closeString(litStart, i, quote);
+                        state = CODE;
+                    } else if (c == '\n' || c == '\r') {
+                        if (quote == '"') deadDouble = i; else deadSingle = i;
+                        state = CODE;
+                        i = litStart + 1;
+                        continue;
+                    }
+                }
+                case TEMPLATE -> {
+                    if (escape) {
+                        escape = false;
+                    } else if (c == '\\') {
+                        escape = true;
+                    } else if (c == '`') {
+                        closeTemplate(litStart, i);
+                        state = CODE;
+                    }
+                }
+                case LINE_COMMENT -> {
+                    if (c == '\n' || c == '\r') {
+                        scanComment(litStart + 2, i);
+                        state = CODE;
+                    }
+                }
+                case BLOCK_COMMENT -> {
+                    if (c == '/' && i - 1 >= litStart + 2 && s.charAt(i - 1) == '*') {
+                        scanComment(litStart + 2, i - 1);
+                        state = CODE;
+                    }
+                }
+                case REGEX -> {
+                    if (escape) {
+                        escape = false;
+                    } else if (c == '\\') {
+                        escape = true;
+                    } else if (c == '[') {
+                        inClass = true;
+                    } else if (c == ']') {
+                        inClass = false;
+                    } else if (c == '/' && !inClass) {
+                        state = CODE;
+                    } else if (c == '\n' || c == '\r' || (c == ';' && !inClass)) {
+                        // Not a regex after all (division); rescan as code
+                        deadRegex = i;
+                        state = CODE;
+                        i = litStart + 1;
+                        continue;
+                    }
+                }
+                default -> { }
+            }
+            i++;
+        }
+    }
+
+    // Nothing pending that could affect offsets >= i: a scan started fresh at i behaves identically
+    private boolean isClean(int i) {
+        return urlFrontier <= i && deadDouble <= i && deadSingle <= i && deadRegex <= i && !deadTemplate;
+    }
+
+    // ---- literal handlers ----
+
+    private void closeString(int open, int close, char quote) {
+        scanPaths(open, close);
+        if (quote == '"') concatAround(open, close, end);
+    }
+
+    private void closeTemplate(int open, int close) {
+        templateBody(open, close);
+        scanEmbedded(open + 1, close);
+    }
+
+    /** TEMPLATE candidates for the body between two backticks. */
+    private void templateBody(int open, int close) {
+        int bodyStart = open + 1;
+        if (close > bodyStart) {
+            String body = s.substring(bodyStart, close);
+            String masked = maskExpressions(body);
+            int i = 0;
+            int len = masked.length();
+            while (i < len) {
+                char c = masked.charAt(i);
+                if (c == 'h' || c == 'H') {
+                    int e = urlEnd(masked, i, len);
+                    if (e > 0) {
+                        out.templates.add(new Candidate(Kind.TEMPLATE_URL, masked.substring(i, e), bodyStart, close, null));
+                        i = e;
+                        continue;
+                    }
+                }
+                i++;
+            }
+            if (masked.startsWith("/")) {
+                out.templates.add(new Candidate(Kind.TEMPLATE_PATH, masked, bodyStart, close, null));
+            }
+        }
+    }
+
+    /** Comment bodies: quoted spans plus backtick pairs (e.g. `/api/path` in doc comments). */
+    private void scanComment(int from, int limit) {
+        int p = from;
+        while (p < limit) {
+            int open = s.indexOf('`', p);
+            if (open < 0 || open >= limit) break;
+            int close = s.indexOf('`', open + 1);
+            if (close < 0 || close >= limit) break;
+            templateBody(open, close);
+            p = close + 1;
+        }
+        scanEmbedded(from, limit);
+    }
+
+    /** Quoted spans and "literal" + ident concatenations embedded in template bodies and comments. */
+    private void scanEmbedded(int from, int limit) {
+        scanPaths(from, limit);
+        int p = from;
+        while (p < limit) {
+            int open = s.indexOf('"', p);
+            if (open < 0 || open >= limit) break;
+            int close = s.indexOf('"', open + 1);
+            if (close < 0 || close >= limit) break;
+            concatAround(open, close, limit);
+            p = close + 1;
+        }
+    }
+
+    /**
+     * Tries ABS_PATH and REL_PATH at every quote in [from, limit). Spans may close on
+     * any quote up to and including {@code limit}, never beyond it.
+     */
+    private void scanPaths(int from, int limit) {
+        int absNext = from;
+        int relNext = from;
+        for (int p = from; p < limit; p++) {
+            char c = s.charAt(p);
+            if (c != '"' && c != '\'') continue;
+            if (p >= absNext) {
+                int cut = matchPath(p, limit, true);
+                if (cut >= 0) absNext = cut + 1;
+            }
+            if (p >= relNext) {
+                int cut = matchPath(p, limit, false);
+                if (cut >= 0) relNext = cut + 1;
+            }
+        }
+    }
+
+    /**
+     * Mirrors ABS_PATH / REL_PATH at the quote {@code q}: greedy path (and optional
+     * query) run followed by a closing quote, backtracking to the last quote inside the
+     * run (the path class contains {@code '}). Emits the path part and returns the
+     * offset of the closing quote, or -1.
+     */
+    private int matchPath(int q, int limit, boolean absolute) {
+        int st = q + 1;
+        if (st >= limit) return -1;
+        char first = s.charAt(st);
+        if (absolute) {
+            if (first != '/') return -1;
+        } else {
+            if (first == '/') return -1;
+            // (?=[^"']*/): a slash must come before the next quote
+            boolean slash = false;
+            for (int k = st; k < limit; k++) {
+                char c = s.charAt(k);
+                if (c == '/') { slash = true; break; }
+                if (c == '"' || c == '\'') break;
+            }
+            if (!slash) return -1;
+        }
+        int k = runOf(PATH, st, limit);
+        int pathEnd = k;
+        if (k < limit && s.charAt(k) == '?') k = runOf(QUERY, k + 1, limit);
+        int runEnd = k;
+        int minPath = absolute ? 2 : 1;
+        for (int j = runEnd; j > st; j--) {
+            if (Math.min(j, pathEnd) - st < minPath) break;
+            if (j >= end) continue;
+            char c = s.charAt(j);
+            boolean closes = j == runEnd ? (c == '"' || c == '\'') : c == '\'';
+            if (!closes) continue;
+            int pe = Math.min(j, pathEnd);
+            Kind kind = absolute ? Kind.ABS_PATH : Kind.REL_PATH;
+            (absolute ? out.absPaths : out.relPaths).add(new Candidate(kind, s.substring(st, pe), st, pe, null));
+            return j;
+        }
+        return -1;
+    }
+
+    private int runOf(boolean[] cls, int k, int limit) {
+        while (k < limit) {
+            char c = s.charAt(k);
+            if (c < 128 && cls[c]) {
+                k++;
+            } else if (c == '%' && k + 2 < limit && isHex(s.charAt(k + 1)) && isHex(s.charAt(k + 2))) {
+                k += 3;
+            } else {
+                break;
+            }
+        }
+        return k;
+    }
+
+    /** CONCAT_A ("lit" + ident) after and CONCAT_B (ident + "lit") before a double-quoted literal. */
+    private void concatAround(int open, int close, int limit) {
+        boolean slash = false, alnum = false;
+        for (int k = open + 1; k < close && !(slash && alnum); k++) {
+            char c = s.charAt(k);
+            if (c == '/') slash = true;
+            else if (c < 128 && IDENT[c] && c != '_' && c != '$' && c != '.') alnum = true;
+        }
+        if (!slash || !alnum) return;
+        String literal = null;
+
+        int k = skipSpace(close + 1, limit);
+        if (k < limit && s.charAt(k) == '+') {
+            int identStart = skipSpace(k + 1, limit);
+            int identEnd = identStart;
+            while (identEnd < limit && isIdent(s.charAt(identEnd))) identEnd++;
+            if (identEnd > identStart) {
+                literal = s.substring(open + 1, close);
+                out.concatA.add(new Candidate(Kind.CONCAT_A, literal + s.substring(identStart, identEnd), open, identEnd, literal));
+            }
+        }
+
+        k = open - 1;
+        while (k >= 0 && isRegexSpace(s.charAt(k))) k--;
+        if (k >= 0 && s.charAt(k) == '+') {
+            k--;
+            while (k >= 0 && isRegexSpace(s.charAt(k))) k--;
+            int identEnd = k + 1;
+            while (k >= 0 && isIdent(s.charAt(k))) k--;
+            int identStart = k + 1;
+            if (identEnd > identStart) {
+                if (literal == null) literal = s.substring(open + 1, close);
+                out.concatB.add(new Candidate(Kind.CONCAT_B, s.substring(identStart, identEnd) + literal, identStart, close + 1, literal));
+            }
+        }
+    }
+
+    /** Heuristic: a '/' starts a regex literal unless it follows an operand. */
+    private boolean regexAllowed(int slash) {
+        int k = slash - 1;
+        while (k >= 0 && Character.isWhitespace(s.charAt(k))) k--;
+        if (k < 0) return true;
+        char p = s.charAt(k);
+        if (p == ')' || p == ']' || p == '}' || p == '"' || p == '\'' || p == '`') return false;
+        if ((p == '+' || p == '-') && k > 0 && s.charAt(k - 1) == p) {
+            // Postfix i++ / a[0]-- ends an operand: the '/' is a division
+            int q = k - 2;
+            while (q >= 0 && Character.isWhitespace(s.charAt(q))) q--;
+            if (q >= 0) {
+                char o = s.charAt(q);
+                if (o == ')' || o == ']' || (isIdent(o) && o != '.')) return false;
+            }
+            return true;
+        }
+        if (!isIdent(p) || p == '.') return !isIdent(p);
+        int wordEnd = k + 1;
+        while (k >= 0 && isIdent(s.charAt(k)) && s.charAt(k) != '.') k--;
+        int wordLen = wordEnd - (k + 1);
+        for (String kw : REGEX_PREFIX_KEYWORDS) {
+            if (kw.length() == wordLen && s.regionMatches(k + 1, kw, 0, wordLen)) return true;
+        }
+        return false;
+    }
+
+    // ---- static helpers ----
+
+    /** Returns the end offset of an http(s) URL starting at {@code i}, or -1 (FULL_URL grammar). */
+    static int urlEnd(String t, int i, int limit) {
+        if (i + 8 > limit || !t.regionMatches(true, i, "http", 0, 4)) return -1;
+        int k = i + 4;
+        char c = t.charAt(k);
+        if (c == 's' || c == 'S') k++;
+        if (k + 3 >= limit || !t.startsWith("://", k)) return -1;
+        k += 3;
+        int start = k;
+        while (k < limit && isUrlChar(t.charAt(k))) k++;
+        return k > start ? k : -1;
+    }
+
+    /** Replaces each ${...} (non-empty, up to the first '}') with EXPR. */
+    static String maskExpressions(String tpl) {
+        int k = tpl.indexOf("${");
+        if (k < 0) return tpl;
+        StringBuilder sb = new StringBuilder(tpl.length());
+        int copied = 0;
+        while (k >= 0) {
+            int close = tpl.indexOf('}', k + 2);
+            if (close < 0) break;
+            if (close == k + 2) {
+                k = tpl.indexOf("${", k + 1);
+                continue;
+            }
+            sb.append(tpl, copied, k).append("EXPR");
+            copied = close + 1;
+            k = tpl.indexOf("${", copied);
+        }
+        if (copied == 0) return tpl;
+        sb.append(tpl, copied, tpl.length());
+        return sb.toString();
+    }
+
+    private int skipSpace(int k, int limit) {
+        while (k < limit && isRegexSpace(s.charAt(k))) k++;
+        return k;
+    }
+
+    private static boolean isUrlChar(char c) {
+        return !(isRegexSpace(c) || c == '"' || c == '\'' || c == '\\' || c == '<' || c == '>');
+    }
+
+    // java.util.regex \s
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static boolean isIdent(char c) {
+        return c < 128 && IDENT[c];
+    }
+
+    private static boolean isHex(char c) {
+        return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
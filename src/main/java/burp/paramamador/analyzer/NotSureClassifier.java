@@ -0,0 +1,127 @@
+package burp.paramamador.analyzer;
+
+import burp.paramamador.datastore.EndpointRecord;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Decides whether an extracted endpoint goes to the "Not Sure" list and why.
+ *
+ * Rules are evaluated in order and the first one that fires supplies the {@link Reason}.
+ * Character tests use precomputed char bitsets instead of per-call regexes.
+ * Additional rules can be registered with {@link #addRule(Rule)}.
+ */
+public final class NotSureClassifier {
+
+    public enum Reason {
+        SUSPICIOUS_PATH_CHARS("Path contains one of: space ( ) $ ' + , @ ~ < > & ="),
+        NO_ALPHANUMERIC("No letters or digits"),
+        MULTILINE("Spans multiple lines"),
+        SUSPICIOUS_CONCAT_LITERAL("Concatenated literal contains one of: ( ) $ ' + , @ ~ < > & =");
+
+        private final String label;
+
+        Reason(String label) { this.label = label; }
+
+        public String label() { return label; }
+
+        /** Display text for a persisted reason name; empty when none was recorded. */
+        public static String labelOf(String name) {
+            if (name == null || name.isBlank()) return "";
+            try { return valueOf(name).label(); } catch (IllegalArgumentException e) { return name; }
+        }
+    }
+
+    /** Candidate being classified. {@code literal} is the string literal part of CONCAT matches, otherwise null. */
+    public record Candidate(String value, EndpointRecord.Type type, String pattern, String literal) {}
+
+    @FunctionalInterface
+    public interface Rule {
+        /** Returns a reason if the candidate is not sure, otherwise null. */
+        Reason test(Candidate c);
+    }
+
+    /** Immutable set of chars backed by a bitset. */
+    public static final class CharClass {
+        private final BitSet bits = new BitSet();
+
+        private CharClass(String chars) {
+            for (int i = 0; i < chars.length(); i++) bits.set(chars.charAt(i));
+        }
+
+        public static CharClass of(String chars) { return new CharClass(chars); }
+
+        public static CharClass alphanumeric() {
+            StringBuilder sb = new StringBuilder();
+            for (char c = 'a'; c <= 'z'; c++) sb.append(c);
+            for (char c = 'A'; c <= 'Z'; c++) sb.append(c);
+            for (char c = '0'; c <= '9'; c++) sb.append(c);
+            return new CharClass(sb.toString());
+        }
+
+        public boolean contains(char c) { return bits.get(c); }
+
+        public boolean anyIn(CharSequence s, int from, int to) {
+            for (int i = from; i < to; i++) {
+                if (bits.get(s.charAt(i))) return true;
+            }
+            return false;
+        }
+
+        public boolean anyIn(CharSequence s) { return s != null && anyIn(s, 0, s.length()); }
+    }
+
+    // Chars that make a path/literal look like code rather than a URL
+    private static final CharClass SUSPICIOUS_PATH = CharClass.of(" ()$'+,@~<>&=");
+    private static final CharClass SUSPICIOUS_LITERAL = CharClass.of("()$'+,@~<>&=");
+    private static final CharClass ALNUM = CharClass.alphanumeric();
+    // Line terminators as understood by '.' in java.util.regex
+    private static final CharClass LINE_TERMINATOR = CharClass.of("\n\r\u0085\u2028\u2029");
+
+    private final List<Rule> rules = new CopyOnWriteArrayList<>();
+
+    /** Built-in rules. {@code pathPatterns} are the pattern labels of quoted path matches. */
+    public static NotSureClassifier withDefaultRules(Set<String> pathPatterns) {
+        NotSureClassifier c = new NotSureClassifier();
+        // Quoted path matches (RELATIVE) whose path part (before '?') contains suspicious chars
+        c.addRule(cand -> {
+            if (cand.type() != EndpointRecord.Type.RELATIVE || cand.pattern() == null || !pathPatterns.contains(cand.pattern())) return null;
+            String v = cand.value();
+            if (v == null) return null;
+            int q = v.indexOf('?');
+            return SUSPICIOUS_PATH.anyIn(v, 0, q >= 0 ? q : v.length()) ? Reason.SUSPICIOUS_PATH_CHARS : null;
+        });
+        // Endpoints without any letter or digit; multi-line values (template bodies) never look like endpoints
+        c.addRule(cand -> {
+            String v = cand.value();
+            if (v == null || v.isEmpty()) return null;
+            if (LINE_TERMINATOR.anyIn(v)) return Reason.MULTILINE;
+            return ALNUM.anyIn(v) ? null : Reason.NO_ALPHANUMERIC;
+        });
+        // String literal of a concatenation contains code-like chars (single-line literals only)
+        c.addRule(cand -> {
+            String lit = cand.literal();
+            if (lit == null || LINE_TERMINATOR.anyIn(lit)) return null;
+            return SUSPICIOUS_LITERAL.anyIn(lit) ? Reason.SUSPICIOUS_CONCAT_LITERAL : null;
+        });
+        return c;
+    }
+
+    public void addRule(Rule rule) {
+        if (rule != null) rules.add(rule);
+    }
+
+    /** First matching reason, or null if the candidate looks like a real endpoint. */
+    public Reason classify(Candidate c) {
+        for (Rule r : rules) {
+            try {
+                Reason reason = r.test(c);
+                if (reason != null) return reason;
+            } catch (Throwable ignored) {}
+        }
+        return null;
+    }
+}
@@ -1,10 +1,10 @@
 package burp.paramamador.analyzer;
 
 import burp.api.montoya.http.handler.HttpRequestToBeSent;
-import burp.api.montoya.http.handler.HttpResponseReceived;
 import burp.api.montoya.http.message.ContentType;
 import burp.api.montoya.http.message.params.HttpParameterType;
 import burp.api.montoya.http.message.params.ParsedHttpParameter;
+import burp.api.montoya.http.message.responses.HttpResponse;
 import burp.api.montoya.logging.Logging;
 import burp.paramamador.Settings;
 import burp.paramamador.datastore.DataStore;
@@ -63,7 +63,7 @@ public class ParameterAnalyzer {
     }
 
     public void extractFromResponse(burp.api.montoya.http.message.requests.HttpRequest initiatingRequest,
-                                    HttpResponseReceived response) {
+                                    HttpResponse response) {
         if (response == null) return;
         String reqUrl = initiatingRequest != null ? initiatingRequest.url() : "";
         String host = safeHost(reqUrl);
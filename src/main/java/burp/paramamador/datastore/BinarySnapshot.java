@@ -0,0 +1,301 @@
+package burp.paramamador.datastore;
+
+import burp.paramamador.util.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact binary form of the whole store, kept next to the JSON snapshots for fast reopen.
+ *
+ * Layout: {@code "PMSB" version}, parameter records, endpoint records, string dictionary
+ * (varint length + UTF-8), dictionary offset table (int32 per string) and a fixed-size footer
+ * with the offset and count of every section. Records reference strings by dictionary id
+ * (0 = null) and store numbers as unsigned varints. Reading memory-maps the file and decodes
+ * each distinct string once, on first use.
+ */
+final class BinarySnapshot {
+    private BinarySnapshot() {}
+
+    private static final byte[] MAGIC = {'P', 'M', 'S', 'B'};
+    private static final int VERSION = 3;
+    private static final int MIN_VERSION = 2; // version 2 had no snippet references
+    private static final int FOOTER_LEN = 8 + 4 + 8 + 4 + 8 + 4 + 8 + 4;
+
+    private static final int F_ONLY_IN_CODE = 1, F_FALSE_POSITIVE = 2, F_IN_SCOPE = 4, F_NOT_SURE = 8;
+
+    static void write(Path file, Map<String, ParameterRecord> parameters, Collection<EndpointEntry> endpoints) throws IOException {
+        IOUtils.writeBytesAtomically(file, raw -> {
+            Out out = new Out(new BufferedOutputStream(raw, 64 * 1024));
+            Map<String, Integer> ids = new HashMap<>();
+            List<String> dict = new ArrayList<>();
+            out.bytes(MAGIC);
+            out.u8(VERSION);
+
+            long paramOffset = out.pos;
+            int paramCount = 0;
+            for (ParameterRecord r : parameters.values()) {
+                if (r == null || r.name == null) continue;
+                out.varint(id(r.name, ids, dict));
+                strings(out, r.sources, ids, dict);
+                strings(out, r.types, ids, dict);
+                strings(out, r.exampleValues, ids, dict);
+                strings(out, r.patternsFromJs, ids, dict);
+                out.varint(r.count());
+                out.varint(r.firstSeen());
+                out.varint(r.lastSeen());
+                out.u8((r.onlyInCode ? F_ONLY_IN_CODE : 0) | (r.falsePositive ? F_FALSE_POSITIVE : 0));
+                out.varint(r.sources.overflow());
+                paramCount++;
+            }
+
+            long endpointOffset = out.pos;
+            int endpointCount = 0;
+            for (EndpointEntry en : endpoints) {
+                for (EndpointRecord e : en.expand()) {
+                    out.varint(id(e.endpointString, ids, dict));
+                    out.varint(id(e.source, ids, dict));
+                    out.u8(e.type == null ? 0 : e.type.ordinal() + 1);
+                    out.u8((e.inScope ? F_IN_SCOPE : 0) | (e.notSure ? F_NOT_SURE : 0) | (e.falsePositive ? F_FALSE_POSITIVE : 0));
+                    out.varint(id(e.referer, ids, dict));
+                    out.varint(id(e.contextSnippet, ids, dict));
+                    out.varint(id(e.contextRef == null ? null : e.contextRef.hash(), ids, dict));
+                    if (e.contextRef != null) {
+                        out.varint(e.contextRef.offset());
+                        out.varint(e.contextRef.length());
+                    }
+                    out.varint(id(e.pattern, ids, dict));
+                    out.varint(id(e.notSureReason, ids, dict));
+                    out.varint(e.firstSeen);
+                    endpointCount++;
+                }
+            }
+
+            long dictOffset = out.pos;
+            int[] rel = new int[dict.size()];
+            for (int i = 0; i < dict.size(); i++) {
+                long at = out.pos - dictOffset;
+                if (at > Integer.MAX_VALUE) throw new IOException("Binary snapshot dictionary too large");
+                rel[i] = (int) at;
+                byte[] b = dict.get(i).getBytes(StandardCharsets.UTF_8);
+                out.varint(b.length);
+                out.bytes(b);
+            }
+            long tableOffset = out.pos;
+            for (int r : rel) out.i32(r);
+
+            out.i64(paramOffset); out.i32(paramCount);
+            out.i64(endpointOffset); out.i32(endpointCount);
+            out.i64(dictOffset); out.i32(dict.size());
+            out.i64(tableOffset);
+            out.bytes(MAGIC);
+            out.flush();
+        });
+    }
+
+    /**
+     * Decodes a snapshot into {@code param} / {@code endpoint} callbacks. Returns false (having
+     * called nothing) if the file is missing, truncated or of another version.
+     */
+    static boolean read(Path file, BiConsumer<Boolean, RecordCodecs.Decoded> sink) throws IOException {
+        if (file == null || !Files.isRegularFile(file)) return false;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size < MAGIC.length + 1 + FOOTER_LEN || size > Integer.MAX_VALUE) return false;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            buf.order(ByteOrder.BIG_ENDIAN);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buf.get(i) != MAGIC[i] || buf.get((int) size - MAGIC.length + i) != MAGIC[i]) return false;
+            }
+            int version = buf.get(MAGIC.length) & 0xFF;
+            if (version < MIN_VERSION || version > VERSION) return false;
+
+            int f = (int) size - FOOTER_LEN;
+            long paramOffset = buf.getLong(f);
+            int paramCount = buf.getInt(f + 8);
+            long endpointOffset = buf.getLong(f + 12);
+            int endpointCount = buf.getInt(f + 20);
+            long dictOffset = buf.getLong(f + 24);
+            int dictCount = buf.getInt(f + 32);
+            long tableOffset = buf.getLong(f + 36);
+            if (tableOffset + 4L * dictCount != f || dictOffset > tableOffset || endpointOffset > dictOffset || paramOffset > endpointOffset) return false;
+
+            Dict dict = new Dict(buf, (int) dictOffset, (int) tableOffset, dictCount);
+            In in = new In(buf, (int) paramOffset);
+            EndpointRecord.Type[] types = EndpointRecord.Type.values();
+            try {
+                for (int i = 0; i < paramCount; i++) {
+                    RecordCodecs.Decoded d = new RecordCodecs.Decoded();
+                    d.name = dict.get(in.varint());
+                    d.sources = strings(in, dict);
+                    d.types = strings(in, dict);
+                    d.exampleValues = strings(in, dict);
+                    d.patternsFromJs = strings(in, dict);
+                    d.count = in.varlong();
+                    d.firstSeen = in.varlong();
+                    d.lastSeen = in.varlong();
+                    int flags = in.u8();
+                    d.onlyInCode = (flags & F_ONLY_IN_CODE) != 0;
+                    d.falsePositive = (flags & F_FALSE_POSITIVE) != 0;
+                    d.sourcesOverflow = in.varlong();
+                    sink.accept(false, d);
+                }
+                in.pos = (int) endpointOffset;
+                for (int i = 0; i < endpointCount; i++) {
+                    RecordCodecs.Decoded d = new RecordCodecs.Decoded();
+                    d.endpointString = dict.get(in.varint());
+                    d.source = dict.get(in.varint());
+                    int t = in.u8();
+                    d.type = t == 0 || t > types.length ? null : types[t - 1];
+                    int flags = in.u8();
+                    d.inScope = (flags & F_IN_SCOPE) != 0;
+                    d.notSure = (flags & F_NOT_SURE) != 0;
+                    d.falsePositive = (flags & F_FALSE_POSITIVE) != 0;
+                    d.referer = dict.get(in.varint());
+                    d.contextSnippet = dict.get(in.varint());
+                    String refHash = version >= 3 ? dict.get(in.varint()) : null;
+                    if (refHash != null) d.contextRef = new SnippetRef(refHash, in.varint(), in.varint());
+                    d.pattern = dict.get(in.varint());
+                    d.notSureReason = dict.get(in.varint());
+                    d.firstSeen = in.varlong();
+                    sink.accept(true, d);
+                }
+            } catch (IndexOutOfBoundsException e) {
+                throw new IOException("Corrupt binary snapshot: " + file, e);
+            }
+            return true;
+        }
+    }
+
+    private static int id(String s, Map<String, Integer> ids, List<String> dict) {
+        if (s == null) return 0;
+        Integer id = ids.get(s);
+        if (id == null) {
+            dict.add(s);
+            id = dict.size();
+            ids.put(s, id);
+        }
+        return id;
+    }
+
+    private static void strings(Out out, Collection<String> values, Map<String, Integer> ids, List<String> dict) throws IOException {
+        if (values == null) {
+            out.varint(0);
+            return;
+        }
+        List<String> copy = new ArrayList<>(values);
+        out.varint(copy.size());
+        for (String v : copy) out.varint(id(v, ids, dict));
+    }
+
+    private static List<String> strings(In in, Dict dict) {
+        int n = in.length();
+        List<String> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) out.add(dict.get(in.varint()));
+        return out;
+    }
+
+    /** Dictionary view over the mapped file; each string is decoded on first use and then shared. */
+    private static final class Dict {
+        private final MappedByteBuffer buf;
+        private final int base;
+        private final int table;
+        private final String[] cache;
+
+        Dict(MappedByteBuffer buf, int base, int table, int count) {
+            this.buf = buf;
+            this.base = base;
+            this.table = table;
+            this.cache = new String[count];
+        }
+
+        String get(int id) {
+            if (id == 0) return null;
+            String s = cache[id - 1];
+            if (s == null) {
+                In in = new In(buf, base + buf.getInt(table + 4 * (id - 1)));
+                int len = in.length();
+                byte[] b = new byte[len];
+                buf.get(in.pos, b);
+                s = new String(b, StandardCharsets.UTF_8);
+                cache[id - 1] = s;
+            }
+            return s;
+        }
+    }
+
+    private static final class In {
+        private final MappedByteBuffer buf;
+        int pos;
+
+        In(MappedByteBuffer buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        int u8() { return buf.get(pos++) & 0xFF; }
+
+        int varint() { return (int) varlong(); }
+
+        // A count or byte length: each unit takes at least one byte, so it cannot exceed what is left
+        int length() {
+            long n = varlong();
+            if (n < 0 || n > buf.limit() - pos) throw new IndexOutOfBoundsException("length " + n + " at " + pos);
+            return (int) n;
+        }
+
+        long varlong() {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buf.get(pos++);
+                v |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return v;
+            }
+            throw new IndexOutOfBoundsException("varint too long");
+        }
+    }
+
+    private static final class Out {
+        private final OutputStream out;
+        long pos;
+
+        Out(OutputStream out) { this.out = out; }
+
+        void u8(int v) throws IOException { out.write(v); pos++; }
+
+        void bytes(byte[] b) throws IOException { out.write(b); pos += b.length; }
+
+        void varint(long v) throws IOException {
+            while ((v & ~0x7FL) != 0) {
+                u8((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            u8((int) v);
+        }
+
+        void i32(int v) throws IOException {
+            u8(v >>> 24); u8(v >>> 16); u8(v >>> 8); u8(v);
+        }
+
+        void i64(long v) throws IOException {
+            i32((int) (v >>> 32));
+            i32((int) v);
+        }
+
+        void flush() throws IOException { out.flush(); }
+    }
+}
@@ -0,0 +1,86 @@
+package burp.paramamador.datastore;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Insertion-ordered set of at most {@code capacity} strings, safe for concurrent use without locks.
+ *
+ * Values claim the first free slot with a CAS, so two threads adding the same value never both
+ * keep it. Once every slot is taken, new values are dropped and only counted in
+ * {@link #overflow()} (a dropped value seen twice counts twice). Nulls are ignored.
+ */
+public final class BoundedStringSet extends AbstractCollection<String> {
+
+    private final AtomicReferenceArray<String> slots;
+    private final LongAdder overflow = new LongAdder();
+
+    public BoundedStringSet(int capacity) {
+        this.slots = new AtomicReferenceArray<>(Math.max(1, capacity));
+    }
+
+    /** Adds {@code v} if absent and a slot is free; returns true only if it was added. */
+    @Override
+    public boolean add(String v) {
+        if (v == null) return false;
+        for (int i = 0; i < slots.length(); i++) {
+            String cur = slots.get(i);
+            if (cur == null) {
+                if (slots.compareAndSet(i, null, v)) return true;
+                cur = slots.get(i);
+            }
+            if (cur == v || cur.equals(v)) return false;
+        }
+        overflow.increment();
+        return false;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (o == null) return false;
+        for (int i = 0; i < slots.length(); i++) {
+            String cur = slots.get(i);
+            if (cur == null) return false;
+            if (cur == o || cur.equals(o)) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int size() {
+        int n = 0;
+        while (n < slots.length() && slots.get(n) != null) n++;
+        return n;
+    }
+
+    @Override
+    public boolean isEmpty() { return slots.get(0) == null; }
+
+    public int capacity() { return slots.length(); }
+
+    public long overflow() { return overflow.sum(); }
+
+    public void addOverflow(long n) {
+        if (n > 0) overflow.add(n);
+    }
+
+    /** Weakly consistent: sees every value added before the call, maybe some added during it. */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<>() {
+            private int i;
+
+            @Override
+            public boolean hasNext() { return i < slots.length() && slots.get(i) != null; }
+
+            @Override
+            public String next() {
+                if (!hasNext()) throw new NoSuchElementException();
+                return slots.get(i++);
+            }
+        };
+    }
+}
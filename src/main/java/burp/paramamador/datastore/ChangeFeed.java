@@ -0,0 +1,83 @@
+package burp.paramamador.datastore;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Monotonically versioned log of store changes, kept in a fixed-size ring.
+ *
+ * Every change gets the next version. Consumers remember the last version they processed and
+ * ask for {@link #since(long)}; they get the changes after it, or {@link Delta#reset()} if the
+ * ring has already overwritten some of them (then they must resync from a full snapshot).
+ * Publishing and reading take no locks.
+ */
+public final class ChangeFeed {
+
+    public enum Op { INSERT, UPDATE, FLAG, REMOVE, CLEAR }
+
+    /** One change; exactly one of {@code parameter} / {@code endpoint} is set, except for {@link Op#CLEAR}. */
+    public record Change(long version, Op op, String parameter, EndpointKey endpoint) {
+        public boolean isParameter() { return parameter != null; }
+        public boolean isEndpoint() { return endpoint != null; }
+    }
+
+    /** Changes in {@code (from, to]}; {@code reset} means some were lost and {@code changes} is empty. */
+    public record Delta(long from, long to, boolean reset, List<Change> changes) {
+        public boolean isEmpty() { return !reset && changes.isEmpty(); }
+    }
+
+    static final int DEFAULT_CAPACITY = 1 << 17;
+
+    private final AtomicReferenceArray<Change> ring;
+    private final int mask;
+    // Last version handed out; a slot may still be in the middle of being written
+    private final AtomicLong version = new AtomicLong();
+    // Highest version any reader has asked up to; every reader's next delta starts at or below it
+    private final AtomicLong readMark = new AtomicLong();
+
+    ChangeFeed() { this(DEFAULT_CAPACITY); }
+
+    ChangeFeed(int capacity) {
+        int cap = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.ring = new AtomicReferenceArray<>(cap);
+        this.mask = cap - 1;
+    }
+
+    public long version() { return version.get(); }
+
+    /**
+     * Highest version seen by a {@link #since} call so far. A change newer than this has not been
+     * passed to any reader yet, so every reader will still get it.
+     */
+    long readMark() { return readMark.get(); }
+
+    long publish(Op op, String parameter, EndpointKey endpoint) {
+        long v = version.incrementAndGet();
+        ring.set((int) (v & mask), new Change(v, op, parameter, endpoint));
+        return v;
+    }
+
+    /**
+     * Changes after {@code from}, oldest first. Stops early at a slot that is still being written,
+     * so {@code to} may be below {@link #version()}; ask again from {@code to} next time.
+     */
+    public Delta since(long from) {
+        long latest = version.get();
+        // Before reading any slot: a writer that still sees the old mark changed the record before this read
+        readMark.accumulateAndGet(latest, Math::max);
+        if (from >= latest) return new Delta(from, Math.max(from, latest), false, List.of());
+        if (latest - from > ring.length()) return new Delta(from, latest, true, List.of());
+        List<Change> out = new ArrayList<>((int) (latest - from));
+        long to = from;
+        for (long v = from + 1; v <= latest; v++) {
+            Change c = ring.get((int) (v & mask));
+            if (c == null || c.version() < v) break;          // not written yet
+            if (c.version() > v) return new Delta(from, latest, true, List.of()); // overwritten meanwhile
+            out.add(c);
+            to = v;
+        }
+        return new Delta(from, to, false, out);
+    }
+}
@@ -1,46 +1,197 @@
 package burp.paramamador.datastore;
 
+import burp.paramamador.util.AppendJournal;
+import burp.paramamador.util.ContentStore;
+import burp.paramamador.util.IOUtils;
 import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
 import java.io.IOException;
-import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Files;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static java.util.stream.Collectors.toList;
 
 /**
  * Thread-safe in-memory store with JSON persistence.
+ *
+ * Mutations are published to a versioned {@link ChangeFeed} ({@link #changesSince(long)}).
+ * {@link #flushChanges(Path)} appends the current state of every record changed since the last
+ * flush to an NDJSON change log; {@link #compact} writes full JSON snapshots and drops
+ * the log entries they cover. On startup, {@link #replayChangeLog(Path)} re-applies the log on
+ * top of the loaded snapshots.
  */
 public class DataStore {
     private final Map<String, ParameterRecord> parameters = new ConcurrentHashMap<>();
-    private final Map<String, EndpointRecord> endpoints = new ConcurrentHashMap<>();
+    // One entry per endpoint string; each holds the sources it was found in. On the heap unless
+    // useDiskStorage switched to a disk-backed storage.
+    private volatile EndpointStorage endpoints = new InMemoryEndpointStorage();
+    private final SymbolTable symbols = new SymbolTable();
+    // Stored JS bodies that SnippetRefs point into; null until the extension sets it
+    private volatile ContentStore contentStore;
+    private final EndpointIndex index = new EndpointIndex();
 
-    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
-    private static final Type PARAM_MAP_TYPE = new TypeToken<Map<String, ParameterRecord>>(){}.getType();
-    private static final Type ENDPOINT_MAP_TYPE = new TypeToken<Map<String, EndpointRecord>>(){}.getType();
+    // Every insert/update/flag/remove; the change-log flusher and the UI read it incrementally
+    private final ChangeFeed feed = new ChangeFeed();
+    private volatile long flushedVersion = 0;   // last version written to the change log
+    private volatile long snapshotVersion = 0;  // version covered by the last full snapshot
+    private final Object persistLock = new Object();
+
+    private static final Gson LOG_GSON = new Gson();
 
     public Map<String, ParameterRecord> parameters() { return parameters; }
-    public Map<String, EndpointRecord> endpoints() { return endpoints; }
+    /** Collapsed view of all endpoints (including false positives), one entry per endpoint string. */
+    public Collection<EndpointEntry> endpointEntries() { return Collections.unmodifiableCollection(endpoints.values()); }
+
+    /**
+     * Moves endpoint storage to memory-mapped files under {@code dir}, keeping at most
+     * {@code cacheEntries} endpoints on the heap. Call before anything is loaded; returns false
+     * (changing nothing) if the store already holds endpoints.
+     */
+    public synchronized boolean useDiskStorage(Path dir, int cacheEntries) throws IOException {
+        if (endpoints.size() > 0) return false;
+        EndpointStorage old = endpoints;
+        endpoints = new DiskEndpointStorage(dir, symbols, cacheEntries);
+        old.close();
+        return true;
+    }
+
+    /** Why disk storage stopped moving endpoints off the heap, or null if it has not. */
+    public IOException endpointStorageFailure() {
+        return endpoints.failure();
+    }
+
+    /** Releases the endpoint storage's files; the store must not be used afterwards. */
+    public void close() {
+        endpoints.close();
+    }
+
+    /**
+     * Runs {@code action} on the live entry for {@code endpoint} while holding its lock, looking the
+     * value up again if the entry was unlinked before the lock was taken. Returns null (without
+     * running it) if there is no entry and {@code create} is false.
+     */
+    private <T> T withEntry(String endpoint, boolean create, java.util.function.Function<EndpointEntry, T> action) {
+        while (true) {
+            EndpointEntry en = create ? endpoints.getOrCreate(endpoint) : endpoints.get(endpoint);
+            if (en == null) return null;
+            synchronized (en) {
+                if (en.removed) continue;
+                return action.apply(en);
+            }
+        }
+    }
+
+    /** Expanded view: one record per endpoint and source, or null if not present. */
+    public EndpointRecord getEndpoint(String endpoint, String source) {
+        EndpointEntry en = endpoint == null ? null : endpoints.get(endpoint);
+        return en == null ? null : en.record(source);
+    }
+
+    /** Grouped view of one endpoint string, as in {@link #snapshotEndpointsCollapsed()}; null if nothing is visible. */
+    public EndpointRecord getEndpointCollapsed(String endpoint) {
+        EndpointEntry en = endpoint == null ? null : endpoints.get(endpoint);
+        return en == null ? null : en.collapse(EndpointEntry.Occurrence::visible);
+    }
+
+    public ParameterRecord getParameter(String name) {
+        return name == null ? null : parameters.get(name);
+    }
+
+    /** Number of (endpoint, source) records. */
+    public int endpointCount() {
+        int n = 0;
+        for (EndpointEntry en : endpoints.values()) n += en.size();
+        return n;
+    }
+    public SymbolTable symbols() { return symbols; }
+
+    public ContentStore contentStore() { return contentStore; }
+    public void setContentStore(ContentStore contentStore) {
+        this.contentStore = contentStore;
+        if (contentStore != null) contentStore.beforeEvict(this::inlineSnippets);
+    }
+
+    /**
+     * Replaces references into the given stored bodies by the text they point at, while the bodies
+     * can still be read; the content store calls this before deleting them. Walks every endpoint,
+     * which is fine for the occasional eviction pass it serves.
+     */
+    private void inlineSnippets(Set<String> hashes) {
+        ContentStore cs = contentStore;
+        if (cs == null || hashes.isEmpty()) return;
+        List<String> values = new ArrayList<>();
+        for (EndpointEntry en : endpoints.values()) {
+            for (EndpointEntry.Occurrence o : en.occurrences()) {
+                if (o.contextHash != null && hashes.contains(o.contextHash)) {
+                    values.add(en.endpointString);
+                    break;
+                }
+            }
+        }
+        for (String value : values) {
+            List<EndpointKey> keys = withEntry(value, false, en -> {
+                List<EndpointKey> changed = new ArrayList<>();
+                for (EndpointEntry.Occurrence o : en.occurrences()) {
+                    if (o.contextHash == null || !hashes.contains(o.contextHash)) continue;
+                    o.contextSnippet = cs.read(o.contextHash, o.contextOffset, o.contextLength);
+                    o.contextRef(null);
+                    changed.add(endpointKey(en.endpointString, o.source));
+                }
+                if (!changed.isEmpty()) en.dirty = true;
+                return changed;
+            });
+            if (keys == null) continue;
+            for (EndpointKey key : keys) endpointChanged(ChangeFeed.Op.UPDATE, key);
+        }
+    }
+
+    /** Context snippet of a record, read from the content store if it is only referenced; "" if unavailable. */
+    public String contextOf(EndpointRecord r) {
+        if (r == null) return "";
+        if (r.contextSnippet != null) return r.contextSnippet;
+        ContentStore cs = contentStore;
+        if (r.contextRef == null || cs == null) return "";
+        String s = cs.read(r.contextRef.hash(), r.contextRef.offset(), r.contextRef.length());
+        return s == null ? "" : s;
+    }
+
+    /** Current version of the change feed; see {@link #changesSince(long)}. */
+    public long version() { return feed.version(); }
+
+    /** Changes after {@code version}, or a reset marker if they are no longer retained. */
+    public ChangeFeed.Delta changesSince(long version) { return feed.since(version); }
 
     // Parameters
     public void addOrUpdateParam(String name, String source, String type, String example) {
         if (name == null || name.isBlank()) return;
-        ParameterRecord r = parameters.computeIfAbsent(name, ParameterRecord::new);
+        boolean[] created = {false};
+        ParameterRecord r = parameters.computeIfAbsent(name, n -> { created[0] = true; return new ParameterRecord(n); });
+        // Not interned: sources are "host path" values, mostly distinct, and the table never shrinks
         r.sources.add(source);
-        if (type != null) r.types.add(type);
+        if (type != null) r.types.add(symbols.intern(type));
         if (example != null) r.addExample(example);
         r.touch();
+        paramChanged(created[0] ? ChangeFeed.Op.INSERT : ChangeFeed.Op.UPDATE, r);
     }
 
     public void markOnlyInCode(String name, String pattern) {
-        ParameterRecord r = parameters.computeIfAbsent(name, ParameterRecord::new);
+        boolean[] created = {false};
+        ParameterRecord r = parameters.computeIfAbsent(name, n -> { created[0] = true; return new ParameterRecord(n); });
         r.onlyInCode = true;
-        if (pattern != null && !pattern.isBlank()) r.patternsFromJs.add(pattern);
+        if (pattern != null && !pattern.isBlank()) r.patternsFromJs.add(symbols.pattern(pattern));
+        paramChanged(created[0] ? ChangeFeed.Op.INSERT : ChangeFeed.Op.UPDATE, r);
     }
 
     // Endpoints
@@ -49,22 +200,175 @@ public class DataStore {
     }
 
     public void addOrUpdateEndpoint(String endpoint, EndpointRecord.Type type, boolean inScope, String source, String context, String pattern, boolean notSure, String referer) {
+        addOrUpdateEndpoint(endpoint, type, inScope, source, context, pattern, notSure, null, referer);
+    }
+
+    public void addOrUpdateEndpoint(String endpoint, EndpointRecord.Type type, boolean inScope, String source, String context, String pattern, boolean notSure, String notSureReason, String referer) {
+        addOrUpdateEndpoint(endpoint, type, inScope, source, context, null, pattern, notSure, notSureReason, referer);
+    }
+
+    /** As above, with the context given as a reference into a stored body ({@code contextRef}) instead of text. */
+    public void addOrUpdateEndpoint(String endpoint, EndpointRecord.Type type, boolean inScope, String source, String context, SnippetRef contextRef, String pattern, boolean notSure, String notSureReason, String referer) {
         if (endpoint == null || endpoint.isBlank()) return;
-        String key = endpointKey(endpoint, source);
-        EndpointRecord e = endpoints.computeIfAbsent(key, k -> new EndpointRecord(endpoint, source, type, inScope, context, pattern));
-        e.inScope = e.inScope || inScope;
-        if (context != null && (e.contextSnippet == null || e.contextSnippet.isBlank())) e.contextSnippet = context;
-        if (pattern != null && (e.pattern == null || e.pattern.isBlank())) e.pattern = pattern;
-        e.notSure = e.notSure || notSure;
-        if (e.referer == null || e.referer.isBlank()) {
-            if (referer != null && !referer.isBlank()) e.referer = referer;
-        }
+        SnippetRef snippet = contextRef == null ? null : new SnippetRef(symbols.intern(contextRef.hash()), contextRef.offset(), contextRef.length());
+        String src = symbols.intern(source);
+        String pat = symbols.pattern(pattern);
+        String ref = symbols.intern(referer);
+        String reason = symbols.intern(notSureReason);
+        EndpointKey key = endpointKey(endpoint, src);
+        ChangeFeed.Op published = withEntry(endpoint, true, en -> {
+            ChangeFeed.Op op = null;
+            EndpointEntry.Occurrence e = en.find(src);
+            if (e == null) {
+                e = en.add(src);
+                e.type = type;
+                e.inScope = inScope;
+                e.contextSnippet = snippet == null ? context : null;
+                e.contextRef(snippet);
+                e.pattern = pat;
+                e.firstSeen = Instant.now().toEpochMilli();
+                index.add(key, null);
+                op = ChangeFeed.Op.INSERT;
+            }
+            // Re-sightings usually change nothing; only real updates are published
+            boolean changed = false;
+            if (inScope && !e.inScope) { e.inScope = true; changed = true; }
+            if ((snippet != null || (context != null && !context.isBlank())) && !e.hasContext()) {
+                e.contextSnippet = snippet == null ? context : null;
+                e.contextRef(snippet);
+                changed = true;
+            }
+            if (pat != null && (e.pattern == null || e.pattern.isBlank())) { e.pattern = pat; changed = true; }
+            if (notSure && reason != null && e.notSureReason == null) { e.notSureReason = reason; changed = true; }
+            if (e.referer == null || e.referer.isBlank()) {
+                if (ref != null && !ref.isBlank()) {
+                    e.referer = ref;
+                    index.refererSet(key, ref);
+                    changed = true;
+                }
+            }
+            if (notSure && !e.notSure) {
+                e.notSure = true;
+                if (op == null) op = ChangeFeed.Op.FLAG;
+            } else if (changed && op == null) {
+                op = ChangeFeed.Op.UPDATE;
+            }
+            if (op != null) en.dirty = true;
+            return op;
+        });
+        if (published != null) endpointChanged(published, key);
     }
 
     public void markEndpointFalsePositive(String endpoint, String source, boolean value) {
         if (endpoint == null) return;
-        EndpointRecord e = endpoints.get(endpointKey(endpoint, source));
-        if (e != null) e.falsePositive = value;
+        Boolean marked = withEntry(endpoint, false, en -> {
+            EndpointEntry.Occurrence e = en.find(source);
+            if (e == null) return false;
+            e.falsePositive = value;
+            en.dirty = true;
+            return true;
+        });
+        if (Boolean.TRUE.equals(marked)) endpointChanged(ChangeFeed.Op.FLAG, endpointKey(endpoint, source));
+    }
+
+    /** Marks the endpoint in every source it was found in (collapsed view). */
+    public void markEndpointFalsePositive(String endpoint, boolean value) {
+        if (endpoint == null) return;
+        List<String> sources = withEntry(endpoint, false, en -> {
+            List<String> marked = new ArrayList<>();
+            for (EndpointEntry.Occurrence e : en.occurrences()) {
+                e.falsePositive = value;
+                marked.add(e.source);
+            }
+            en.dirty = true;
+            return marked;
+        });
+        if (sources == null) return;
+        for (String src : sources) endpointChanged(ChangeFeed.Op.FLAG, endpointKey(endpoint, src));
+    }
+
+    /** Marks every endpoint found in {@code source}; returns how many records were marked. */
+    public int markEndpointsFalsePositiveBySource(String source, boolean value) {
+        int n = 0;
+        for (EndpointKey key : new ArrayList<>(index.source(source))) {
+            Boolean marked = withEntry(key.endpoint(), false, en -> {
+                EndpointEntry.Occurrence e = en.find(key.source());
+                if (e == null || e.falsePositive == value) return false;
+                e.falsePositive = value;
+                en.dirty = true;
+                return true;
+            });
+            if (!Boolean.TRUE.equals(marked)) continue;
+            endpointChanged(ChangeFeed.Op.FLAG, key);
+            n++;
+        }
+        return n;
+    }
+
+    /** Removes every endpoint whose trimmed value equals {@code endpointValue}; returns how many were removed. */
+    public int removeEndpointsByValue(String endpointValue) {
+        if (endpointValue == null || endpointValue.isBlank()) return 0;
+        String needle = endpointValue.trim();
+        Set<String> values = new HashSet<>();
+        values.add(needle);
+        for (EndpointKey key : index.paddedValue(needle)) values.add(key.endpoint());
+        int removed = 0;
+        for (String value : values) {
+            List<EndpointKey> keys = withEntry(value, false, en -> {
+                List<EndpointKey> unlinked = new ArrayList<>();
+                for (EndpointEntry.Occurrence e : en.occurrences()) unlinked.add(endpointKey(en.endpointString, e.source));
+                unlink(en);
+                return unlinked;
+            });
+            if (keys == null) continue;
+            for (EndpointKey key : keys) endpointChanged(ChangeFeed.Op.REMOVE, key);
+            removed += keys.size();
+        }
+        return removed;
+    }
+
+    /** Endpoints that point at {@code hostPort}: absolute ones on that host, relative ones from JS served by it. */
+    public List<EndpointRecord> endpointsForHost(String hostPort) { return resolve(index.host(hostPort)); }
+
+    public List<EndpointRecord> endpointsForSource(String source) { return resolve(index.source(source)); }
+
+    /** Endpoints whose JS file was fetched with a Referer from {@code origin} (any URL on it works). */
+    public List<EndpointRecord> endpointsForRefererOrigin(String origin) { return resolve(index.refererOrigin(origin)); }
+
+    /** Host a record is attributed to in {@link #endpointsForHost}, or null. */
+    public static String targetHostOf(EndpointRecord r) {
+        if (r == null || r.endpointString == null) return null;
+        String h = EndpointIndex.hostOf(r.endpointString);
+        return h != null ? h : EndpointIndex.hostOf(r.source);
+    }
+
+    private List<EndpointRecord> resolve(Collection<EndpointKey> keys) {
+        List<EndpointRecord> out = new ArrayList<>(keys.size());
+        for (EndpointKey key : keys) {
+            EndpointRecord r = getEndpoint(key.endpoint(), key.source());
+            if (r != null) out.add(r);
+        }
+        out.sort(Comparator.comparing(e -> e.endpointString));
+        return out;
+    }
+
+    /** Drops an entry and its index keys; the caller holds the entry's monitor. */
+    private void unlink(EndpointEntry en) {
+        en.removed = true;
+        endpoints.remove(en);
+        for (EndpointEntry.Occurrence e : en.occurrences()) index.remove(endpointKey(en.endpointString, e.source), e.referer);
+    }
+
+    private void paramChanged(ChangeFeed.Op op, ParameterRecord r) {
+        // Every sighting updates a parameter. Updates that no reader could have missed are folded into
+        // the parameter's pending change (readers look up its current state), so the feed holds at most
+        // about one entry per parameter between reads instead of one per sighting.
+        if (op == ChangeFeed.Op.UPDATE && r.publishedVersion > feed.readMark()) return;
+        r.publishedVersion = feed.publish(op, r.name, null);
+    }
+
+    private void endpointChanged(ChangeFeed.Op op, EndpointKey key) {
+        feed.publish(op, null, key);
     }
 
     public List<ParameterRecord> snapshotParameters() {
@@ -76,120 +380,511 @@ public class DataStore {
 
     public List<EndpointRecord> snapshotEndpoints() {
         return endpoints.values().stream()
-                .filter(e -> !e.notSure && !e.falsePositive)
+                .flatMap(en -> en.expand(EndpointEntry.Occurrence::visible).stream())
+                .sorted(Comparator.comparing(e -> e.endpointString))
+                .collect(toList());
+    }
+
+    /** One row per endpoint string: its earliest visible source, with {@link EndpointRecord#occurrences} set. */
+    public List<EndpointRecord> snapshotEndpointsCollapsed() {
+        return endpoints.values().stream()
+                .map(en -> en.collapse(EndpointEntry.Occurrence::visible))
+                .filter(Objects::nonNull)
                 .sorted(Comparator.comparing(e -> e.endpointString))
                 .collect(toList());
     }
 
     public List<EndpointRecord> snapshotNotSureEndpoints() {
         return endpoints.values().stream()
-                .filter(e -> e.notSure && !e.falsePositive)
+                .flatMap(en -> en.expand(o -> o.notSure && !o.falsePositive).stream())
                 .sorted(Comparator.comparing(ep -> ep.endpointString))
                 .collect(toList());
     }
 
-    private static String endpointKey(String endpoint, String source) {
-        String s = source == null ? "" : source;
-        return s + "||" + endpoint;
+    private static EndpointKey endpointKey(String endpoint, String source) {
+        return new EndpointKey(source, endpoint);
     }
 
+    /** Streams full JSON snapshots; each file is replaced atomically, so a crash mid-save keeps the previous one. */
     public void saveToDisk(Path parametersFile, Path endpointsFile) throws IOException {
         if (parametersFile != null) {
-            java.nio.file.Files.createDirectories(parametersFile.getParent());
-            java.nio.file.Files.writeString(parametersFile, GSON.toJson(parameters, PARAM_MAP_TYPE));
+            IOUtils.writeAtomically(parametersFile, out -> {
+                JsonWriter w = RecordCodecs.newWriter(out);
+                RecordCodecs.writeParameterMap(w, parameters);
+                w.flush();
+            });
         }
         if (endpointsFile != null) {
-            java.nio.file.Files.createDirectories(endpointsFile.getParent());
-            java.nio.file.Files.writeString(endpointsFile, GSON.toJson(endpoints, ENDPOINT_MAP_TYPE));
+            IOUtils.writeAtomically(endpointsFile, out -> {
+                JsonWriter w = RecordCodecs.newWriter(out);
+                RecordCodecs.writeEndpoints(w, endpoints.values());
+                w.flush();
+            });
         }
     }
 
+    /**
+     * Writes the endpoints in the snapshot layout, but with the text of every referenced snippet, so
+     * the file can be used without the content store. Records are grouped by body and each body is
+     * decompressed once. Not done under the snapshot lock: change log flushes continue meanwhile.
+     */
+    public void exportEndpoints(Path file) throws IOException {
+        ContentStore cs = contentStore;
+        IOUtils.writeAtomically(file, out -> {
+            JsonWriter w = RecordCodecs.newWriter(out);
+            Map<String, List<EndpointRecord>> byBody = new LinkedHashMap<>();
+            w.beginObject();
+            for (EndpointEntry en : endpoints.values()) {
+                for (EndpointRecord e : en.expand()) {
+                    if (e.contextRef != null && cs != null) {
+                        byBody.computeIfAbsent(e.contextRef.hash(), h -> new ArrayList<>()).add(e);
+                        continue;
+                    }
+                    w.name(new EndpointKey(e.source, e.endpointString).toString());
+                    RecordCodecs.writeEndpoint(w, e);
+                }
+            }
+            for (Map.Entry<String, List<EndpointRecord>> b : byBody.entrySet()) {
+                List<EndpointRecord> recs = b.getValue();
+                int[] offsets = new int[recs.size()];
+                int[] lengths = new int[recs.size()];
+                for (int i = 0; i < offsets.length; i++) {
+                    offsets[i] = recs.get(i).contextRef.offset();
+                    lengths[i] = recs.get(i).contextRef.length();
+                }
+                String[] text = cs.read(b.getKey(), offsets, lengths);
+                for (int i = 0; i < offsets.length; i++) {
+                    EndpointRecord e = recs.get(i);
+                    w.name(new EndpointKey(e.source, e.endpointString).toString());
+                    RecordCodecs.writeEndpoint(w, e, text == null ? null : text[i]);
+                }
+            }
+            w.endObject();
+            w.flush();
+        });
+    }
+
+    /**
+     * Merges snapshot files into the store. Files are streamed record by record and loaded in
+     * parallel; the kind of each file (endpoints or parameters) is detected from its first record.
+     */
     public void loadFromFiles(java.util.List<Path> files) throws IOException {
         if (files == null || files.isEmpty()) return;
+        List<Path> todo = new ArrayList<>();
         for (Path f : files) {
-            if (f == null) continue;
-            if (!Files.isRegularFile(f)) continue;
-            String json = Files.readString(f);
-            if (json == null || json.isBlank()) continue;
-            // Try endpoints first
-            Map<String, EndpointRecord> eMap = null;
-            try {
-                eMap = GSON.fromJson(json, ENDPOINT_MAP_TYPE);
-            } catch (Throwable ignored) {}
-            boolean endpointsDetected = false;
-            if (eMap != null && !eMap.isEmpty()) {
-                for (EndpointRecord v : eMap.values()) {
-                    if (v != null && v.endpointString != null) { endpointsDetected = true; break; }
+            if (f != null && Files.isRegularFile(f)) todo.add(f);
+        }
+        if (todo.isEmpty()) return;
+        if (todo.size() == 1) {
+            loadFile(todo.get(0));
+            return;
+        }
+        int threads = Math.min(todo.size(), Math.max(1, Runtime.getRuntime().availableProcessors()));
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "paramamador-load");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Path f : todo) futures.add(pool.submit(() -> { loadFile(f); return null; }));
+            IOException first = null;
+            for (Future<?> fu : futures) {
+                try {
+                    fu.get();
+                } catch (ExecutionException e) {
+                    if (first == null) first = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while loading snapshots", e);
                 }
             }
-            if (endpointsDetected) {
-                for (Map.Entry<String, EndpointRecord> en : eMap.entrySet()) {
-                    EndpointRecord rec = en.getValue();
-                    if (rec == null) continue;
-                    String src = rec.source;
-                    String ep = rec.endpointString;
-                    if ((src == null || src.isBlank() || ep == null || ep.isBlank()) && en.getKey() != null) {
-                        String k = en.getKey();
-                        int sep = k.indexOf("||");
-                        if (sep >= 0 && sep + 2 < k.length()) {
-                            if (src == null || src.isBlank()) src = k.substring(0, sep);
-                            if (ep == null || ep.isBlank()) ep = k.substring(sep + 2);
-                        }
-                    }
-                    if (ep == null || ep.isBlank()) continue;
-                    addOrUpdateEndpoint(ep, rec.type, rec.inScope, src, rec.contextSnippet, rec.pattern, rec.notSure, rec.referer);
-                    if (rec.falsePositive) {
-                        markEndpointFalsePositive(ep, src, true);
-                    }
+            if (first != null) throw first;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Merges a binary snapshot written by {@link #compact(Path, Path, Path, Path)}. Returns false if
+     * the file is missing or unreadable, in which case nothing was merged.
+     */
+    public boolean loadBinarySnapshot(Path file) throws IOException {
+        return BinarySnapshot.read(file, (isEndpoint, d) -> {
+            // Fast path for records not in the store yet (the usual startup case): install as-is
+            if (isEndpoint) {
+                if (d.endpointString == null || d.endpointString.isBlank()) return;
+                if (putEndpoint(d, false)) return;
+            } else {
+                if (d.name == null || d.name.isBlank()) return;
+                if (parameters.putIfAbsent(d.name, toParameter(d)) == null) return;
+            }
+            mergeDecoded(isEndpoint, null, d);
+        });
+    }
+
+    /**
+     * Installs a decoded endpoint as-is. Without {@code replace}, returns false (changing nothing)
+     * if the store already has that endpoint for that source; only replacements are published.
+     */
+    private boolean putEndpoint(RecordCodecs.Decoded in, boolean replace) {
+        String source = symbols.intern(in.source);
+        EndpointKey key = endpointKey(in.endpointString, source);
+        return withEntry(in.endpointString, true, en -> {
+            EndpointEntry.Occurrence e = en.find(source);
+            boolean created = e == null;
+            if (created) {
+                e = en.add(source);
+            } else {
+                if (!replace) return false;
+                index.remove(key, e.referer);
+            }
+            fill(e, in);
+            index.add(key, e.referer);
+            en.dirty = true;
+            // Bulk snapshot loads (no replace) are not published: nothing downstream needs them
+            if (replace) endpointChanged(created ? ChangeFeed.Op.INSERT : ChangeFeed.Op.UPDATE, key);
+            return true;
+        });
+    }
+
+    private void fill(EndpointEntry.Occurrence e, RecordCodecs.Decoded in) {
+        e.type = in.type;
+        e.inScope = in.inScope;
+        // Exports carry the text next to the reference; the reference is enough in memory
+        e.contextSnippet = in.contextRef == null ? in.contextSnippet : null;
+        e.contextRef(in.contextRef == null ? null : new SnippetRef(symbols.intern(in.contextRef.hash()), in.contextRef.offset(), in.contextRef.length()));
+        e.pattern = symbols.pattern(in.pattern);
+        e.referer = symbols.intern(in.referer);
+        e.notSure = in.notSure;
+        e.notSureReason = symbols.intern(in.notSureReason);
+        e.falsePositive = in.falsePositive;
+        e.firstSeen = in.firstSeen > 0 ? in.firstSeen : Instant.now().toEpochMilli();
+    }
+
+    private ParameterRecord toParameter(RecordCodecs.Decoded in) {
+        ParameterRecord r = new ParameterRecord(in.name);
+        if (in.sources != null) for (String s : in.sources) r.sources.add(s);
+        if (in.types != null) for (String t : in.types) r.types.add(symbols.intern(t));
+        if (in.patternsFromJs != null) for (String p : in.patternsFromJs) r.patternsFromJs.add(symbols.pattern(p));
+        if (in.exampleValues != null) for (String ex : in.exampleValues) r.addExample(ex);
+        r.sources.addOverflow(in.sourcesOverflow);
+        r.addCount(in.count);
+        r.restoreSeen(in.firstSeen, in.lastSeen);
+        r.onlyInCode = in.onlyInCode;
+        r.falsePositive = in.falsePositive;
+        return r;
+    }
+
+    private void loadFile(Path f) throws IOException {
+        try (JsonReader r = new JsonReader(Files.newBufferedReader(f, StandardCharsets.UTF_8))) {
+            r.setLenient(true);
+            if (r.peek() != JsonToken.BEGIN_OBJECT) return; // empty or not a snapshot
+            r.beginObject();
+            Boolean endpointFile = null;
+            // Records read before the kind is known (neither endpointString nor name set)
+            List<Map.Entry<String, RecordCodecs.Decoded>> undecided = new ArrayList<>();
+            while (r.hasNext()) {
+                String key = r.nextName();
+                RecordCodecs.Decoded d;
+                try {
+                    d = RecordCodecs.readRecord(r);
+                } catch (IllegalStateException | NumberFormatException e) {
+                    return; // not a record map
                 }
-                continue;
-            }
-
-            // Try parameters
-            Map<String, ParameterRecord> pMap = null;
-            try {
-                pMap = GSON.fromJson(json, PARAM_MAP_TYPE);
-            } catch (Throwable ignored) {}
-            boolean paramsDetected = false;
-            if (pMap != null && !pMap.isEmpty()) {
-                for (ParameterRecord v : pMap.values()) {
-                    if (v != null && v.name != null) { paramsDetected = true; break; }
+                if (d == null) continue;
+                if (endpointFile == null) {
+                    if (d.isEndpoint()) endpointFile = true;
+                    else if (d.isParameter()) endpointFile = false;
+                    else {
+                        undecided.add(Map.entry(key, d));
+                        continue;
+                    }
+                    for (Map.Entry<String, RecordCodecs.Decoded> en : undecided) mergeDecoded(endpointFile, en.getKey(), en.getValue());
+                    undecided.clear();
                 }
+                mergeDecoded(endpointFile, key, d);
             }
-            if (paramsDetected) {
-                for (Map.Entry<String, ParameterRecord> en : pMap.entrySet()) {
-                    ParameterRecord incoming = en.getValue();
-                    if (incoming == null) continue;
-                    String name = incoming.name != null ? incoming.name : en.getKey();
-                    if (name == null || name.isBlank()) continue;
-                    ParameterRecord r = parameters.computeIfAbsent(name, ParameterRecord::new);
-                    // merge sets
-                    if (incoming.sources != null) r.sources.addAll(incoming.sources);
-                    if (incoming.types != null) r.types.addAll(incoming.types);
-                    if (incoming.patternsFromJs != null) r.patternsFromJs.addAll(incoming.patternsFromJs);
-                    // merge examples (respect size cap in addExample)
-                    if (incoming.exampleValues != null) {
-                        for (String ex : incoming.exampleValues) r.addExample(ex);
+        } catch (com.google.gson.JsonParseException | com.google.gson.stream.MalformedJsonException | java.io.EOFException e) {
+            // Truncated or malformed file: keep what was merged so far
+        }
+    }
+
+    private void mergeDecoded(boolean endpointFile, String key, RecordCodecs.Decoded rec) {
+        if (endpointFile) {
+            String src = rec.source;
+            String ep = rec.endpointString;
+            if ((src == null || src.isBlank() || ep == null || ep.isBlank()) && key != null && key.contains("||")) {
+                EndpointKey k = EndpointKey.parse(key);
+                if ((src == null || src.isBlank()) && !k.source().isEmpty()) src = k.source();
+                if ((ep == null || ep.isBlank()) && !k.endpoint().isEmpty()) ep = k.endpoint();
+            }
+            if (ep == null || ep.isBlank()) return;
+            addOrUpdateEndpoint(ep, rec.type, rec.inScope, src, rec.contextSnippet, rec.contextRef, rec.pattern, rec.notSure, rec.notSureReason, rec.referer);
+            if (rec.falsePositive) {
+                markEndpointFalsePositive(ep, src, true);
+            }
+            if (rec.firstSeen > 0) {
+                String source = symbols.intern(src);
+                withEntry(ep, false, en -> {
+                    EndpointEntry.Occurrence e = en.find(source);
+                    if (e != null && rec.firstSeen < e.firstSeen) {
+                        e.firstSeen = rec.firstSeen;
+                        en.dirty = true;
                     }
-                    // merge counters and timestamps
-                    r.count += Math.max(0, incoming.count);
-                    if (incoming.firstSeen > 0) r.firstSeen = r.firstSeen == 0 ? incoming.firstSeen : Math.min(r.firstSeen, incoming.firstSeen);
-                    if (incoming.lastSeen > 0) r.lastSeen = Math.max(r.lastSeen, incoming.lastSeen);
-                    r.onlyInCode = r.onlyInCode || incoming.onlyInCode;
-                    r.falsePositive = r.falsePositive || incoming.falsePositive;
-                }
+                    return null;
+                });
             }
+            return;
         }
+        String name = rec.name != null ? rec.name : key;
+        if (name == null || name.isBlank()) return;
+        boolean[] created = {false};
+        ParameterRecord r = parameters.computeIfAbsent(name, n -> { created[0] = true; return new ParameterRecord(n); });
+        // merge sets
+        if (rec.sources != null) for (String s : rec.sources) r.sources.add(s);
+        r.sources.addOverflow(rec.sourcesOverflow);
+        if (rec.types != null) for (String t : rec.types) r.types.add(symbols.intern(t));
+        if (rec.patternsFromJs != null) for (String p : rec.patternsFromJs) r.patternsFromJs.add(symbols.pattern(p));
+        // merge examples (respect size cap in addExample)
+        if (rec.exampleValues != null) {
+            for (String ex : rec.exampleValues) r.addExample(ex);
+        }
+        // merge counters and timestamps; other files may be merging into the same record
+        r.addCount(rec.count);
+        r.seen(rec.firstSeen);
+        r.seen(rec.lastSeen);
+        if (rec.onlyInCode) r.onlyInCode = true;
+        if (rec.falsePositive) r.falsePositive = true;
+        paramChanged(created[0] ? ChangeFeed.Op.INSERT : ChangeFeed.Op.UPDATE, r);
     }
 
     public void clearAll() {
         parameters.clear();
-        endpoints.clear();
+        clearEndpoints();
+        symbols.clear();
+        feed.publish(ChangeFeed.Op.CLEAR, null, null);
     }
 
     public void markParameterFalsePositive(String name, boolean value) {
         if (name == null || name.isBlank()) return;
         ParameterRecord r = parameters.get(name);
-        if (r != null) r.falsePositive = value;
+        if (r != null) {
+            r.falsePositive = value;
+            paramChanged(ChangeFeed.Op.FLAG, r);
+        }
+    }
+
+    /** Forgets pending change-log entries, e.g. after loading records that are already on disk. */
+    public void discardPendingChanges() {
+        flushedVersion = feed.version();
+    }
+
+    /** True if anything changed since the last {@link #compact} snapshot. */
+    public boolean hasChangesSinceSnapshot() { return feed.version() != snapshotVersion; }
+
+    /**
+     * Appends the current state of every record changed since the last flush to the change log
+     * (one JSON object per line: {@code param}, {@code endpoint}, {@code remove} or {@code clear}).
+     * Returns the number of lines written. The lines are on disk when it returns; if writing them
+     * fails the IOException is thrown and the same changes are logged again by the next call.
+     */
+    public int flushChanges(Path logFile) throws IOException {
+        if (logFile == null) return 0;
+        synchronized (persistLock) {
+            ChangeFeed.Delta delta = feed.since(flushedVersion);
+            if (delta.isEmpty()) return 0;
+            AppendJournal journal = AppendJournal.forPath(logFile);
+            int n = 0;
+            if (delta.reset()) {
+                // The feed no longer holds every change since the last flush: log the whole store
+                journal.append(CLEAR_LINE);
+                n++;
+                for (ParameterRecord r : parameters.values()) n += logParam(journal, r);
+                for (EndpointEntry en : endpoints.values()) {
+                    for (EndpointRecord e : en.expand()) n += logEndpoint(journal, endpointKey(e.endpointString, e.source), e);
+                }
+                journal.flush();
+                flushedVersion = delta.to();
+                return n;
+            }
+            // Only the latest state of each record matters; a clear voids everything before it
+            boolean cleared = false;
+            Map<Object, ChangeFeed.Change> latest = new LinkedHashMap<>();
+            for (ChangeFeed.Change c : delta.changes()) {
+                if (c.op() == ChangeFeed.Op.CLEAR) {
+                    latest.clear();
+                    cleared = true;
+                    continue;
+                }
+                Object k = c.isParameter() ? c.parameter() : c.endpoint();
+                latest.remove(k);
+                latest.put(k, c);
+            }
+            if (cleared) {
+                journal.append(CLEAR_LINE);
+                n++;
+            }
+            for (ChangeFeed.Change c : latest.values()) {
+                if (c.isParameter()) {
+                    ParameterRecord r = parameters.get(c.parameter());
+                    if (r != null) n += logParam(journal, r);
+                    continue;
+                }
+                EndpointKey key = c.endpoint();
+                EndpointRecord e = c.op() == ChangeFeed.Op.REMOVE ? null : getEndpoint(key.endpoint(), key.source());
+                if (e != null) {
+                    n += logEndpoint(journal, key, e);
+                } else {
+                    JsonObject o = new JsonObject();
+                    o.addProperty("op", "remove");
+                    o.addProperty("key", key.toString());
+                    journal.append(LOG_GSON.toJson(o));
+                    n++;
+                }
+            }
+            journal.flush();
+            flushedVersion = delta.to();
+            return n;
+        }
+    }
+
+    private static final String CLEAR_LINE = "{\"op\":\"clear\"}";
+
+    // Only serialization is guarded: a record that cannot be encoded would fail on every retry.
+    // Write errors surface from journal.flush().
+    private static int logParam(AppendJournal journal, ParameterRecord r) {
+        String json;
+        try {
+            json = RecordCodecs.toJson(r);
+        } catch (IOException | RuntimeException ex) {
+            return 0;
+        }
+        journal.append("{\"op\":\"param\",\"rec\":" + json + "}");
+        return 1;
+    }
+
+    private static int logEndpoint(AppendJournal journal, EndpointKey key, EndpointRecord e) {
+        String json;
+        try {
+            json = RecordCodecs.toJson(e);
+        } catch (IOException | RuntimeException ex) {
+            return 0;
+        }
+        journal.append("{\"op\":\"endpoint\",\"key\":" + LOG_GSON.toJson(key.toString()) + ",\"rec\":" + json + "}");
+        return 1;
+    }
+
+    /**
+     * Folds the change log into full snapshots: the log is rotated to {@code <log>.compacting},
+     * the snapshots are written from memory and the rotated file is deleted. Entries logged while
+     * the snapshot is written stay in the fresh log.
+     */
+    public void compact(Path parametersFile, Path endpointsFile, Path logFile) throws IOException {
+        compact(parametersFile, endpointsFile, null, logFile);
+    }
+
+    /** As {@link #compact(Path, Path, Path)}, also refreshing the binary snapshot when {@code binaryFile} is set. */
+    public void compact(Path parametersFile, Path endpointsFile, Path binaryFile, Path logFile) throws IOException {
+        synchronized (persistLock) {
+            Path rotated = null;
+            if (logFile != null) {
+                flushChanges(logFile);
+                rotated = compactingPath(logFile);
+                AppendJournal.forPath(logFile).rotateTo(rotated);
+            }
+            // Changes published while the snapshot is written may or may not be in it; they stay pending
+            long covered = feed.version();
+            saveToDisk(parametersFile, endpointsFile);
+            snapshotVersion = covered;
+            if (binaryFile != null) {
+                try {
+                    BinarySnapshot.write(binaryFile, parameters, endpoints.values());
+                } catch (IOException | RuntimeException e) {
+                    // JSON is authoritative; a stale binary snapshot must not be preferred on the next start
+                    try { Files.deleteIfExists(binaryFile); } catch (Throwable ignored) {}
+                }
+            }
+            if (rotated != null) Files.deleteIfExists(rotated);
+        }
+    }
+
+    /** Re-applies a change log (and a leftover {@code .compacting} file from an interrupted compaction). Returns lines applied. */
+    public int replayChangeLog(Path logFile) throws IOException {
+        if (logFile == null) return 0;
+        int applied = 0;
+        for (Path f : List.of(compactingPath(logFile), logFile)) {
+            for (String line : AppendJournal.readLines(f)) {
+                if (line == null || line.isBlank()) continue;
+                try {
+                    if (applyLogLine(line)) applied++;
+                } catch (Throwable ignored) {}
+            }
+        }
+        return applied;
+    }
+
+    private boolean applyLogLine(String line) throws IOException {
+        String op = null;
+        String key = null;
+        RecordCodecs.Decoded in = null;
+        try (JsonReader r = new JsonReader(new java.io.StringReader(line))) {
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "op" -> op = r.nextString();
+                    case "key" -> key = r.nextString();
+                    case "rec" -> in = RecordCodecs.readRecord(r);
+                    default -> r.skipValue();
+                }
+            }
+            r.endObject();
+        }
+        if (op == null) return false;
+        switch (op) {
+            case "clear" -> {
+                parameters.clear();
+                clearEndpoints();
+                feed.publish(ChangeFeed.Op.CLEAR, null, null);
+            }
+            case "remove" -> {
+                if (key == null) return false;
+                EndpointKey k = EndpointKey.parse(key);
+                Boolean removed = withEntry(k.endpoint(), false, en -> {
+                    EndpointEntry.Occurrence e = en.find(k.source());
+                    if (e == null) return false;
+                    index.remove(k, e.referer);
+                    en.remove(k.source());
+                    en.dirty = true;
+                    if (en.size() == 0) unlink(en);
+                    return true;
+                });
+                if (!Boolean.TRUE.equals(removed)) return false;
+                endpointChanged(ChangeFeed.Op.REMOVE, k);
+            }
+            case "endpoint" -> {
+                if (key == null || in == null || in.endpointString == null) return false;
+                // Logged state is absolute: replace rather than merge
+                putEndpoint(in, true);
+            }
+            case "param" -> {
+                if (in == null || in.name == null) return false;
+                // Logged state is absolute: replace rather than merge
+                ParameterRecord r = toParameter(in);
+                ChangeFeed.Op change = parameters.put(in.name, r) == null ? ChangeFeed.Op.INSERT : ChangeFeed.Op.UPDATE;
+                paramChanged(change, r);
+            }
+            default -> { return false; }
+        }
+        return true;
+    }
+
+    private void clearEndpoints() {
+        endpoints.clear();
+        index.clear();
+    }
+
+    private static Path compactingPath(Path logFile) {
+        return logFile.resolveSibling(logFile.getFileName() + ".compacting");
     }
 }
@@ -0,0 +1,564 @@
+package burp.paramamador.datastore;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Endpoint storage for projects whose results do not fit the heap.
+ *
+ * The latest state of every entry is a record in append-only, memory-mapped segment files. What
+ * moves off the heap are the occurrences (sources, referers, snippets, flags); the heap keeps a
+ * cache of at most {@code cacheEntries} live entries (second-chance LRU) and, for every endpoint,
+ * its value-to-location mapping: the endpoint string, a map node and a boxed location, about
+ * 100 bytes plus the string. {@link EndpointIndex} adds about 150 bytes per (source, endpoint)
+ * pair on top, so heap use still grows with the number of endpoints, only much more slowly.
+ *
+ * An entry leaving the cache is written out by a background thread if it changed and then
+ * unlinked, so the next lookup decodes a fresh copy. Lookups never write records themselves;
+ * only {@link #getOrCreate} waits when the cache is twice its size and the writer lags behind.
+ * If a record cannot be written (disk full?) eviction stops for good, entries stay on the heap
+ * and {@link #failure()} reports the error.
+ *
+ * Rewrites leave dead records behind: a segment is dropped once nothing in it is live, and sparse
+ * ones are copied forward when a new one starts. Segment names are never reused. A dropped
+ * segment's file is deleted when that succeeds, which on Windows is only once its mapping has
+ * been garbage collected; until then it is retried on every new segment and on close.
+ *
+ * The files are scratch space. Persistence still goes through the JSON / binary snapshots and the
+ * change log, so the directory is emptied on open and on close.
+ *
+ * Lock order: an entry's monitor, then {@code lock}. Records are encoded and decoded outside {@code lock}.
+ */
+final class DiskEndpointStorage implements EndpointStorage {
+
+    static final int SEGMENT_BYTES = 64 << 20;
+    private static final long UNWRITTEN = -1L;
+    private static final String SEGMENT_PREFIX = "endpoints-";
+    private static final int F_IN_SCOPE = 1, F_NOT_SURE = 2, F_FALSE_POSITIVE = 4;
+
+    private final Path dir;
+    private final SymbolTable symbols;
+    private final int cacheEntries;
+    private final int segmentBytes;
+    // Distinguishes this instance's segment files from ones an earlier instance could not delete
+    private final String run = Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE);
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "paramamador-endpoint-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean evictionQueued = new AtomicBoolean(false);
+    // Tests only: runs in lookup between decoding a record and caching it
+    volatile Runnable afterDecode;
+
+    private final Object lock = new Object();
+    // Everything below is guarded by lock
+    private final Map<String, Long> locations = new HashMap<>();            // UNWRITTEN until first written out
+    private final LinkedHashMap<String, EndpointEntry> cache = new LinkedHashMap<>();
+    private final Map<String, EndpointEntry> evicting = new HashMap<>();    // left the cache, not written out yet
+    private final List<Segment> segments = new ArrayList<>();                // by id, null once dropped
+    private final List<Path> retired = new ArrayList<>();                    // dropped, file not deleted yet
+    private Segment active;
+    private IOException failure;                                             // first write-back error; stops eviction
+
+    private static final class Segment {
+        final int id;
+        final Path file;
+        final MappedByteBuffer buf;
+        int end;
+        long live;
+
+        Segment(int id, Path file, MappedByteBuffer buf) {
+            this.id = id;
+            this.file = file;
+            this.buf = buf;
+        }
+    }
+
+    DiskEndpointStorage(Path dir, SymbolTable symbols, int cacheEntries) throws IOException {
+        this(dir, symbols, cacheEntries, SEGMENT_BYTES);
+    }
+
+    // Tests use small segments so that rolls and copy-forward happen after a few records
+    DiskEndpointStorage(Path dir, SymbolTable symbols, int cacheEntries, int segmentBytes) throws IOException {
+        this.dir = dir;
+        this.symbols = symbols;
+        this.cacheEntries = Math.max(16, cacheEntries);
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(dir);
+        deleteSegmentFiles();
+    }
+
+    @Override
+    public EndpointEntry get(String endpoint) { return lookup(endpoint, false); }
+
+    @Override
+    public EndpointEntry getOrCreate(String endpoint) { return lookup(endpoint, true); }
+
+    private EndpointEntry lookup(String endpoint, boolean create) {
+        if (endpoint == null) return null;
+        while (true) {
+            Segment seg = null;
+            long loc = UNWRITTEN;
+            EndpointEntry created = null;
+            synchronized (lock) {
+                if (create) awaitWriter();
+                EndpointEntry en = live(endpoint);
+                if (en != null) return en;
+                Long l = locations.get(endpoint);
+                if (l != null && l != UNWRITTEN) {
+                    loc = l;
+                    seg = segments.get(segmentOf(loc));
+                } else {
+                    if (!create) return null;
+                    created = new EndpointEntry(endpoint);
+                    locations.put(endpoint, UNWRITTEN);
+                    cache.put(endpoint, created);
+                }
+            }
+            if (created != null) {
+                scheduleEviction();
+                return created;
+            }
+            EndpointEntry decoded = decode(seg, positionOf(loc));
+            Runnable hook = afterDecode;
+            if (hook != null) hook.run();
+            synchronized (lock) {
+                EndpointEntry en = live(endpoint);
+                if (en != null) return en;
+                Long now = locations.get(endpoint);
+                if (now == null || now != loc) continue; // rewritten, moved or removed meanwhile
+                cache.put(endpoint, decoded);
+            }
+            scheduleEviction();
+            return decoded;
+        }
+    }
+
+    /** The cached entry for {@code endpoint}, taking it back if it is waiting to be written out. */
+    private EndpointEntry live(String endpoint) {
+        EndpointEntry en = cache.get(endpoint);
+        if (en == null) {
+            en = evicting.remove(endpoint);
+            if (en == null) return null;
+            cache.put(endpoint, en);
+        }
+        en.referenced = true;
+        return en;
+    }
+
+    // Under lock. Throttles writers while the cache is far over its size and eviction is running
+    private void awaitWriter() {
+        while (cache.size() > 2 * cacheEntries && failure == null && !writer.isShutdown()) {
+            try {
+                lock.wait(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void scheduleEviction() {
+        synchronized (lock) {
+            if (cache.size() <= cacheEntries || failure != null) return;
+        }
+        if (!evictionQueued.compareAndSet(false, true)) return;
+        try {
+            writer.execute(() -> {
+                evictionQueued.set(false);
+                evictOverflow();
+            });
+        } catch (RejectedExecutionException e) {
+            evictionQueued.set(false); // closed
+        }
+    }
+
+    /** Waits until the eviction passes scheduled so far have run; for tests. */
+    void drainWriter() throws Exception {
+        writer.submit(() -> {}).get();
+    }
+
+    // Writer thread only
+    private void evictOverflow() {
+        List<EndpointEntry> victims = new ArrayList<>();
+        synchronized (lock) {
+            while (cache.size() > cacheEntries && failure == null) {
+                Map.Entry<String, EndpointEntry> eldest = cache.entrySet().iterator().next();
+                EndpointEntry en = eldest.getValue();
+                cache.remove(eldest.getKey());
+                if (en.referenced) {
+                    // Used since it was last passed over: give it another round
+                    en.referenced = false;
+                    cache.put(eldest.getKey(), en);
+                    continue;
+                }
+                evicting.put(eldest.getKey(), en);
+                victims.add(en);
+            }
+        }
+        for (EndpointEntry en : victims) writeBack(en);
+        synchronized (lock) { lock.notifyAll(); }
+        // Victims looked up again meanwhile went back into the cache without scheduling a pass
+        scheduleEviction();
+    }
+
+    private void writeBack(EndpointEntry en) {
+        String k = en.endpointString;
+        synchronized (en) {
+            synchronized (lock) {
+                if (evicting.get(k) != en) return; // looked up again, or removed
+            }
+            byte[] rec = en.dirty ? encode(en) : null;
+            synchronized (lock) {
+                if (evicting.get(k) != en) return;
+                evicting.remove(k);
+                if (rec != null) {
+                    if (failure != null) {
+                        cache.put(k, en);
+                        return;
+                    }
+                    try {
+                        release(locations.put(k, append(rec)));
+                    } catch (IOException | RuntimeException e) {
+                        // Could not write it out (disk full?): keep it, and everything after it, on the heap
+                        failure = e instanceof IOException io ? io : new IOException(e);
+                        cache.put(k, en);
+                        return;
+                    }
+                }
+                en.dirty = false;
+                en.removed = true;
+            }
+        }
+    }
+
+    @Override
+    public void remove(EndpointEntry en) {
+        String k = en.endpointString;
+        synchronized (lock) {
+            if (cache.get(k) == en) cache.remove(k);
+            else if (evicting.get(k) == en) evicting.remove(k);
+            else return;
+            release(locations.remove(k));
+        }
+    }
+
+    /**
+     * Iterates every value known when the iteration starts. Cached entries are returned as they
+     * are; the others are decoded into detached copies that are not cached (and marked removed).
+     */
+    @Override
+    public Collection<EndpointEntry> values() {
+        return new AbstractCollection<>() {
+            @Override
+            public int size() { return DiskEndpointStorage.this.size(); }
+
+            @Override
+            public Iterator<EndpointEntry> iterator() {
+                List<String> keys;
+                synchronized (lock) { keys = new ArrayList<>(locations.keySet()); }
+                Iterator<String> it = keys.iterator();
+                return new Iterator<>() {
+                    private EndpointEntry next;
+
+                    @Override
+                    public boolean hasNext() {
+                        while (next == null && it.hasNext()) next = peek(it.next());
+                        return next != null;
+                    }
+
+                    @Override
+                    public EndpointEntry next() {
+                        if (!hasNext()) throw new NoSuchElementException();
+                        EndpointEntry en = next;
+                        next = null;
+                        return en;
+                    }
+                };
+            }
+        };
+    }
+
+    private EndpointEntry peek(String endpoint) {
+        Segment seg;
+        long loc;
+        synchronized (lock) {
+            EndpointEntry en = cache.get(endpoint);
+            if (en == null) en = evicting.get(endpoint);
+            if (en != null) return en;
+            Long l = locations.get(endpoint);
+            if (l == null || l == UNWRITTEN) return null;
+            loc = l;
+            seg = segments.get(segmentOf(loc));
+        }
+        EndpointEntry en = decode(seg, positionOf(loc));
+        en.removed = true;
+        return en;
+    }
+
+    @Override
+    public int size() {
+        synchronized (lock) { return locations.size(); }
+    }
+
+    @Override
+    public IOException failure() {
+        synchronized (lock) { return failure; }
+    }
+
+    @Override
+    public void clear() {
+        List<EndpointEntry> live;
+        synchronized (lock) {
+            live = new ArrayList<>(cache.values());
+            live.addAll(evicting.values());
+            cache.clear();
+            evicting.clear();
+            locations.clear();
+            for (Segment s : new ArrayList<>(segments)) {
+                if (s != null) drop(s);
+            }
+            active = null;
+        }
+        for (EndpointEntry en : live) {
+            synchronized (en) { en.removed = true; }
+        }
+    }
+
+    @Override
+    public void close() {
+        writer.shutdownNow();
+        clear();
+        synchronized (lock) { lock.notifyAll(); }
+        try {
+            deleteSegmentFiles();
+            Files.deleteIfExists(dir);
+        } catch (IOException ignored) {}
+    }
+
+    // Segments (all under lock)
+
+    private long append(byte[] rec) throws IOException {
+        int need = 4 + rec.length;
+        if (active == null || active.buf.capacity() - active.end < need) roll(need);
+        Segment s = active;
+        int pos = s.end;
+        s.buf.putInt(pos, rec.length);
+        s.buf.put(pos + 4, rec);
+        s.end += need;
+        s.live += need;
+        return ((long) s.id << 32) | pos;
+    }
+
+    private void roll(int need) throws IOException {
+        Segment prev = active;
+        active = newSegment(Math.max(segmentBytes, need));
+        if (prev != null && prev.live == 0) drop(prev);
+        copyForwardSparse(need);
+        deleteRetired();
+    }
+
+    /** Moves the live records of segments less than a quarter full into the active one, if they fit next to {@code reserve} bytes. */
+    private void copyForwardSparse(int reserve) {
+        Map<Segment, Boolean> sparse = new IdentityHashMap<>();
+        long bytes = 0;
+        for (Segment s : segments) {
+            if (s == null || s == active || s.live == 0 || s.live * 4 >= s.buf.capacity()) continue;
+            if (bytes + s.live > active.buf.capacity() - active.end - (long) reserve) continue;
+            sparse.put(s, Boolean.TRUE);
+            bytes += s.live;
+        }
+        if (sparse.isEmpty()) return;
+        for (Map.Entry<String, Long> e : locations.entrySet()) {
+            long loc = e.getValue();
+            if (loc == UNWRITTEN) continue;
+            Segment from = segments.get(segmentOf(loc));
+            if (!sparse.containsKey(from)) continue;
+            int pos = positionOf(loc);
+            int len = from.buf.getInt(pos);
+            byte[] rec = new byte[len];
+            from.buf.get(pos + 4, rec);
+            int at = active.end;
+            active.buf.putInt(at, len);
+            active.buf.put(at + 4, rec);
+            active.end += 4 + len;
+            active.live += 4 + len;
+            from.live -= 4 + len;
+            e.setValue(((long) active.id << 32) | at);
+        }
+        // Readers still decoding from them keep the mapping alive; they see the new location and retry
+        for (Segment s : sparse.keySet()) drop(s);
+    }
+
+    private void release(Long loc) {
+        if (loc == null || loc == UNWRITTEN) return;
+        Segment s = segments.get(segmentOf(loc));
+        if (s == null) return;
+        s.live -= 4 + s.buf.getInt(positionOf(loc));
+        if (s.live <= 0 && s != active) drop(s);
+    }
+
+    private Segment newSegment(int size) throws IOException {
+        int id = segments.size();
+        Path file = dir.resolve(SEGMENT_PREFIX + run + "-" + id + ".seg");
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            Segment s = new Segment(id, file, ch.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            segments.add(s);
+            return s;
+        }
+    }
+
+    private void drop(Segment s) {
+        segments.set(s.id, null);
+        retired.add(s.file);
+        deleteRetired();
+    }
+
+    // Deleting a file that is still mapped fails on Windows; the mapping goes away with the buffer
+    private void deleteRetired() {
+        retired.removeIf(f -> {
+            try {
+                Files.deleteIfExists(f);
+                return true;
+            } catch (Throwable e) {
+                return false;
+            }
+        });
+    }
+
+    private void deleteSegmentFiles() throws IOException {
+        if (!Files.isDirectory(dir)) return;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*.seg")) {
+            for (Path f : files) {
+                try { Files.deleteIfExists(f); } catch (Throwable ignored) {}
+            }
+        }
+    }
+
+    private static int segmentOf(long loc) { return (int) (loc >>> 32); }
+
+    private static int positionOf(long loc) { return (int) loc; }
+
+    // Record format: int32 length, endpoint string, varint occurrence count, then per occurrence
+    // source, type (ordinal + 1, 0 = null), flags, referer, snippet, snippet body hash (followed by
+    // varint offset and length if not null), pattern, reason, first seen.
+    // Strings are varint (UTF-8 length + 1, 0 = null) followed by the bytes.
+
+    private static byte[] encode(EndpointEntry en) {
+        Out out = new Out();
+        out.string(en.endpointString);
+        List<EndpointEntry.Occurrence> occurrences = en.occurrences();
+        out.varint(occurrences.size());
+        for (EndpointEntry.Occurrence o : occurrences) {
+            out.string(o.source);
+            out.write(o.type == null ? 0 : o.type.ordinal() + 1);
+            out.write((o.inScope ? F_IN_SCOPE : 0) | (o.notSure ? F_NOT_SURE : 0) | (o.falsePositive ? F_FALSE_POSITIVE : 0));
+            out.string(o.referer);
+            out.string(o.contextSnippet);
+            out.string(o.contextHash);
+            if (o.contextHash != null) {
+                out.varint(o.contextOffset);
+                out.varint(o.contextLength);
+            }
+            out.string(o.pattern);
+            out.string(o.notSureReason);
+            out.varint(o.firstSeen);
+        }
+        return out.toByteArray();
+    }
+
+    private EndpointEntry decode(Segment seg, int pos) {
+        ByteBuffer b = seg.buf.duplicate();
+        b.position(pos + 4);
+        EndpointEntry en = new EndpointEntry(string(b));
+        EndpointRecord.Type[] types = EndpointRecord.Type.values();
+        int n = (int) varint(b);
+        for (int i = 0; i < n; i++) {
+            EndpointEntry.Occurrence o = en.add(symbols.intern(string(b)));
+            int type = b.get() & 0xFF;
+            o.type = type == 0 || type > types.length ? null : types[type - 1];
+            int flags = b.get() & 0xFF;
+            o.inScope = (flags & F_IN_SCOPE) != 0;
+            o.notSure = (flags & F_NOT_SURE) != 0;
+            o.falsePositive = (flags & F_FALSE_POSITIVE) != 0;
+            o.referer = symbols.intern(string(b));
+            o.contextSnippet = string(b);
+            o.contextHash = symbols.intern(string(b));
+            if (o.contextHash != null) {
+                o.contextOffset = (int) varint(b);
+                o.contextLength = (int) varint(b);
+            }
+            o.pattern = symbols.pattern(string(b));
+            o.notSureReason = symbols.intern(string(b));
+            o.firstSeen = varint(b);
+        }
+        en.dirty = false;
+        return en;
+    }
+
+    private static long varint(ByteBuffer b) {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte x = b.get();
+            v |= (long) (x & 0x7F) << shift;
+            if (x >= 0) return v;
+        }
+        throw new IndexOutOfBoundsException("varint too long");
+    }
+
+    private static String string(ByteBuffer b) {
+        int len = (int) varint(b);
+        if (len == 0) return null;
+        byte[] bytes = new byte[len - 1];
+        b.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Out extends ByteArrayOutputStream {
+        Out() { super(256); }
+
+        void varint(long v) {
+            while ((v & ~0x7FL) != 0) {
+                write((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            write((int) v);
+        }
+
+        void string(String s) {
+            if (s == null) {
+                write(0);
+                return;
+            }
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            varint(bytes.length + 1L);
+            write(bytes, 0, bytes.length);
+        }
+    }
+}
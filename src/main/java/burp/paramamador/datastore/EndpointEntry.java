@@ -0,0 +1,164 @@
+package burp.paramamador.datastore;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Every sighting of one endpoint string: the value is held once and each JS source it was found
+ * in is a small {@link Occurrence} with only the per-source fields (interned source, referer and
+ * pattern, the snippet and flags). {@link EndpointRecord}s are materialized from it on demand.
+ *
+ * All access to the occurrences goes through this entry's monitor.
+ */
+public final class EndpointEntry {
+
+    // Above this many sources, lookups by source go through a hash index instead of a scan
+    private static final int INDEX_THRESHOLD = 8;
+
+    public final String endpointString;
+    private Occurrence[] occurrences = new Occurrence[1];
+    private int size;
+    private Map<String, Occurrence> bySource;
+    // Set once the entry is unlinked from its storage (removed, or written out and dropped from a
+    // disk cache); writers holding a stale reference look the value up again
+    boolean removed;
+    // Changed since it was last written out by a disk storage; set under this entry's monitor
+    boolean dirty = true;
+    // Second-chance bit for a disk storage's cache; guarded by that storage's lock
+    boolean referenced;
+
+    EndpointEntry(String endpointString) {
+        this.endpointString = endpointString;
+    }
+
+    static final class Occurrence {
+        final String source;
+        EndpointRecord.Type type;
+        boolean inScope;
+        String referer;
+        String contextSnippet;
+        // Snippet as a range of the stored body with this SHA-256 (instead of contextSnippet)
+        String contextHash;
+        int contextOffset;
+        int contextLength;
+        String pattern;
+        boolean notSure;
+        String notSureReason;
+        boolean falsePositive;
+        long firstSeen;
+
+        Occurrence(String source) {
+            this.source = source;
+        }
+
+        boolean visible() { return !notSure && !falsePositive; }
+
+        boolean hasContext() { return contextHash != null || (contextSnippet != null && !contextSnippet.isBlank()); }
+
+        SnippetRef contextRef() { return contextHash == null ? null : new SnippetRef(contextHash, contextOffset, contextLength); }
+
+        void contextRef(SnippetRef ref) {
+            contextHash = ref == null ? null : ref.hash();
+            contextOffset = ref == null ? 0 : ref.offset();
+            contextLength = ref == null ? 0 : ref.length();
+        }
+    }
+
+    public synchronized int size() { return size; }
+
+    synchronized Occurrence find(String source) {
+        String s = source == null ? "" : source;
+        if (bySource != null) return bySource.get(s);
+        for (int i = 0; i < size; i++) {
+            String o = occurrences[i].source;
+            if (o == s || s.equals(o == null ? "" : o)) return occurrences[i];
+        }
+        return null;
+    }
+
+    /** Adds an occurrence for {@code source}; the caller has checked {@link #find} under the same lock. */
+    synchronized Occurrence add(String source) {
+        Occurrence o = new Occurrence(source);
+        if (size == occurrences.length) occurrences = Arrays.copyOf(occurrences, size * 2);
+        occurrences[size++] = o;
+        if (bySource != null) {
+            bySource.put(source == null ? "" : source, o);
+        } else if (size > INDEX_THRESHOLD) {
+            bySource = new HashMap<>();
+            for (int i = 0; i < size; i++) bySource.put(occurrences[i].source == null ? "" : occurrences[i].source, occurrences[i]);
+        }
+        return o;
+    }
+
+    synchronized boolean remove(String source) {
+        Occurrence o = find(source);
+        if (o == null) return false;
+        for (int i = 0; i < size; i++) {
+            if (occurrences[i] == o) {
+                System.arraycopy(occurrences, i + 1, occurrences, i, size - i - 1);
+                occurrences[--size] = null;
+                break;
+            }
+        }
+        if (bySource != null) bySource.remove(source == null ? "" : source);
+        return true;
+    }
+
+    synchronized List<Occurrence> occurrences() {
+        List<Occurrence> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) out.add(occurrences[i]);
+        return out;
+    }
+
+    /** Expanded view: one record per source. */
+    public synchronized List<EndpointRecord> expand() {
+        List<EndpointRecord> out = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) out.add(toRecord(occurrences[i], 1));
+        return out;
+    }
+
+    synchronized List<EndpointRecord> expand(Predicate<Occurrence> filter) {
+        List<EndpointRecord> out = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (filter.test(occurrences[i])) out.add(toRecord(occurrences[i], 1));
+        }
+        return out;
+    }
+
+    synchronized EndpointRecord record(String source) {
+        Occurrence o = find(source);
+        return o == null ? null : toRecord(o, 1);
+    }
+
+    /**
+     * Collapsed view: the earliest occurrence accepted by {@code filter}, carrying the number of
+     * accepted occurrences; null if none is accepted.
+     */
+    synchronized EndpointRecord collapse(Predicate<Occurrence> filter) {
+        Occurrence first = null;
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            Occurrence o = occurrences[i];
+            if (!filter.test(o)) continue;
+            n++;
+            if (first == null || o.firstSeen < first.firstSeen) first = o;
+        }
+        return first == null ? null : toRecord(first, n);
+    }
+
+    private EndpointRecord toRecord(Occurrence o, int count) {
+        EndpointRecord r = new EndpointRecord(endpointString, o.source, o.type, o.inScope, o.contextSnippet, o.pattern);
+        r.referer = o.referer;
+        r.contextRef = o.contextRef();
+        r.notSure = o.notSure;
+        r.notSureReason = o.notSureReason;
+        r.falsePositive = o.falsePositive;
+        r.firstSeen = o.firstSeen;
+        r.occurrences = count;
+        return r;
+    }
+}
@@ -0,0 +1,125 @@
+package burp.paramamador.datastore;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Secondary indexes over the endpoint store: trimmed endpoint value, target host, JS source and
+ * referer origin, each mapping to the (source, endpoint) keys it covers. The store's own map is
+ * already keyed by the exact value, so the value index only holds values with surrounding blanks.
+ *
+ * {@link DataStore} updates them while holding the monitor of the {@link EndpointEntry} being
+ * changed, so an index never lags behind its entry for writers. Lookups take no lock and return
+ * live views; resolve keys through the store, which skips ones removed in the meantime.
+ */
+final class EndpointIndex {
+
+    private final Map<String, Set<EndpointKey>> byValue = new ConcurrentHashMap<>();
+    private final Map<String, Set<EndpointKey>> byHost = new ConcurrentHashMap<>();
+    private final Map<String, Set<EndpointKey>> bySource = new ConcurrentHashMap<>();
+    private final Map<String, Set<EndpointKey>> byRefererOrigin = new ConcurrentHashMap<>();
+
+    void add(EndpointKey key, String referer) {
+        put(byValue, paddedValue(key), key);
+        put(bySource, key.source(), key);
+        put(byHost, targetHost(key), key);
+        put(byRefererOrigin, originOf(referer), key);
+    }
+
+    /** The referer of an existing occurrence was set (it is only ever filled in once). */
+    void refererSet(EndpointKey key, String referer) {
+        put(byRefererOrigin, originOf(referer), key);
+    }
+
+    void remove(EndpointKey key, String referer) {
+        drop(byValue, paddedValue(key), key);
+        drop(bySource, key.source(), key);
+        drop(byHost, targetHost(key), key);
+        drop(byRefererOrigin, originOf(referer), key);
+    }
+
+    void clear() {
+        byValue.clear();
+        byHost.clear();
+        bySource.clear();
+        byRefererOrigin.clear();
+    }
+
+    /** Keys of values that only equal {@code trimmed} after trimming. */
+    Set<EndpointKey> paddedValue(String trimmed) { return get(byValue, trimmed); }
+
+    Set<EndpointKey> host(String hostPort) { return get(byHost, hostPort == null ? null : hostPort.toLowerCase(Locale.ROOT)); }
+
+    Set<EndpointKey> source(String source) { return get(bySource, source == null ? "" : source); }
+
+    Set<EndpointKey> refererOrigin(String origin) { return get(byRefererOrigin, originOf(origin)); }
+
+    Set<String> hosts() { return byHost.keySet(); }
+
+    private static String paddedValue(EndpointKey key) {
+        String t = key.endpoint().trim();
+        return t.length() == key.endpoint().length() ? null : t;
+    }
+
+    /** Host an endpoint points at: its own host when absolute, else the host serving the JS file. */
+    private static String targetHost(EndpointKey key) {
+        String h = hostOf(key.endpoint());
+        return h != null ? h : hostOf(key.source());
+    }
+
+    /** {@code host[:port]} of an absolute URL (explicit port kept, userinfo dropped), lowercased; null otherwise. */
+    static String hostOf(String url) {
+        if (url == null) return null;
+        String u = url.trim();
+        int sep = u.indexOf("://");
+        if (sep <= 0) return null;
+        // Plain scan instead of java.net.URI: this runs for every new record, including bulk loads
+        int start = sep + 3;
+        int end = start;
+        while (end < u.length()) {
+            char c = u.charAt(end);
+            if (c == '/' || c == '?' || c == '#' || Character.isWhitespace(c)) break;
+            end++;
+        }
+        int at = u.lastIndexOf('@', end - 1);
+        if (at >= start) start = at + 1;
+        if (start >= end) return null;
+        String h = u.substring(start, end);
+        if (h.charAt(0) == ':' || h.endsWith(":")) return null;
+        return h.toLowerCase(Locale.ROOT);
+    }
+
+    /** {@code scheme://host[:port]} of an absolute URL, lowercased; null otherwise. */
+    static String originOf(String url) {
+        String h = hostOf(url);
+        if (h == null) return null;
+        String u = url.trim();
+        return u.substring(0, u.indexOf("://")).toLowerCase(Locale.ROOT) + "://" + h;
+    }
+
+    private static void put(Map<String, Set<EndpointKey>> index, String k, EndpointKey key) {
+        if (k == null) return;
+        // Inside compute, so a concurrent drop cannot discard the set this key goes into
+        index.compute(k, (x, keys) -> {
+            if (keys == null) keys = ConcurrentHashMap.newKeySet();
+            keys.add(key);
+            return keys;
+        });
+    }
+
+    private static void drop(Map<String, Set<EndpointKey>> index, String k, EndpointKey key) {
+        if (k == null) return;
+        index.computeIfPresent(k, (x, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+    }
+
+    private static Set<EndpointKey> get(Map<String, Set<EndpointKey>> index, String k) {
+        if (k == null) return Set.of();
+        Set<EndpointKey> keys = index.get(k);
+        return keys == null ? Set.of() : keys;
+    }
+}
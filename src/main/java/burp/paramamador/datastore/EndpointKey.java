@@ -0,0 +1,42 @@
+package burp.paramamador.datastore;
+
+/**
+ * Identity of an endpoint record: JS source plus endpoint value. The hash is computed once;
+ * {@link #toString()} is the persisted {@code "source||endpoint"} form.
+ */
+public final class EndpointKey {
+    private static final String SEP = "||";
+
+    private final String source;
+    private final String endpoint;
+    private final int hash;
+
+    public EndpointKey(String source, String endpoint) {
+        this.source = source == null ? "" : source;
+        this.endpoint = endpoint == null ? "" : endpoint;
+        this.hash = 31 * this.source.hashCode() + this.endpoint.hashCode();
+    }
+
+    /** Parses the persisted form; the first separator splits source from endpoint. */
+    public static EndpointKey parse(String key) {
+        if (key == null) return new EndpointKey("", "");
+        int sep = key.indexOf(SEP);
+        return sep < 0 ? new EndpointKey("", key) : new EndpointKey(key.substring(0, sep), key.substring(sep + SEP.length()));
+    }
+
+    public String source() { return source; }
+    public String endpoint() { return endpoint; }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof EndpointKey k)) return false;
+        return hash == k.hash && endpoint.equals(k.endpoint) && source.equals(k.source);
+    }
+
+    @Override
+    public int hashCode() { return hash; }
+
+    @Override
+    public String toString() { return source + SEP + endpoint; }
+}
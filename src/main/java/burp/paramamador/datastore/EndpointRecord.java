@@ -11,10 +11,14 @@ public class EndpointRecord {
     public boolean inScope;
     public String referer; // HTTP Referer used when fetching the JS resource
     public String contextSnippet;
+    public SnippetRef contextRef; // set instead of contextSnippet when the snippet is a range of a stored JS body
     public String pattern; // regex used to capture this endpoint
     public boolean notSure;
+    public String notSureReason; // NotSureClassifier.Reason name of the first rule that flagged it
     public boolean falsePositive;
     public long firstSeen;
+    // Collapsed view only: number of sources folded into this row (not persisted)
+    public transient int occurrences = 1;
 
     public EndpointRecord(String endpointString, String source, Type type, boolean inScope, String contextSnippet, String pattern) {
         this.endpointString = endpointString;
@@ -0,0 +1,36 @@
+package burp.paramamador.datastore;
+
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Where {@link DataStore} keeps its {@link EndpointEntry}s, one per endpoint string.
+ *
+ * Implementations may hand out a new object for the same value once the old one is unlinked;
+ * unlinked entries have {@link EndpointEntry#removed} set, and callers that mutate an entry take
+ * its monitor, check that flag and look the value up again if it is set. Mutations set
+ * {@link EndpointEntry#dirty} under the same monitor.
+ */
+interface EndpointStorage {
+
+    EndpointEntry get(String endpoint);
+
+    EndpointEntry getOrCreate(String endpoint);
+
+    /** Drops {@code en} if it is still the entry stored for its value; the caller holds its monitor. */
+    void remove(EndpointEntry en);
+
+    /** Weakly consistent view of every entry; iterate it read-only. */
+    Collection<EndpointEntry> values();
+
+    int size();
+
+    /** Drops every entry, marking the live ones removed. */
+    void clear();
+
+    /** The error that made the storage stop writing entries out, or null; entries are kept, not lost. */
+    default IOException failure() { return null; }
+
+    /** Releases files and caches; the storage must not be used afterwards. */
+    default void close() {}
+}
@@ -0,0 +1,35 @@
+package burp.paramamador.datastore;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Default storage: every entry on the heap in a concurrent map. */
+final class InMemoryEndpointStorage implements EndpointStorage {
+
+    private final Map<String, EndpointEntry> entries = new ConcurrentHashMap<>();
+
+    @Override
+    public EndpointEntry get(String endpoint) { return entries.get(endpoint); }
+
+    @Override
+    public EndpointEntry getOrCreate(String endpoint) { return entries.computeIfAbsent(endpoint, EndpointEntry::new); }
+
+    @Override
+    public void remove(EndpointEntry en) { entries.remove(en.endpointString, en); }
+
+    @Override
+    public Collection<EndpointEntry> values() { return Collections.unmodifiableCollection(entries.values()); }
+
+    @Override
+    public int size() { return entries.size(); }
+
+    @Override
+    public void clear() {
+        for (EndpointEntry en : entries.values()) {
+            synchronized (en) { en.removed = true; }
+        }
+        entries.clear();
+    }
+}
@@ -1,37 +1,72 @@
 package burp.paramamador.datastore;
 
-import java.time.Instant;
-import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Parameter occurrence summary.
+ *
+ * Updated from many handler threads without locks: the count is a {@link LongAdder}, the
+ * timestamps are atomics that only move outward, and the collections are {@link BoundedStringSet}s,
+ * so the memory per parameter is capped. Sources beyond the cap are only counted.
  */
 public class ParameterRecord {
+    public static final int MAX_SOURCES = 64;
+    public static final int MAX_TYPES = 16;
+    public static final int MAX_EXAMPLES = 3;
+    public static final int MAX_PATTERNS = 16;
+
     public final String name;
-    public final Set<String> sources = Collections.synchronizedSet(new LinkedHashSet<>());
-    public final Set<String> types = Collections.synchronizedSet(new LinkedHashSet<>()); // query/body/json/cookie
-    public final List<String> exampleValues = Collections.synchronizedList(new ArrayList<>());
-    public final Set<String> patternsFromJs = Collections.synchronizedSet(new LinkedHashSet<>()); // regex patterns that led to this param (from JS endpoint query parsing)
-    public long count;
-    public long firstSeen;
-    public long lastSeen;
-    public boolean onlyInCode = false;
-    public boolean falsePositive = false;
+    public final BoundedStringSet sources = new BoundedStringSet(MAX_SOURCES);
+    public final BoundedStringSet types = new BoundedStringSet(MAX_TYPES); // query/body/json/cookie
+    public final BoundedStringSet exampleValues = new BoundedStringSet(MAX_EXAMPLES);
+    public final BoundedStringSet patternsFromJs = new BoundedStringSet(MAX_PATTERNS); // patterns that led to this param (from JS endpoint query parsing)
+    private final LongAdder count = new LongAdder();
+    private final AtomicLong firstSeen;
+    private final AtomicLong lastSeen;
+    public volatile boolean onlyInCode = false;
+    public volatile boolean falsePositive = false;
+    // Feed version of the last change published for this record, see DataStore.paramChanged
+    volatile long publishedVersion;
 
     public ParameterRecord(String name) {
         this.name = name;
-        long now = Instant.now().toEpochMilli();
-        this.firstSeen = now;
-        this.lastSeen = now;
+        long now = System.currentTimeMillis();
+        this.firstSeen = new AtomicLong(now);
+        this.lastSeen = new AtomicLong(now);
+    }
+
+    public void touch() {
+        seen(System.currentTimeMillis());
+        count.increment();
+    }
+
+    public void addExample(String v) {
+        exampleValues.add(v);
+    }
+
+    public long count() { return count.sum(); }
+
+    public long firstSeen() { return firstSeen.get(); }
+
+    public long lastSeen() { return lastSeen.get(); }
+
+    public void addCount(long n) {
+        if (n > 0) count.add(n);
     }
 
-    public synchronized void touch() {
-        lastSeen = Instant.now().toEpochMilli();
-        count++;
+    /** Widens the first/last-seen window to include {@code ts}. */
+    public void seen(long ts) {
+        if (ts <= 0) return;
+        long last = lastSeen.get();
+        while (ts > last && !lastSeen.compareAndSet(last, ts)) last = lastSeen.get();
+        long first = firstSeen.get();
+        while (ts < first && !firstSeen.compareAndSet(first, ts)) first = firstSeen.get();
     }
 
-    public synchronized void addExample(String v) {
-        if (v == null) return;
-        if (exampleValues.size() < 3 && exampleValues.stream().noneMatch(v::equals)) exampleValues.add(v);
+    /** Sets the window as loaded from disk (a fresh record starts at "now"). */
+    void restoreSeen(long first, long last) {
+        if (first > 0) firstSeen.set(first);
+        if (last > 0) lastSeen.set(last);
     }
 }
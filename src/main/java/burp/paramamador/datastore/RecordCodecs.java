@@ -0,0 +1,209 @@
+package burp.paramamador.datastore;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written JSON codecs for the persisted records.
+ *
+ * Field names and order match what reflection-based Gson produced, so snapshots and change-log
+ * lines stay readable by older versions. Null fields are omitted.
+ * Reading decodes either record kind into {@link Decoded}; unknown fields are skipped.
+ */
+final class RecordCodecs {
+    private RecordCodecs() {}
+
+    /** Union of the persisted fields of both record kinds, as read from JSON. */
+    static final class Decoded {
+        // ParameterRecord
+        String name;
+        List<String> sources;
+        long sourcesOverflow;
+        List<String> types;
+        List<String> exampleValues;
+        List<String> patternsFromJs;
+        long count;
+        long lastSeen;
+        boolean onlyInCode;
+        // EndpointRecord
+        String endpointString;
+        String source;
+        EndpointRecord.Type type;
+        boolean inScope;
+        String referer;
+        String contextSnippet;
+        SnippetRef contextRef;
+        String pattern;
+        boolean notSure;
+        String notSureReason;
+        // Both
+        long firstSeen;
+        boolean falsePositive;
+
+        boolean isEndpoint() { return endpointString != null; }
+        boolean isParameter() { return name != null; }
+    }
+
+    static void writeParameter(JsonWriter w, ParameterRecord r) throws IOException {
+        w.beginObject();
+        w.name("name").value(r.name);
+        writeStrings(w, "sources", r.sources);
+        writeStrings(w, "types", r.types);
+        writeStrings(w, "exampleValues", r.exampleValues);
+        writeStrings(w, "patternsFromJs", r.patternsFromJs);
+        w.name("count").value(r.count());
+        w.name("firstSeen").value(r.firstSeen());
+        w.name("lastSeen").value(r.lastSeen());
+        w.name("onlyInCode").value(r.onlyInCode);
+        w.name("falsePositive").value(r.falsePositive);
+        // Sources dropped by the bounded set; omitted when zero so older readers see the old layout
+        long dropped = r.sources.overflow();
+        if (dropped > 0) w.name("sourcesOverflow").value(dropped);
+        w.endObject();
+    }
+
+    static void writeEndpoint(JsonWriter w, EndpointRecord e) throws IOException {
+        writeEndpoint(w, e, e.contextSnippet);
+    }
+
+    // contextSnippet is written as given: exports pass the text a contextRef points at
+    static void writeEndpoint(JsonWriter w, EndpointRecord e, String contextSnippet) throws IOException {
+        w.beginObject();
+        w.name("endpointString").value(e.endpointString);
+        w.name("source").value(e.source);
+        if (e.type != null) w.name("type").value(e.type.name());
+        w.name("inScope").value(e.inScope);
+        w.name("referer").value(e.referer);
+        w.name("contextSnippet").value(contextSnippet);
+        if (e.contextRef != null) w.name("contextRef").value(e.contextRef.toString());
+        w.name("pattern").value(e.pattern);
+        w.name("notSure").value(e.notSure);
+        w.name("notSureReason").value(e.notSureReason);
+        w.name("falsePositive").value(e.falsePositive);
+        w.name("firstSeen").value(e.firstSeen);
+        w.endObject();
+    }
+
+    /** {@code {"key": record, ...}} for a whole map, streamed entry by entry. */
+    static void writeParameterMap(JsonWriter w, Map<String, ParameterRecord> map) throws IOException {
+        w.beginObject();
+        for (Map.Entry<String, ParameterRecord> en : map.entrySet()) {
+            if (en.getValue() == null) continue;
+            w.name(en.getKey());
+            writeParameter(w, en.getValue());
+        }
+        w.endObject();
+    }
+
+    /**
+     * Writes the expanded view as a {@code source||endpoint} keyed object (the on-disk layout).
+     * Snippets that are ranges of a stored body are written as their {@code contextRef} only; see
+     * {@link DataStore#exportEndpoints} for a file with the text.
+     */
+    static void writeEndpoints(JsonWriter w, Collection<EndpointEntry> entries) throws IOException {
+        w.beginObject();
+        for (EndpointEntry en : entries) {
+            for (EndpointRecord e : en.expand()) {
+                w.name(new EndpointKey(e.source, e.endpointString).toString());
+                writeEndpoint(w, e);
+            }
+        }
+        w.endObject();
+    }
+
+    static JsonWriter newWriter(Writer out) {
+        JsonWriter w = new JsonWriter(out);
+        w.setSerializeNulls(false);
+        return w;
+    }
+
+    static String toJson(ParameterRecord r) throws IOException {
+        StringWriter sw = new StringWriter();
+        writeParameter(newWriter(sw), r);
+        return sw.toString();
+    }
+
+    static String toJson(EndpointRecord e) throws IOException {
+        StringWriter sw = new StringWriter();
+        writeEndpoint(newWriter(sw), e);
+        return sw.toString();
+    }
+
+    /** Next record, or null for a JSON null. */
+    static Decoded readRecord(JsonReader r) throws IOException {
+        if (r.peek() == JsonToken.NULL) {
+            r.nextNull();
+            return null;
+        }
+        Decoded d = new Decoded();
+        r.beginObject();
+        while (r.hasNext()) {
+            String field = r.nextName();
+            if (r.peek() == JsonToken.NULL) {
+                r.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "name" -> d.name = r.nextString();
+                case "sources" -> d.sources = readStrings(r);
+                case "sourcesOverflow" -> d.sourcesOverflow = r.nextLong();
+                case "types" -> d.types = readStrings(r);
+                case "exampleValues" -> d.exampleValues = readStrings(r);
+                case "patternsFromJs" -> d.patternsFromJs = readStrings(r);
+                case "count" -> d.count = r.nextLong();
+                case "firstSeen" -> d.firstSeen = r.nextLong();
+                case "lastSeen" -> d.lastSeen = r.nextLong();
+                case "onlyInCode" -> d.onlyInCode = r.nextBoolean();
+                case "falsePositive" -> d.falsePositive = r.nextBoolean();
+                case "endpointString" -> d.endpointString = r.nextString();
+                case "source" -> d.source = r.nextString();
+                case "type" -> d.type = typeOf(r.nextString());
+                case "inScope" -> d.inScope = r.nextBoolean();
+                case "referer" -> d.referer = r.nextString();
+                case "contextSnippet" -> d.contextSnippet = r.nextString();
+                case "contextRef" -> d.contextRef = SnippetRef.parse(r.nextString());
+                case "pattern" -> d.pattern = r.nextString();
+                case "notSure" -> d.notSure = r.nextBoolean();
+                case "notSureReason" -> d.notSureReason = r.nextString();
+                default -> r.skipValue();
+            }
+        }
+        r.endObject();
+        return d;
+    }
+
+    private static EndpointRecord.Type typeOf(String s) {
+        try { return EndpointRecord.Type.valueOf(s); } catch (IllegalArgumentException e) { return null; }
+    }
+
+    private static List<String> readStrings(JsonReader r) throws IOException {
+        List<String> out = new ArrayList<>();
+        r.beginArray();
+        while (r.hasNext()) {
+            if (r.peek() == JsonToken.NULL) {
+                r.nextNull();
+                out.add(null);
+            } else {
+                out.add(r.nextString());
+            }
+        }
+        r.endArray();
+        return out;
+    }
+
+    private static void writeStrings(JsonWriter w, String name, Collection<String> values) throws IOException {
+        if (values == null) return;
+        w.name(name).beginArray();
+        for (String v : values) w.value(v);
+        w.endArray();
+    }
+}
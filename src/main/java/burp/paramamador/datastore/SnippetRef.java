@@ -0,0 +1,28 @@
+package burp.paramamador.datastore;
+
+/**
+ * Where a context snippet lives inside a stored JS body: the body's SHA-256 (its name in the
+ * content store) and the char range. Bodies are kept as ISO-8859-1, so chars and bytes line up.
+ * {@link #toString()} is the persisted {@code "hash:offset:length"} form.
+ */
+public record SnippetRef(String hash, int offset, int length) {
+
+    /** Parses the persisted form; null if it is malformed. */
+    public static SnippetRef parse(String s) {
+        if (s == null) return null;
+        int b = s.lastIndexOf(':');
+        int a = b <= 0 ? -1 : s.lastIndexOf(':', b - 1);
+        if (a <= 0) return null;
+        try {
+            int offset = Integer.parseInt(s, a + 1, b, 10);
+            int length = Integer.parseInt(s, b + 1, s.length(), 10);
+            if (offset < 0 || length < 0) return null;
+            return new SnippetRef(s.substring(0, a), offset, length);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() { return hash + ":" + offset + ":" + length; }
+}
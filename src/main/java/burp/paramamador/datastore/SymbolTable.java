@@ -0,0 +1,41 @@
+package burp.paramamador.datastore;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Store-wide canonical instances for low-cardinality strings repeated across records
+ * (JS sources, referers, pattern names, parameter types). Entries are never removed, so only
+ * values with few distinct instances belong here; parameter sources (per-request paths) do not.
+ *
+ * Records keep plain String fields; equal values just share one instance. Pattern labels
+ * additionally go through {@link #pattern(String)}, which maps legacy values (full regex
+ * sources written by older versions) to their current symbolic names.
+ */
+public final class SymbolTable {
+
+    // Legacy pattern value -> symbolic name; shared by every store so merges of old files are mapped too
+    private static final Map<String, String> PATTERN_ALIASES = new ConcurrentHashMap<>();
+
+    private final Map<String, String> symbols = new ConcurrentHashMap<>();
+
+    public static void registerPatternAliases(Map<String, String> legacyToName) {
+        if (legacyToName != null) PATTERN_ALIASES.putAll(legacyToName);
+    }
+
+    public String intern(String s) {
+        if (s == null) return null;
+        String prev = symbols.putIfAbsent(s, s);
+        return prev == null ? s : prev;
+    }
+
+    public String pattern(String p) {
+        if (p == null) return null;
+        String name = PATTERN_ALIASES.get(p);
+        return intern(name != null ? name : p);
+    }
+
+    public int size() { return symbols.size(); }
+
+    void clear() { symbols.clear(); }
+}
@@ -1,67 +1,96 @@
 package burp.paramamador.integrations;
 
 import burp.api.montoya.logging.Logging;
-import burp.api.montoya.scope.Scope;
 import burp.paramamador.Settings;
 import burp.paramamador.datastore.DataStore;
 import burp.paramamador.datastore.EndpointRecord;
+import burp.paramamador.util.AppendJournal;
+import burp.paramamador.util.ContentFingerprint;
+import burp.paramamador.util.ContentFingerprinter;
+import burp.paramamador.util.ContentStore;
+import burp.paramamador.util.ScopeCache;
 
-import com.google.gson.Gson;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Locale;
+import java.util.Objects;
 import java.util.Set;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Background integration with BishopFox jsluice for AST-based JS scraping.
  * This service manages a queue of JS bodies (already captured by the plugin),
- * writes them to files under exportDir/jsluice_js, invokes jsluice, parses
- * the output and updates the in-memory store.
+ * keeps them in the content store under exportDir/jsluice_js, invokes jsluice
+ * on batches of staged copies, parses the output and updates the in-memory store.
  */
 public class JsluiceService {
     private final DataStore store;
     private final Settings settings;
-    private final Scope scope;
+    private final ScopeCache scope;
     private final Logging log;
 
     private final ExecutorService executor;
+    // Kills jsluice runs that exceed the timeout while their worker is blocked reading stdout
+    private final ScheduledExecutorService timeouts = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "paramamador-jsluice-timeout");
+        t.setDaemon(true);
+        return t;
+    });
     private final BlockingQueue<JsluiceTask> queue;
+    // Files that timed out once; run again with a longer budget when the main queue is idle
+    private final BlockingQueue<JsluiceTask> retryQueue;
+    private final JsluiceTuner tuner;
     private final AtomicBoolean started = new AtomicBoolean(false);
 
     private volatile Path jsluiceBinary;
+    // Files per jsluice process, adapted between 1 and settings.getJsluiceBatchMaxFiles()
+    private volatile int batchSize;
 
     private static final ConcurrentHashMap<String, String> SCANNED_HASH_TO_URL = new ConcurrentHashMap<>();
     private static final ConcurrentHashMap<String, String> SCANNED_HASH_TO_REFERER = new ConcurrentHashMap<>();
-    private static final Object SCANNED_FILE_LOCK = new Object();
     private static final Pattern FULL_URL = Pattern.compile("(?i)(https?://[^\\s\"'<>]+)");
 
     private final java.util.List<JsluiceUrlRecord> results = java.util.Collections.synchronizedList(new java.util.ArrayList<>());
     private final java.util.Set<String> resultKeys = new java.util.concurrent.ConcurrentSkipListSet<>();
 
-    public JsluiceService(DataStore store, Settings settings, Scope scope, Logging log) {
+    // Saved results files from the compacted index (hash -> {lines, size}); read when results are first shown
+    private volatile Map<String, long[]> savedResults = Map.of();
+    private final AtomicBoolean savedResultsRequested = new AtomicBoolean(false);
+    // Hashes jsluice ran on in this session; their saved results are superseded and not loaded
+    private final Set<String> ranThisSession = ConcurrentHashMap.newKeySet();
+
+    public JsluiceService(DataStore store, Settings settings, ScopeCache scope, Logging log) {
         this.store = store;
         this.settings = settings;
         this.scope = scope;
         this.log = log;
+        this.batchSize = settings.getJsluiceBatchMaxFiles();
         this.queue = new LinkedBlockingQueue<>(Math.max(100, settings.getMaxQueueSize()));
-        this.executor = Executors.newFixedThreadPool(Math.max(1, settings.getJsluiceWorkers()), r -> {
+        this.retryQueue = new LinkedBlockingQueue<>(Math.max(100, settings.getMaxQueueSize()));
+        this.tuner = new JsluiceTuner(settings);
+        this.executor = Executors.newFixedThreadPool(tuner.maxWorkers(), r -> {
             Thread t = new Thread(r, "paramamador-jsluice-worker");
             t.setDaemon(true);
             return t;
@@ -79,11 +108,11 @@ public class JsluiceService {
             Files.createDirectories(settings.jsluiceStoreDir());
             // Load previous scanned list
             loadScanned(settings.jsluiceScannedFilePath());
-            // Attempt to load previously saved jsluice results from disk
-            loadSavedResultsFromDir();
-            // Start worker loop
+            // Previously saved jsluice results: only the index is read now, the files when they are first shown
+            savedResults = readResultsIndex();
+            // Start worker loops; how many of them run jsluice at a time is adapted by the tuner
             if (started.compareAndSet(false, true)) {
-                for (int i = 0; i < settings.getJsluiceWorkers(); i++) {
+                for (int i = 0; i < tuner.maxWorkers(); i++) {
                     executor.submit(this::workerLoop);
                 }
             }
@@ -95,40 +124,55 @@ public class JsluiceService {
 
     public void shutdown() {
         try { executor.shutdownNow(); } catch (Throwable ignored) {}
+        try { timeouts.shutdownNow(); } catch (Throwable ignored) {}
     }
 
     public void enqueue(String sourceUrl, String referer, String jsBody, boolean inScopeHint) {
+        if (jsBody == null || jsBody.isBlank()) return;
+        enqueue(sourceUrl, referer, jsBody, ContentFingerprinter.of(jsBody), inScopeHint);
+    }
+
+    public void enqueue(String sourceUrl, String referer, String jsBody, ContentFingerprint fingerprint, boolean inScopeHint) {
+        enqueue(sourceUrl, referer, jsBody, null, fingerprint, inScopeHint);
+    }
+
+    // raw: the original body bytes jsBody was decoded from (ISO-8859-1), if the caller has them
+    public void enqueue(String sourceUrl, String referer, String jsBody, byte[] raw, ContentFingerprint fingerprint, boolean inScopeHint) {
         if (!settings.isEnableJsluice()) return;
         if (jsBody == null || jsBody.isBlank()) return;
         if (jsluiceBinary == null) return; // not available
 
         try {
             String refererNorm = originOnly(referer);
-            // compute hash of the target JS file and put it with the source URL to the HashMap to scan twice
-            String hash = sha256Hex(jsBody);
+            // The content hash (shared with the regex analyzer) is used to not scan the same file twice
+            String hash = fingerprint == null ? null : fingerprint.sha256();
             if (hash == null) return;
             String prev = SCANNED_HASH_TO_URL.putIfAbsent(hash, sourceUrl == null ? "" : sourceUrl);
             if (prev != null) return; // already processed
 
             // Size limit
-            if ((jsBody.length() / (1024 * 1024.0)) > settings.getMaxJsluiceFileMb()) {
-                log.logToOutput("jsluice skip large JS (" + String.format(Locale.ROOT, "%.2f", jsBody.length() / (1024*1024.0)) + " MB): " + sourceUrl);
+            if ((fingerprint.length() / (1024 * 1024.0)) > settings.getMaxJsluiceFileMb()) {
+                log.logToOutput("jsluice skip large JS (" + String.format(Locale.ROOT, "%.2f", fingerprint.length() / (1024*1024.0)) + " MB): " + sourceUrl);
                 return;
             }
 
             // Put mapping (hash, sourceUrl, referer) into the paramamador_jsluice_scanned.txt file
             tryAppendScanned(hash, sourceUrl, refererNorm);
 
-            // Put full content of the scanned JS file inside the jsluice_js dir for further scanning with the jsluice bin. 
-            // Filename = SHA256 hash of the content.
-            Path file = settings.jsluiceStoreDir().resolve(hash + ".js");
-            if (!Files.isRegularFile(file)) {
-                Files.createDirectories(file.getParent());
-                Files.writeString(file, jsBody, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+            // The body goes to the content store under its SHA-256 (the regex analyzer usually stored it
+            // already); it is staged as a plain file only while jsluice runs
+            ContentStore contents = store.contentStore();
+            boolean stored = contents != null && (raw != null ? contents.put(hash, raw) : contents.put(hash, jsBody));
+            if (!stored) {
+                log.logToError("jsluice could not store JS body: " + sourceUrl);
+                return;
             }
 
-            boolean offered = queue.offer(new JsluiceTask(sourceUrl, refererNorm, file, hash, inScopeHint));
+            // Kept out of the store's size-based eviction until jsluice is done with it
+            contents.pin(hash);
+            boolean offered = queue.offer(new JsluiceTask(sourceUrl, refererNorm, hash, fingerprint.length(), inScopeHint));
             if (!offered) {
+                contents.unpin(hash);
                 log.logToOutput("jsluice queue full; dropping: " + sourceUrl);
             }
         } catch (Throwable t) {
@@ -139,9 +183,20 @@ public class JsluiceService {
     private void workerLoop() {
         while (!Thread.currentThread().isInterrupted()) {
             try {
-                JsluiceTask t = queue.poll(2, TimeUnit.SECONDS);
-                if (t == null) continue;
-                runJsluice(t);
+                // Workers above the current concurrency limit wait here
+                tuner.acquire();
+                try {
+                    JsluiceTask t = queue.poll(2, TimeUnit.SECONDS);
+                    if (t != null) {
+                        runBatch(takeBatch(t), false);
+                    } else {
+                        // Timed-out files get their second attempt only when nothing else is waiting
+                        JsluiceTask r = retryQueue.poll();
+                        if (r != null) runBatch(List.of(r), true);
+                    }
+                } finally {
+                    tuner.release();
+                }
             } catch (InterruptedException ie) {
                 Thread.currentThread().interrupt();
                 break;
@@ -151,130 +206,368 @@ public class JsluiceService {
         }
     }
 
-    private void runJsluice(JsluiceTask t) {
-        if (jsluiceBinary == null || t == null) return;
+    // Coalesce whatever is already queued behind first, up to the current batch size and the byte budget
+    private List<JsluiceTask> takeBatch(JsluiceTask first) {
+        List<JsluiceTask> batch = new ArrayList<>();
+        batch.add(first);
+        long bytes = first.bytes();
+        long maxBytes = settings.getJsluiceBatchMaxKb() * 1024L;
+        int maxFiles = Math.min(batchSize, settings.getJsluiceBatchMaxFiles());
+        while (batch.size() < maxFiles && bytes < maxBytes) {
+            JsluiceTask next = queue.poll();
+            if (next == null) break;
+            batch.add(next);
+            bytes += next.bytes();
+        }
+        return batch;
+    }
+
+    // Runs one jsluice process for the batch. A timed-out batch is split in half and each half retried,
+    // so one pathological file ends up alone; that file is queued for one retry with a longer budget.
+    private void runBatch(List<JsluiceTask> batch, boolean retry) {
+        if (batch.isEmpty()) return;
+        if (runJsluice(batch, retry)) {
+            growBatchSize();
+            for (JsluiceTask t : batch) done(t);
+            return;
+        }
+        shrinkBatchSize();
+        if (batch.size() == 1) {
+            JsluiceTask t = batch.get(0);
+            if (!retry && retryQueue.offer(t)) {
+                log.logToOutput("jsluice timed out for: " + t.sourceUrl() + " (" + t.hash() + "); will retry with a longer timeout");
+            } else {
+                log.logToError("jsluice timed out for: " + t.sourceUrl() + " (" + t.hash() + ")");
+                done(t);
+            }
+            return;
+        }
+        int mid = batch.size() / 2;
+        runBatch(batch.subList(0, mid), retry);
+        runBatch(batch.subList(mid, batch.size()), retry);
+    }
+
+    // No further run of the task: its body may be evicted again
+    private void done(JsluiceTask t) {
+        ContentStore contents = store.contentStore();
+        if (contents != null) contents.unpin(t.hash());
+    }
+
+    // Batch size adapts like a congestion window: halved on a timeout, grown by one per clean batch
+    private void shrinkBatchSize() {
+        batchSize = Math.max(1, batchSize / 2);
+    }
+
+    private void growBatchSize() {
+        if (batchSize < settings.getJsluiceBatchMaxFiles()) batchSize++;
+    }
+
+    /**
+     * Runs {@code jsluice urls <file>...} and consumes its NDJSON output while it runs: each line is
+     * attributed to a task by the {@code filename} it reports, appended to that task's results file
+     * and put into the store right away. Returns false if the process was killed at the timeout
+     * (findings read up to then are kept). The timeout scales with the batch size; see {@link JsluiceTuner}.
+     */
+    private boolean runJsluice(List<JsluiceTask> batch, boolean retry) {
+        ContentStore contents = store.contentStore();
+        if (jsluiceBinary == null || contents == null) return true;
+        // jsluice echoes each path as it was passed; the file name alone (<hash>.js) is the fallback.
+        // Staged names are unique within a batch: enqueue admits each hash once (SCANNED_HASH_TO_URL).
+        Map<String, JsluiceTask> byName = new HashMap<>();
+        List<Path> staged = new ArrayList<>();
+        long bytes = 0;
+        List<String> cmd = new ArrayList<>();
+        cmd.add(jsluiceBinary.toString());
+        cmd.add("urls");
+        for (JsluiceTask t : batch) {
+            // Before staging: the background loader must not read (or hold open) results this run replaces
+            ranThisSession.add(t.hash());
+            Path file;
+            try {
+                file = contents.stage(t.hash(), settings.jsluiceStagingDirOrDefault());
+            } catch (IOException | RuntimeException e) {
+                file = null;
+            }
+            if (file == null) {
+                // Removed by the store's size limit (or the export dir changed) since it was queued
+                log.logToOutput("jsluice skip, JS body no longer stored: " + t.sourceUrl());
+                continue;
+            }
+            staged.add(file);
+            bytes += t.bytes();
+            cmd.add(file.toString());
+            byName.put(file.toString(), t);
+            byName.put(file.getFileName().toString(), t);
+        }
+        if (staged.isEmpty()) return true;
         Process proc = null;
+        ScheduledFuture<?> kill = null;
+        ScheduledFuture<?> sampler = null;
+        AtomicBoolean timedOut = new AtomicBoolean(false);
+        AtomicLong cpuNanos = new AtomicLong();
+        long startedAt = System.nanoTime();
+        Map<JsluiceTask, ResultFile> resultFiles = new HashMap<>();
         try {
-            // Use 'urls' subcommand which emits NDJSON lines per URL finding
-            ProcessBuilder pb = new ProcessBuilder(jsluiceBinary.toString(), "urls", t.file().toString());
-            pb.redirectErrorStream(true);
+            ProcessBuilder pb = new ProcessBuilder(cmd);
+            pb.redirectError(ProcessBuilder.Redirect.DISCARD);
             proc = pb.start();
-            boolean finished = proc.waitFor(settings.getJsluiceTimeoutSec(), TimeUnit.SECONDS);
-            if (!finished) {
-                proc.destroyForcibly();
-                log.logToError("jsluice timed out for: " + t.file());
-                return;
-            }
-            StringBuilder out = new StringBuilder();
+            // The timeout covers the whole run; since stdout is drained as it is written, jsluice
+            // never stalls on a full pipe and only real analysis time counts
+            Process running = proc;
+            kill = timeouts.schedule(() -> {
+                timedOut.set(true);
+                // Children too: any process still holding stdout open would keep the reader blocked
+                running.descendants().forEach(ProcessHandle::destroyForcibly);
+                running.destroyForcibly();
+            }, tuner.timeoutMs(bytes, retry), TimeUnit.MILLISECONDS);
+            // CPU time is only readable while the process exists, so it is sampled during the run
+            sampler = timeouts.scheduleAtFixedRate(() -> running.info().totalCpuDuration()
+                    .ifPresent(d -> cpuNanos.accumulateAndGet(d.toNanos(), Math::max)), 250, 250, TimeUnit.MILLISECONDS);
             try (BufferedReader br = new BufferedReader(new InputStreamReader(proc.getInputStream(), StandardCharsets.UTF_8))) {
                 String line;
-                while ((line = br.readLine()) != null) out.append(line).append('\n');
+                while ((line = br.readLine()) != null) {
+                    String l = line.trim();
+                    if (l.isEmpty()) continue;
+                    Finding f = parseFinding(l);
+                    if (f == null) continue;
+                    JsluiceTask t = batch.size() == 1 ? batch.get(0) : taskOf(f.filename(), byName);
+                    if (t == null) continue;
+                    appendResult(resultFiles, t, l);
+                    storeFinding(f, t.sourceUrl(), originOnly(t.referer()));
+                }
+            }
+            proc.info().totalCpuDuration().ifPresent(d -> cpuNanos.accumulateAndGet(d.toNanos(), Math::max));
+            proc.waitFor();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            // Reading fails with an IOException when the process is killed at the timeout
+            if (!timedOut.get()) log.logToError("jsluice exec error: " + e.getMessage());
+        } finally {
+            if (kill != null) kill.cancel(false);
+            if (sampler != null) sampler.cancel(false);
+            if (proc != null) {
+                try { proc.destroy(); } catch (Throwable ignored) {}
+            }
+            for (Path f : staged) {
+                try { Files.deleteIfExists(f); } catch (Throwable ignored) {}
+            }
+            // Only a clean run replaces a task's results; partial output of a killed run is dropped
+            // (the task runs again) so it is never loaded as complete at the next start
+            for (Map.Entry<JsluiceTask, ResultFile> e : resultFiles.entrySet()) {
+                ResultFile rf = e.getValue();
+                if (rf.out == null) continue;
+                try {
+                    rf.out.close();
+                    if (timedOut.get()) {
+                        Files.deleteIfExists(rf.tmp);
+                    } else {
+                        moveIntoPlace(rf.tmp, rf.tmp.resolveSibling(e.getKey().hash() + ".json"));
+                        indexResults(e.getKey().hash(), rf.lines, rf.bytes);
+                    }
+                } catch (Throwable t) {
+                    try { Files.deleteIfExists(rf.tmp); } catch (Throwable ignored) {}
+                }
             }
-            String stdout = out.toString();
-            if (stdout == null || stdout.isBlank()) return;
+        }
+        if (proc != null) {
+            int before = tuner.limit();
+            int after = tuner.finished(bytes, System.nanoTime() - startedAt, cpuNanos.get(), timedOut.get(), queue.size());
+            if (after != before) log.logToOutput("jsluice concurrency: " + after);
+        }
+        return !timedOut.get();
+    }
 
-            // Save raw NDJSON results to results directory
+    // Raw NDJSON of a task goes to results/<hash>.json.tmp while jsluice runs; moved to <hash>.json
+    // when the run finishes cleanly, replacing the results of an earlier run
+    private void appendResult(Map<JsluiceTask, ResultFile> resultFiles, JsluiceTask t, String line) {
+        ResultFile rf = resultFiles.get(t);
+        if (rf == null) {
+            Writer w = null;
+            Path tmp = null;
             try {
                 Path resultsDir = settings.jsluiceResultsDir();
                 Files.createDirectories(resultsDir);
-                Path outFile = resultsDir.resolve(t.hash() + ".json");
-                Files.writeString(outFile, stdout, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+                tmp = resultsDir.resolve(t.hash() + ".json.tmp");
+                w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
             } catch (Throwable ioe) {
                 log.logToError("Failed to save jsluice results: " + ioe.getMessage());
             }
+            rf = new ResultFile(w, tmp); // no writer after a failure: not retried for this run
+            resultFiles.put(t, rf);
+        }
+        if (rf.out == null) return;
+        try {
+            rf.out.write(line);
+            rf.out.write('\n');
+            rf.lines++;
+            rf.bytes += line.length() + 1;
+        } catch (IOException ioe) {
+            log.logToError("Failed to save jsluice results: " + ioe.getMessage());
+            try { rf.out.close(); } catch (Throwable ignored) {}
+            try { Files.deleteIfExists(rf.tmp); } catch (Throwable ignored) {}
+            resultFiles.put(t, new ResultFile(null, null));
+        }
+    }
 
-            parseAndStoreNdjson(stdout, t.sourceUrl(), t.referer(), t.inScopeHint());
-        } catch (Throwable e) {
-            log.logToError("jsluice exec error: " + e.getMessage());
-        } finally {
-            if (proc != null) {
-                try { proc.destroy(); } catch (Throwable ignored) {}
-            }
+    private static void moveIntoPlace(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static final class ResultFile {
+        final Writer out;
+        final Path tmp;
+        int lines;
+        long bytes; // chars written; close enough to size the load work
+
+        ResultFile(Writer out, Path tmp) {
+            this.out = out;
+            this.tmp = tmp;
         }
     }
 
-    private void parseAndStoreNdjson(String ndjson, String sourceUrl, String referer, boolean inScopeHint) {
+    // One "<hash>\t<lines>\t<size>" line per written results file; a re-run appends a newer line
+    private void indexResults(String hash, int lines, long bytes) {
+        AppendJournal.forPath(settings.jsluiceResultsIndexPath()).append(hash + "\t" + lines + "\t" + bytes);
+    }
+
+    private static JsluiceTask taskOf(String filename, Map<String, JsluiceTask> byName) {
+        if (filename == null) return null;
+        JsluiceTask t = byName.get(filename);
+        if (t != null) return t;
         try {
-            String refererNorm = originOnly(referer);
-            String[] lines = ndjson.split("\r?\n");
-            for (String line : lines) {
-                if (line == null) continue;
-                String t = line.trim();
-                if (t.isEmpty()) continue;
-                JsonObject obj;
-                try {
-                    obj = JsonParser.parseString(t).getAsJsonObject();
-                } catch (Throwable pe) {
-                    continue;
-                }
-                String url = obj.has("url") && !obj.get("url").isJsonNull() ? obj.get("url").getAsString() : null;
-                String method = obj.has("method") && !obj.get("method").isJsonNull() ? obj.get("method").getAsString() : "";
-                String type = obj.has("type") && !obj.get("type").isJsonNull() ? obj.get("type").getAsString() : "";
-                String filename = obj.has("filename") && !obj.get("filename").isJsonNull() ? obj.get("filename").getAsString() : "";
-                String contentType = obj.has("contentType") && !obj.get("contentType").isJsonNull() ? obj.get("contentType").getAsString() : null;
-
-                java.util.List<String> qparams = new java.util.ArrayList<>();
-                if (obj.has("queryParams") && obj.get("queryParams").isJsonArray()) {
-                    for (JsonElement e : obj.get("queryParams").getAsJsonArray()) {
-                        if (e != null && e.isJsonPrimitive()) qparams.add(e.getAsString());
-                    }
-                }
-                java.util.List<String> bparams = new java.util.ArrayList<>();
-                if (obj.has("bodyParams") && obj.get("bodyParams").isJsonArray()) {
-                    for (JsonElement e : obj.get("bodyParams").getAsJsonArray()) {
-                        if (e != null && e.isJsonPrimitive()) bparams.add(e.getAsString());
-                    }
-                }
-                java.util.Map<String,String> headers = new java.util.LinkedHashMap<>();
-                if (obj.has("headers") && obj.get("headers").isJsonObject()) {
-                    for (Map.Entry<String, JsonElement> en : obj.get("headers").getAsJsonObject().entrySet()) {
-                        try { headers.put(en.getKey(), en.getValue().getAsString()); } catch (Throwable ignored) {}
-                    }
-                }
+            Path name = Path.of(filename).getFileName();
+            return name == null ? null : byName.get(name.toString());
+        } catch (Throwable e) {
+            return null;
+        }
+    }
 
-                // Persist parameters into main store (mark as js AST)
-                for (String p : qparams) {
-                    if (p != null && !p.isBlank()) {
-                        store.addOrUpdateParam(p, safeHost(sourceUrl), "js_ast", null);
-                        store.markOnlyInCode(p, "jsluice");
-                    }
-                }
-                for (String p : bparams) {
-                    if (p != null && !p.isBlank()) {
-                        store.addOrUpdateParam(p, safeHost(sourceUrl), "js_ast", null);
-                        store.markOnlyInCode(p, "jsluice");
-                    }
-                }
-                // Derive and store params from URL query
-                if (url != null) {
-                    int qpos = url.indexOf('?');
-                    if (qpos >= 0 && qpos + 1 < url.length()) {
-                        String qs = url.substring(qpos + 1);
-                        for (String part : qs.split("&")) {
-                            int eq = part.indexOf('=');
-                            String name = eq > 0 ? part.substring(0, eq) : part;
-                            if (!name.isBlank()) {
-                                store.addOrUpdateParam(name, safeHost(sourceUrl), "js_ast", null);
-                                store.markOnlyInCode(name, "jsluice");
-                            }
-                        }
-                    }
+    // Saved results: one finding per line, read as a stream. Returns the number of non-empty lines.
+    private int parseAndStoreNdjson(BufferedReader ndjson, String sourceUrl, String referer) throws IOException {
+        String refererNorm = originOnly(referer);
+        int lines = 0;
+        String line;
+        while ((line = ndjson.readLine()) != null) {
+            String t = line.trim();
+            if (t.isEmpty()) continue;
+            lines++;
+            Finding f = parseFinding(t);
+            if (f != null) storeFinding(f, sourceUrl, refererNorm);
+        }
+        return lines;
+    }
+
+    /** The fields of one jsluice {@code urls} line that are used here. */
+    private record Finding(String url, String method, String type, String filename, String contentType,
+                           List<String> queryParams, List<String> bodyParams, Map<String, String> headers) {}
+
+    // Streams one NDJSON line into a Finding, skipping unused fields; null if it is not a JSON object
+    private static Finding parseFinding(String line) {
+        try (JsonReader r = new JsonReader(new StringReader(line))) {
+            if (r.peek() != JsonToken.BEGIN_OBJECT) return null;
+            String url = null, method = "", type = "", filename = "", contentType = null;
+            List<String> qparams = new ArrayList<>();
+            List<String> bparams = new ArrayList<>();
+            Map<String, String> headers = new LinkedHashMap<>();
+            r.beginObject();
+            while (r.hasNext()) {
+                switch (r.nextName()) {
+                    case "url" -> url = string(r);
+                    case "method" -> method = Objects.requireNonNullElse(string(r), "");
+                    case "type" -> type = Objects.requireNonNullElse(string(r), "");
+                    case "filename" -> filename = Objects.requireNonNullElse(string(r), "");
+                    case "contentType" -> contentType = string(r);
+                    case "queryParams" -> strings(r, qparams);
+                    case "bodyParams" -> strings(r, bparams);
+                    case "headers" -> stringMap(r, headers);
+                    default -> r.skipValue();
                 }
+            }
+            r.endObject();
+            return new Finding(url, method, type, filename, contentType, qparams, bparams, headers);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // A primitive as a string; null for null and for arrays/objects
+    private static String string(JsonReader r) throws IOException {
+        switch (r.peek()) {
+            case STRING, NUMBER -> { return r.nextString(); }
+            case BOOLEAN -> { return String.valueOf(r.nextBoolean()); }
+            case NULL -> { r.nextNull(); return null; }
+            default -> { r.skipValue(); return null; }
+        }
+    }
 
-                // Keep jsluice endpoints out of main endpoints table; store them in this service only
-                String key = (url == null ? "" : url) + "|" + method + "|" + type + "|" + filename;
-                if (resultKeys.add(key)) {
-                    results.add(new JsluiceUrlRecord(url, qparams, bparams, method, type, filename, contentType, headers, sourceUrl, refererNorm));
+    private static void strings(JsonReader r, List<String> into) throws IOException {
+        if (r.peek() != JsonToken.BEGIN_ARRAY) { r.skipValue(); return; }
+        r.beginArray();
+        while (r.hasNext()) {
+            String v = string(r);
+            if (v != null) into.add(v);
+        }
+        r.endArray();
+    }
+
+    private static void stringMap(JsonReader r, Map<String, String> into) throws IOException {
+        if (r.peek() != JsonToken.BEGIN_OBJECT) { r.skipValue(); return; }
+        r.beginObject();
+        while (r.hasNext()) {
+            String k = r.nextName();
+            String v = string(r);
+            if (v != null) into.put(k, v);
+        }
+        r.endObject();
+    }
+
+    private void storeFinding(Finding f, String sourceUrl, String refererNorm) {
+        String url = f.url();
+        // Persist parameters into main store (mark as js AST)
+        for (String p : f.queryParams()) {
+            if (p != null && !p.isBlank()) {
+                store.addOrUpdateParam(p, safeHost(sourceUrl), "js_ast", null);
+                store.markOnlyInCode(p, "jsluice");
+            }
+        }
+        for (String p : f.bodyParams()) {
+            if (p != null && !p.isBlank()) {
+                store.addOrUpdateParam(p, safeHost(sourceUrl), "js_ast", null);
+                store.markOnlyInCode(p, "jsluice");
+            }
+        }
+        // Derive and store params from URL query
+        if (url != null) {
+            int qpos = url.indexOf('?');
+            if (qpos >= 0 && qpos + 1 < url.length()) {
+                String qs = url.substring(qpos + 1);
+                for (String part : qs.split("&")) {
+                    int eq = part.indexOf('=');
+                    String name = eq > 0 ? part.substring(0, eq) : part;
+                    if (!name.isBlank()) {
+                        store.addOrUpdateParam(name, safeHost(sourceUrl), "js_ast", null);
+                        store.markOnlyInCode(name, "jsluice");
+                    }
                 }
             }
-        } catch (Throwable e) {
-            log.logToError("jsluice NDJSON parse error: " + e.getMessage());
+        }
+
+        // Keep jsluice endpoints out of main endpoints table; store them in this service only
+        String key = (url == null ? "" : url) + "|" + f.method() + "|" + f.type() + "|" + f.filename();
+        if (resultKeys.add(key)) {
+            results.add(new JsluiceUrlRecord(url, f.queryParams(), f.bodyParams(), f.method(), f.type(), f.filename(),
+                    f.contentType(), f.headers(), sourceUrl, refererNorm));
         }
     }
 
     private boolean isUrlInScope(String url) {
-        if (url == null || url.isBlank()) return false;
-        try { return scope.isInScope(url); } catch (Throwable t) { return false; }
+        return scope.isInScope(url);
     }
 
     private static String safeHost(String url) {
@@ -284,60 +577,120 @@ public class JsluiceService {
         } catch (Throwable t) { return ""; }
     }
 
-    private static String sha256Hex(String s) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            byte[] digest = md.digest(s.getBytes(StandardCharsets.UTF_8));
-            StringBuilder sb = new StringBuilder(digest.length * 2);
-            for (byte b : digest) sb.append(String.format("%02x", b));
-            return sb.toString();
-        } catch (Throwable e) {
-            return null;
-        }
-    }
-
     private void tryAppendScanned(String hash, String url, String referer) {
         try {
-            Path file = settings.jsluiceScannedFilePath();
-            Files.createDirectories(file.getParent());
             String line = (hash == null ? "" : hash)
                     + "\t" + (url == null ? "" : url)
-                    + "\t" + (referer == null ? "" : referer)
-                    + System.lineSeparator();
-            synchronized (SCANNED_FILE_LOCK) {
-                Files.writeString(file, line, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
-            }
+                    + "\t" + (referer == null ? "" : referer);
+            AppendJournal.forPath(settings.jsluiceScannedFilePath()).append(line);
         } catch (Throwable ignored) {}
     }
 
-    private void loadSavedResultsFromDir() {
+    /**
+     * Latest index entry per saved results file. The index is compacted to one line per hash when
+     * it has more; without an index (older projects) the results directory is listed once and the
+     * files are indexed as they are loaded. Runs before the workers start, so nothing appends meanwhile.
+     */
+    private Map<String, long[]> readResultsIndex() {
+        Path dir = settings.jsluiceResultsDir();
+        Path indexPath = settings.jsluiceResultsIndexPath();
+        Map<String, long[]> files = new LinkedHashMap<>();
         try {
-            Path dir = settings.jsluiceResultsDir();
-            if (dir == null || !Files.isDirectory(dir)) return;
-            try (java.util.stream.Stream<Path> stream = Files.list(dir)) {
-                stream.filter(p -> p != null && p.getFileName() != null && p.toString().toLowerCase(Locale.ROOT).endsWith(".json"))
-                        .forEach(p -> {
-                            try {
-                                String fileName = p.getFileName().toString();
-                                String hash = fileName.substring(0, Math.max(0, fileName.length() - ".json".length()));
-                                String sourceUrl = SCANNED_HASH_TO_URL.get(hash);
-                                String referer = originOnly(SCANNED_HASH_TO_REFERER.get(hash));
-                                String ndjson = Files.readString(p, StandardCharsets.UTF_8);
-                                boolean inScope = isUrlInScope(sourceUrl);
-                                if (ndjson != null && !ndjson.isBlank()) {
-                                    parseAndStoreNdjson(ndjson, sourceUrl, referer, inScope);
-                                }
-                            } catch (Throwable ignored) {}
-                        });
+            if (Files.isRegularFile(indexPath)) {
+                List<String> lines = AppendJournal.readLines(indexPath);
+                for (String line : lines) {
+                    String[] parts = line.split("\t");
+                    if (parts.length < 3 || !isLikelyHash(parts[0])) continue;
+                    try {
+                        long[] entry = {Long.parseLong(parts[1]), Long.parseLong(parts[2])};
+                        files.remove(parts[0]);
+                        files.put(parts[0], entry);
+                    } catch (NumberFormatException ignored) {}
+                }
+                if (lines.size() > files.size()) {
+                    List<String> compacted = new ArrayList<>(files.size());
+                    for (Map.Entry<String, long[]> e : files.entrySet()) {
+                        compacted.add(e.getKey() + "\t" + e.getValue()[0] + "\t" + e.getValue()[1]);
+                    }
+                    AppendJournal.forPath(indexPath).replaceWith(compacted);
+                }
+            } else if (dir != null && Files.isDirectory(dir)) {
+                try (java.util.stream.Stream<Path> stream = Files.list(dir)) {
+                    stream.forEach(p -> {
+                        String fileName = p.getFileName() == null ? "" : p.getFileName().toString();
+                        if (!fileName.toLowerCase(Locale.ROOT).endsWith(".json")) return;
+                        String hash = fileName.substring(0, fileName.length() - ".json".length());
+                        long size;
+                        try { size = Files.size(p); } catch (IOException e) { size = 0; }
+                        files.put(hash, new long[]{-1, size});
+                    });
+                }
             }
+        } catch (Throwable t) {
+            log.logToError("Failed to read jsluice results index: " + t.getMessage());
+        }
+        files.values().removeIf(v -> v[0] == 0);
+        return files;
+    }
+
+    /**
+     * Loads the saved results files on a few background threads, largest first, the first time
+     * results are asked for; the jsluice tab fills while they are read. Files of hashes jsluice has
+     * run on since startup are skipped, their fresh results are already in memory.
+     */
+    private void loadSavedResultsInBackground() {
+        if (savedResults.isEmpty() || !savedResultsRequested.compareAndSet(false, true)) return;
+        Thread t = new Thread(this::loadSavedResults, "paramamador-jsluice-load");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void loadSavedResults() {
+        long started = System.nanoTime();
+        Path dir = settings.jsluiceResultsDir();
+        List<Map.Entry<String, long[]>> work = new ArrayList<>(savedResults.entrySet());
+        savedResults = Map.of();
+        if (dir == null || work.isEmpty()) return;
+        work.sort((x, y) -> Long.compare(y.getValue()[1], x.getValue()[1]));
+
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+        ExecutorService loaders = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "paramamador-jsluice-loader");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> pending = new ArrayList<>();
+            for (Map.Entry<String, long[]> e : work) {
+                pending.add(loaders.submit(() -> {
+                    if (!ranThisSession.contains(e.getKey())) loadSavedResult(dir, e.getKey(), e.getValue()[0] < 0);
+                }));
+            }
+            for (Future<?> f : pending) {
+                try { f.get(); } catch (ExecutionException ignored) {}
+            }
+            log.logToOutput("jsluice: loaded " + work.size() + " saved result files in " + (System.nanoTime() - started) / 1_000_000 + " ms");
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            loaders.shutdownNow();
+        }
+    }
+
+    private void loadSavedResult(Path dir, String hash, boolean index) {
+        Path p = dir.resolve(hash + ".json");
+        String sourceUrl = SCANNED_HASH_TO_URL.get(hash);
+        String referer = originOnly(SCANNED_HASH_TO_REFERER.get(hash));
+        try (BufferedReader br = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+            int lines = parseAndStoreNdjson(br, sourceUrl, referer);
+            if (index) indexResults(hash, lines, Files.size(p));
         } catch (Throwable ignored) {}
     }
 
     private void loadScanned(Path file) {
         if (file == null) return;
         try {
-            if (!Files.isRegularFile(file)) return;
-            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            List<String> lines = AppendJournal.readLines(file);
             for (String line : lines) {
                 if (line == null) continue;
                 String t = line.trim();
@@ -443,10 +796,11 @@ public class JsluiceService {
     }
 
     public java.util.List<JsluiceUrlRecord> snapshotResults() {
+        loadSavedResultsInBackground();
         synchronized (results) {
             return new java.util.ArrayList<>(results);
         }
     }
 
-    public record JsluiceTask(String sourceUrl, String referer, Path file, String hash, boolean inScopeHint) {}
+    public record JsluiceTask(String sourceUrl, String referer, String hash, long bytes, boolean inScopeHint) {}
 }
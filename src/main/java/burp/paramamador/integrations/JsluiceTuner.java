@@ -0,0 +1,136 @@
+package burp.paramamador.integrations;
+
+import burp.paramamador.Settings;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit and timeouts for jsluice runs, adapted from what past runs cost.
+ *
+ * The limit starts at {@code jsluiceWorkers} and moves by one at most every
+ * {@link #ADJUST_INTERVAL_SEC} seconds, between 1 and {@link #maxWorkers()}: up while work is queued
+ * and the machine has idle cores, down when it is overloaded. The interval gives the load average,
+ * which trails by about a minute, time to reflect the last step; jsluice's own runs are taken out
+ * of it, so only other work on the machine pushes the limit down. How many runs fit is judged by the
+ * CPU time a run takes per second of wall time, since jsluice may use more than one core. Run slots
+ * are semaphore permits, so workers above the limit block instead of polling. Timeouts scale with
+ * the bytes of a batch and the observed throughput, never below {@code jsluiceTimeoutSec}.
+ */
+final class JsluiceTuner {
+
+    private static final double ASSUMED_BYTES_PER_SEC = 1024 * 1024; // until a run has been measured
+    private static final double EWMA = 0.2;
+    private static final int TIMEOUT_FACTOR = 4;      // budget = 4x the expected run time ...
+    private static final int MAX_TIMEOUT_FACTOR = 10; // ... but at most 10x jsluiceTimeoutSec
+    private static final int RETRY_FACTOR = 4;        // second attempt of a timed-out file
+    static final int ADJUST_INTERVAL_SEC = 10;
+
+    private final Settings settings;
+    private final int cores = Runtime.getRuntime().availableProcessors();
+    private final int maxWorkers;
+    private final Slots slots;
+    private volatile int limit;
+
+    // guarded by this
+    private double bytesPerSec = -1;
+    private double cpuShare = 1.0; // CPU seconds per wall second of one run
+    private long lastAdjust = System.nanoTime();
+
+    // A semaphore whose size can shrink as well as grow
+    private static final class Slots extends Semaphore {
+        Slots(int permits) { super(permits); }
+
+        void shrink(int n) { reducePermits(n); }
+    }
+
+    JsluiceTuner(Settings settings) {
+        this.settings = settings;
+        this.maxWorkers = Math.max(settings.getJsluiceWorkers(), cores);
+        this.limit = Math.max(1, Math.min(settings.getJsluiceWorkers(), maxWorkers));
+        this.slots = new Slots(limit);
+    }
+
+    /** Threads to start; the ones above the current limit wait for a slot. */
+    int maxWorkers() { return maxWorkers; }
+
+    int limit() { return limit; }
+
+    /** Waits for a run slot; at most {@link #limit()} are handed out at a time. */
+    void acquire() throws InterruptedException {
+        slots.acquire();
+    }
+
+    void release() {
+        slots.release();
+    }
+
+    long timeoutMs(long bytes, boolean retry) {
+        long base = settings.getJsluiceTimeoutSec() * 1000L;
+        double bps;
+        synchronized (this) {
+            bps = bytesPerSec > 0 ? bytesPerSec : ASSUMED_BYTES_PER_SEC;
+        }
+        long expected = (long) (bytes / bps * 1000);
+        long timeout = Math.min(Math.max(base, expected * TIMEOUT_FACTOR), base * MAX_TIMEOUT_FACTOR);
+        return retry ? timeout * RETRY_FACTOR : timeout;
+    }
+
+    /**
+     * Records a finished run and, unless the limit moved within the last {@link #ADJUST_INTERVAL_SEC}
+     * seconds, moves it by at most one. Returns the limit. {@code cpuNanos} is 0 if the process CPU
+     * time could not be read. Call it before releasing the run's slot.
+     */
+    synchronized int finished(long bytes, long wallNanos, long cpuNanos, boolean timedOut, int backlog) {
+        if (wallNanos > 0) {
+            if (!timedOut && bytes > 0) {
+                double bps = bytes * 1e9 / wallNanos;
+                bytesPerSec = bytesPerSec < 0 ? bps : bytesPerSec + EWMA * (bps - bytesPerSec);
+            }
+            if (cpuNanos > 0) {
+                cpuShare += EWMA * ((double) cpuNanos / wallNanos - cpuShare);
+            }
+        }
+        long now = System.nanoTime();
+        if (now - lastAdjust < TimeUnit.SECONDS.toNanos(ADJUST_INTERVAL_SEC)) return limit;
+        int cap = Math.max(1, Math.min(maxWorkers, (int) (cores / Math.max(0.25, cpuShare))));
+        double load = systemLoad();
+        // Load from everything but jsluice; its runs are what the limit decides
+        double others = load < 0 ? -1 : Math.max(0, load - active() * cpuShare);
+        int next = limit;
+        if (next > cap || (others >= 0 && others + next * cpuShare > cores)) {
+            next = Math.max(1, next - 1);
+        } else if (backlog > 0 && next < cap && (others < 0 || others + (next + 1) * cpuShare <= cores * 0.8)) {
+            next++;
+        }
+        if (next != limit) {
+            lastAdjust = now;
+            if (next > limit) slots.release(next - limit);
+            else slots.shrink(limit - next);
+            limit = next;
+        }
+        return next;
+    }
+
+    /** Run slots in use. */
+    int active() {
+        return limit - slots.availablePermits();
+    }
+
+    // Runnable processes on the machine (1-minute average), or the CPU load scaled to cores where
+    // there is no load average (Windows); -1 if neither is available
+    private double systemLoad() {
+        try {
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            double load = os.getSystemLoadAverage();
+            if (load >= 0) return load;
+            if (os instanceof com.sun.management.OperatingSystemMXBean sun) {
+                double cpu = sun.getCpuLoad();
+                if (cpu >= 0) return cpu * cores;
+            }
+        } catch (Throwable ignored) {}
+        return -1;
+    }
+}
@@ -0,0 +1,144 @@
+package burp.paramamador.pipeline;
+
+import burp.api.montoya.http.message.MimeType;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+import burp.api.montoya.logging.Logging;
+import burp.paramamador.Settings;
+import burp.paramamador.analyzer.JsEndpointAnalyzer;
+import burp.paramamador.analyzer.ParameterAnalyzer;
+import burp.paramamador.integrations.JsluiceService;
+import burp.paramamador.util.ContentFingerprint;
+import burp.paramamador.util.ContentFingerprinter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Staged, bounded analysis of proxied responses.
+ *
+ * The HTTP handler only captures the (immutable) request/response pair and calls
+ * {@link #submit}. Everything else happens on pipeline threads:
+ * classify -> parameter extraction, and for JavaScript: regex endpoint scan and
+ * jsluice hand-off. Oversized bundles are passed to the heavy JS sink instead of
+ * the inline scan stage.
+ */
+public class AnalysisPipeline {
+
+    /** Request/response pair captured on Burp's handler thread. Montoya messages are immutable. */
+    public record CapturedResponse(HttpRequest request, HttpResponse response) {}
+
+    /**
+     * Classified JavaScript body ready for scanning, with its fingerprint computed once for all consumers.
+     * {@code raw} are the original body bytes ({@code body} decodes them 1:1), stored as they are.
+     */
+    public record JsWork(String sourceUrl, String referer, String body, byte[] raw, ContentFingerprint fingerprint, boolean inScope) {}
+
+    private final Settings settings;
+    private final Logging log;
+    private final ParameterAnalyzer paramAnalyzer;
+    private final JsEndpointAnalyzer jsAnalyzer;
+    private final JsluiceService jsluiceService;
+    private final Consumer<JsWork> heavyJsSink;
+
+    private final PipelineStage<CapturedResponse> classifyStage;
+    private final PipelineStage<CapturedResponse> paramStage;
+    private final PipelineStage<JsWork> jsScanStage;
+    private final PipelineStage<JsWork> jsluiceStage;
+
+    public AnalysisPipeline(Settings settings, Logging log, ParameterAnalyzer paramAnalyzer, JsEndpointAnalyzer jsAnalyzer,
+                            JsluiceService jsluiceService, Consumer<JsWork> heavyJsSink) {
+        this.settings = settings;
+        this.log = log;
+        this.paramAnalyzer = paramAnalyzer;
+        this.jsAnalyzer = jsAnalyzer;
+        this.jsluiceService = jsluiceService;
+        this.heavyJsSink = heavyJsSink;
+
+        int capacity = settings.getMaxQueueSize();
+        // Entry stage is fed by Burp's handler threads: never block them, shed load instead.
+        this.classifyStage = new PipelineStage<>("classify", 1, capacity, PipelineStage.Backpressure.DROP_NEWEST, this::classify, log);
+        // Downstream stages push back on the classifier, which in turn sheds at the entry queue.
+        this.paramStage = new PipelineStage<>("params", 1, capacity, PipelineStage.Backpressure.CALLER_RUNS,
+                c -> paramAnalyzer.extractFromResponse(c.request(), c.response()), log);
+        this.jsScanStage = new PipelineStage<>("js-scan", settings.getWorkerThreads(), capacity, PipelineStage.Backpressure.CALLER_RUNS,
+                w -> jsAnalyzer.extractEndpoints(w.sourceUrl(), w.referer(), w.body(), w.raw(), w.fingerprint(), w.inScope()), log);
+        // jsluice keeps its own work queue; a dropped hand-off only loses the AST pass for that body.
+        this.jsluiceStage = new PipelineStage<>("jsluice-handoff", 1, capacity, PipelineStage.Backpressure.DROP_NEWEST,
+                w -> jsluiceService.enqueue(w.sourceUrl(), w.referer(), w.body(), w.raw(), w.fingerprint(), w.inScope()), log);
+    }
+
+    /** Called on Burp's handler thread; must stay cheap. */
+    public void submit(HttpRequest request, HttpResponse response) {
+        if (response == null) return;
+        classifyStage.submit(new CapturedResponse(request, response));
+    }
+
+    private void classify(CapturedResponse c) {
+        paramStage.submit(c);
+
+        HttpRequest req = c.request();
+        HttpResponse res = c.response();
+        String url = req != null ? req.url() : "";
+        String ct = res.headerValue("Content-Type");
+        boolean looksLikeJs = res.mimeType() == MimeType.SCRIPT
+                || (ct != null && ct.toLowerCase(Locale.ROOT).contains("javascript"))
+                || (url != null && url.toLowerCase(Locale.ROOT).endsWith(".js"));
+        if (!looksLikeJs) return;
+
+        String referer = null;
+        if (req != null) {
+            String ref = req.headerValue("Referer");
+            String origin = req.headerValue("Origin");
+            referer = (ref != null && !ref.isBlank()) ? ref : origin;
+        }
+        // Copy the body bytes once: they are fingerprinted and decoded 1:1 (as bodyToString does)
+        byte[] bytes = res.body().getBytes();
+        String body = new String(bytes, StandardCharsets.ISO_8859_1);
+        if (body.isBlank()) return;
+        boolean inScope = req != null && req.isInScope();
+        // Normalize referer to origin (scheme://host[:port])
+        JsWork work = new JsWork(url, originOnly(referer), body, bytes, ContentFingerprinter.of(bytes), inScope);
+
+        if (jsluiceService != null) jsluiceStage.submit(work);
+
+        int sizeKb = body.length() / 1024;
+        if (sizeKb <= settings.getMaxInlineJsKb()) {
+            jsScanStage.submit(work);
+        } else {
+            heavyJsSink.accept(work);
+        }
+    }
+
+    public List<PipelineStage<?>> stages() {
+        return List.of(classifyStage, paramStage, jsScanStage, jsluiceStage);
+    }
+
+    public String describe() {
+        StringBuilder sb = new StringBuilder("Pipeline stats:");
+        for (PipelineStage<?> s : stages()) sb.append("\n  ").append(s.describe());
+        return sb.toString();
+    }
+
+    public void shutdown() {
+        for (PipelineStage<?> s : stages()) {
+            try { s.shutdown(); } catch (Throwable ignored) {}
+        }
+    }
+
+    private static String originOnly(String url) {
+        try {
+            if (url == null || url.isBlank()) return url;
+            java.net.URI u = java.net.URI.create(url);
+            String scheme = u.getScheme();
+            String host = u.getHost();
+            if (scheme == null || host == null || host.isBlank()) return url;
+            int port = u.getPort();
+            return scheme + "://" + host + (port > 0 ? ":" + port : "");
+        } catch (Throwable ignored) {
+            return url;
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package burp.paramamador.pipeline;
+
+import burp.api.montoya.logging.Logging;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * Priority scheduler for heavy JS bundles.
+ *
+ * Work is kept in per-host queues (keyed by the host that served the script) and
+ * dispatched by priority: in-scope before out-of-scope, then hosts that have been
+ * served least so far, then smaller bodies before bigger ones, then arrival order.
+ * When full, the lowest-priority queued task is evicted in favour of a better one,
+ * so out-of-scope CDN bundles can never push in-scope work out.
+ *
+ * All bookkeeping happens under one lock, so the counters are exact:
+ * submitted == started + rejected + evicted + queued.
+ */
+public class JsWorkScheduler {
+
+    private record Task(AnalysisPipeline.JsWork work, String host, int size, long seq) {}
+
+    private static final int MAX_TRACKED_HOSTS = 10_000;
+
+    private final Consumer<AnalysisPipeline.JsWork> handler;
+    private final Logging log;
+    private final int capacity;
+
+    private final Object lock = new Object();
+    private final Map<String, TreeSet<Task>> hostQueues = new LinkedHashMap<>();
+    // Number of tasks dispatched per host; lower means "fresher" host
+    private final Map<String, Long> served = new HashMap<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private long seq;
+    private int queued;
+    private int running;
+    private boolean shutdown;
+
+    private long submitted;
+    private long started;
+    private long completed;
+    private long failed;
+    private long rejected;
+    private long evicted;
+
+    // Order inside one host queue: in-scope first, then smaller bodies, then FIFO
+    private static final Comparator<Task> IN_HOST_ORDER = Comparator
+            .comparing((Task t) -> !t.work().inScope())
+            .thenComparingInt(Task::size)
+            .thenComparingLong(Task::seq);
+
+    public JsWorkScheduler(int threads, int capacity, Consumer<AnalysisPipeline.JsWork> handler, Logging log) {
+        this.handler = handler;
+        this.log = log;
+        this.capacity = Math.max(1, capacity);
+        int n = Math.max(1, threads);
+        for (int i = 0; i < n; i++) {
+            Thread t = new Thread(this::workerLoop, "paramamador-js-worker-" + (i + 1));
+            t.setDaemon(true);
+            workers.add(t);
+            t.start();
+        }
+    }
+
+    /** Queue a bundle for scanning. Returns false if it was rejected because better work fills the queue. */
+    public boolean submit(AnalysisPipeline.JsWork work) {
+        if (work == null) return false;
+        String host = hostOf(work.sourceUrl());
+        int size = work.body() == null ? 0 : work.body().length();
+        synchronized (lock) {
+            submitted++;
+            if (shutdown) {
+                rejected++;
+                return false;
+            }
+            Task task = new Task(work, host, size, seq++);
+            if (queued >= capacity) {
+                Task worst = worstQueued();
+                if (worst == null || compare(task, worst) >= 0) {
+                    rejected++;
+                    return false;
+                }
+                removeQueued(worst);
+                evicted++;
+            }
+            hostQueues.computeIfAbsent(host, h -> new TreeSet<>(IN_HOST_ORDER)).add(task);
+            queued++;
+            lock.notify();
+            return true;
+        }
+    }
+
+    private void workerLoop() {
+        while (true) {
+            Task task;
+            synchronized (lock) {
+                while (!shutdown && queued == 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+                if (shutdown) return;
+                task = bestQueued();
+                removeQueued(task);
+                if (served.size() > MAX_TRACKED_HOSTS) served.clear();
+                served.merge(task.host(), 1L, Long::sum);
+                started++;
+                running++;
+            }
+            boolean ok = false;
+            try {
+                handler.accept(task.work());
+                ok = true;
+            } catch (Throwable t) {
+                if (log != null) log.logToError("JS analysis error: " + t.getMessage());
+            } finally {
+                synchronized (lock) {
+                    running--;
+                    if (ok) completed++; else failed++;
+                }
+            }
+        }
+    }
+
+    // Global order across host queues: in-scope, then least-served host, then size, then FIFO
+    private int compare(Task a, Task b) {
+        int c = Boolean.compare(!a.work().inScope(), !b.work().inScope());
+        if (c != 0) return c;
+        c = Long.compare(served.getOrDefault(a.host(), 0L), served.getOrDefault(b.host(), 0L));
+        if (c != 0) return c;
+        c = Integer.compare(a.size(), b.size());
+        if (c != 0) return c;
+        return Long.compare(a.seq(), b.seq());
+    }
+
+    private Task bestQueued() {
+        Task best = null;
+        for (TreeSet<Task> q : hostQueues.values()) {
+            Task head = q.first();
+            if (best == null || compare(head, best) < 0) best = head;
+        }
+        return best;
+    }
+
+    private Task worstQueued() {
+        Task worst = null;
+        for (TreeSet<Task> q : hostQueues.values()) {
+            Task tail = q.last();
+            if (worst == null || compare(tail, worst) > 0) worst = tail;
+        }
+        return worst;
+    }
+
+    private void removeQueued(Task task) {
+        TreeSet<Task> q = hostQueues.get(task.host());
+        if (q == null || !q.remove(task)) return;
+        queued--;
+        if (q.isEmpty()) hostQueues.remove(task.host());
+    }
+
+    private static String hostOf(String url) {
+        try {
+            String h = java.net.URI.create(url == null ? "" : url).getHost();
+            return h == null ? "" : h.toLowerCase(Locale.ROOT);
+        } catch (Throwable t) {
+            return "";
+        }
+    }
+
+    public String describe() {
+        synchronized (lock) {
+            return "js-scheduler[hosts=" + hostQueues.size()
+                    + ", queued=" + queued
+                    + ", running=" + running
+                    + ", submitted=" + submitted
+                    + ", started=" + started
+                    + ", completed=" + completed
+                    + ", failed=" + failed
+                    + ", rejected=" + rejected
+                    + ", evicted=" + evicted + "]";
+        }
+    }
+
+    public void shutdown() {
+        synchronized (lock) {
+            shutdown = true;
+            // Queued work is discarded; account for it as evicted so the totals stay exact
+            for (Iterator<TreeSet<Task>> it = hostQueues.values().iterator(); it.hasNext(); ) {
+                evicted += it.next().size();
+                it.remove();
+            }
+            queued = 0;
+            lock.notifyAll();
+        }
+        for (Thread t : workers) t.interrupt();
+    }
+}
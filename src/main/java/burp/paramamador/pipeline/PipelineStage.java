@@ -0,0 +1,111 @@
+package burp.paramamador.pipeline;
+
+import burp.api.montoya.logging.Logging;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * One bounded stage of the analysis pipeline: a fixed set of worker threads
+ * fed by its own queue, with an explicit policy for what happens when the
+ * queue is full and counters for everything that passes through.
+ */
+public class PipelineStage<T> {
+
+    /** What to do with a new item when the stage queue is full. */
+    public enum Backpressure {
+        /** Reject the incoming item. Never blocks the submitter. */
+        DROP_NEWEST,
+        /** Run the item on the submitting thread, slowing down the upstream stage. */
+        CALLER_RUNS
+    }
+
+    private final String name;
+    private final Backpressure policy;
+    private final Consumer<T> handler;
+    private final Logging log;
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder submitted = new LongAdder();
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder callerRuns = new LongAdder();
+
+    public PipelineStage(String name, int threads, int capacity, Backpressure policy, Consumer<T> handler, Logging log) {
+        this.name = name;
+        this.policy = policy;
+        this.handler = handler;
+        this.log = log;
+        int n = Math.max(1, threads);
+        AtomicInteger seq = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(n, n, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, capacity)),
+                r -> {
+                    Thread t = new Thread(r, "paramamador-" + name + "-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                rejectionHandler());
+    }
+
+    public String name() { return name; }
+
+    public void submit(T item) {
+        if (item == null) return;
+        submitted.increment();
+        executor.execute(() -> process(item));
+    }
+
+    private void process(T item) {
+        try {
+            handler.accept(item);
+            completed.increment();
+        } catch (Throwable t) {
+            failed.increment();
+            if (log != null) log.logToError("Pipeline stage '" + name + "' error: " + t.getMessage());
+        }
+    }
+
+    private RejectedExecutionHandler rejectionHandler() {
+        return (r, ex) -> {
+            if (ex.isShutdown()) {
+                dropped.increment();
+                return;
+            }
+            switch (policy) {
+                case CALLER_RUNS -> {
+                    callerRuns.increment();
+                    r.run();
+                }
+                default -> dropped.increment();
+            }
+        };
+    }
+
+    public int queued() { return executor.getQueue().size(); }
+    public long submitted() { return submitted.sum(); }
+    public long completed() { return completed.sum(); }
+    public long failed() { return failed.sum(); }
+    public long dropped() { return dropped.sum(); }
+    public long callerRuns() { return callerRuns.sum(); }
+
+    public String describe() {
+        return name + "[policy=" + policy
+                + ", queued=" + queued()
+                + ", submitted=" + submitted()
+                + ", completed=" + completed()
+                + ", failed=" + failed()
+                + ", dropped=" + dropped()
+                + ", callerRuns=" + callerRuns() + "]";
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
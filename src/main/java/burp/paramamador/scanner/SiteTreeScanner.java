@@ -10,6 +10,8 @@ import burp.paramamador.Settings;
 import burp.paramamador.analyzer.JsEndpointAnalyzer;
 import burp.paramamador.datastore.DataStore;
 import burp.paramamador.integrations.JsluiceService;
+import burp.paramamador.util.ContentFingerprint;
+import burp.paramamador.util.ContentFingerprinter;
 
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -51,7 +53,9 @@ public class SiteTreeScanner {
                 HttpRequest req = HttpRequest.httpRequestFromUrl(url);
                 HttpRequestResponse fetched = http.sendRequest(req);
                 if (fetched != null && fetched.response() != null) {
-                    String body = fetched.response().bodyToString();
+                    byte[] bytes = fetched.response().body().getBytes();
+                    String body = new String(bytes, java.nio.charset.StandardCharsets.ISO_8859_1);
+                    ContentFingerprint fp = ContentFingerprinter.of(bytes);
                     // Determine inScope using the original request if possible
                     boolean inScope = rr.request().isInScope();
                     String ref = rr.request().headerValue("Referer");
@@ -59,10 +63,10 @@ public class SiteTreeScanner {
                     String referer = originOnly((ref != null && !ref.isBlank()) ? ref : org);
                     try {
                         if (jsluiceService != null && body != null && !body.isBlank()) {
-                            jsluiceService.enqueue(url, referer, body, inScope);
+                            jsluiceService.enqueue(url, referer, body, bytes, fp, inScope);
                         }
                     } catch (Throwable ignored) {}
-                    jsAnalyzer.extractEndpoints(url, referer, body, inScope);
+                    jsAnalyzer.extractEndpoints(url, referer, body, bytes, fp, inScope);
                     processed.add(url);
                     count++;
                 }
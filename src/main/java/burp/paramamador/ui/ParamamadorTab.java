@@ -1,7 +1,10 @@
 package burp.paramamador.ui;
 
 import burp.paramamador.Settings;
+import burp.paramamador.analyzer.NotSureClassifier;
+import burp.paramamador.datastore.ChangeFeed;
 import burp.paramamador.datastore.DataStore;
+import burp.paramamador.datastore.EndpointKey;
 import burp.paramamador.datastore.EndpointRecord;
 import burp.paramamador.datastore.ParameterRecord;
 import burp.paramamador.integrations.JsluiceService;
@@ -49,6 +52,12 @@ public class ParamamadorTab {
     private final EndpointTableModel endpointModel;
     private final JTable endpointTable = new JTable();
     private final TableRowSorter<EndpointTableModel> endpointSorter = new TableRowSorter<>();
+    // One row per endpoint string instead of one per (source, endpoint)
+    private final JCheckBox groupEndpoints = new JCheckBox("Group by endpoint", true);
+    private static final int MAX_INCREMENTAL_CHANGES = 20_000;
+    // Change-feed version and grouping the tables currently show; -1 until the first full load
+    private long shownVersion = -1;
+    private boolean shownGrouped = true;
     private final JTextArea endpointContext = new JTextArea();
 
     // NotSure endpoints
@@ -105,7 +114,7 @@ public class ParamamadorTab {
         endpointTable.setModel(endpointModel);
         endpointSorter.setModel(endpointModel);
 
-        notSureModel = new EndpointTableModel();
+        notSureModel = new EndpointTableModel(true);
         notSureTable.setModel(notSureModel);
         notSureSorter.setModel(notSureModel);
 
@@ -118,26 +127,84 @@ public class ParamamadorTab {
 
     public Component getComponent() { return root; }
 
+    /** Reloads every table from a full store snapshot; used after user actions and settings changes. */
     public void refreshAll() {
-        SwingUtilities.invokeLater(() -> {
-            paramModel.setRows(store.snapshotParameters());
-            java.util.Set<String> ignored = new java.util.HashSet<>();
-            for (String s : settings.getGlobalIgnoredValues()) if (s != null && !s.isBlank()) ignored.add(s.trim());
-            java.util.List<EndpointRecord> eps = store.snapshotEndpoints();
-            if (!ignored.isEmpty()) {
-                eps = eps.stream().filter(e -> e == null || e.endpointString == null || !ignored.contains(e.endpointString.trim())).toList();
-            }
-            endpointModel.setRows(eps);
+        SwingUtilities.invokeLater(this::reloadTables);
+    }
 
-            java.util.List<EndpointRecord> ns = store.snapshotNotSureEndpoints();
-            if (!ignored.isEmpty()) {
-                ns = ns.stream().filter(e -> e == null || e.endpointString == null || !ignored.contains(e.endpointString.trim())).toList();
+    /**
+     * Periodic refresh: applies only the store changes since the tables were last filled. New and
+     * updated records are patched in place; anything that hides or removes rows reloads in full.
+     */
+    public void refreshChanged() {
+        SwingUtilities.invokeLater(() -> {
+            ChangeFeed.Delta delta = store.changesSince(shownVersion);
+            if (shownVersion < 0 || shownGrouped != groupEndpoints.isSelected() || delta.reset() || !applyChanges(delta.changes())) {
+                reloadTables();
+                return;
             }
-            notSureModel.setRows(ns);
+            shownVersion = delta.to();
             if (jsluiceService != null) jsluiceModel.setRows(jsluiceService.snapshotResults());
         });
     }
 
+    private void reloadTables() {
+        // Taken first: changes racing with the snapshots are re-applied next time, and re-applying is harmless
+        long version = store.version();
+        boolean grouped = groupEndpoints.isSelected();
+        paramModel.setRows(store.snapshotParameters());
+        burp.paramamador.util.IgnoreMatcher ignored = settings.getIgnoreMatcher();
+        java.util.List<EndpointRecord> eps = grouped ? store.snapshotEndpointsCollapsed() : store.snapshotEndpoints();
+        if (ignored.hasIgnoredValues()) {
+            eps = eps.stream().filter(e -> e == null || !ignored.isIgnoredValue(e.endpointString)).toList();
+        }
+        endpointModel.setRows(eps, grouped);
+
+        java.util.List<EndpointRecord> ns = store.snapshotNotSureEndpoints();
+        if (ignored.hasIgnoredValues()) {
+            ns = ns.stream().filter(e -> e == null || !ignored.isIgnoredValue(e.endpointString)).toList();
+        }
+        notSureModel.setRows(ns, false);
+        if (jsluiceService != null) jsluiceModel.setRows(jsluiceService.snapshotResults());
+        shownVersion = version;
+        shownGrouped = grouped;
+    }
+
+    /** Patches the tables with inserts and updates; returns false if a full reload is needed instead. */
+    private boolean applyChanges(java.util.List<ChangeFeed.Change> changes) {
+        if (changes.isEmpty()) return true;
+        // Beyond this, one reload is cheaper than patching row by row
+        if (changes.size() > MAX_INCREMENTAL_CHANGES) return false;
+        for (ChangeFeed.Change c : changes) {
+            if (c.op() != ChangeFeed.Op.INSERT && c.op() != ChangeFeed.Op.UPDATE) return false;
+        }
+        burp.paramamador.util.IgnoreMatcher ignored = settings.getIgnoreMatcher();
+        for (ChangeFeed.Change c : changes) {
+            if (c.isParameter()) {
+                ParameterRecord r = store.getParameter(c.parameter());
+                // Hidden (false positive) or gone: the flag or clear that did it already forced a reload
+                if (r != null && !r.falsePositive) paramModel.upsert(r);
+                continue;
+            }
+            EndpointKey key = c.endpoint();
+            EndpointRecord r = store.getEndpoint(key.endpoint(), key.source());
+            if (r == null || r.falsePositive) continue;
+            if (ignored.hasIgnoredValues() && ignored.isIgnoredValue(r.endpointString)) continue;
+            if (r.notSure) {
+                notSureModel.upsert(r);
+            } else if (shownGrouped) {
+                EndpointRecord grouped = store.getEndpointCollapsed(r.endpointString);
+                if (grouped != null) endpointModel.upsert(grouped);
+            } else {
+                endpointModel.upsert(r);
+            }
+        }
+        paramModel.commit();
+        endpointModel.commit();
+        notSureModel.commit();
+        return true;
+    }
+
     public void refreshSettingsFromModel() {
         SwingUtilities.invokeLater(() -> {
             scopeOnly.setSelected(settings.isScopeOnly());
@@ -312,7 +379,7 @@ public class ParamamadorTab {
             int r = endpointTable.getSelectedRow();
             if (r >= 0) {
                 int m = endpointTable.convertRowIndexToModel(r);
-                endpointContext.setText(Optional.ofNullable(endpointModel.rows.get(m).contextSnippet).orElse(""));
+                endpointContext.setText(store.contextOf(endpointModel.rows.get(m)));
             }
         });
 
@@ -361,11 +428,44 @@ public class ParamamadorTab {
                 int m = endpointTable.convertRowIndexToModel(r);
                 EndpointRecord rec = endpointModel.rows.get(m);
                 if (rec == null || rec.endpointString == null || rec.endpointString.isBlank()) continue;
-                store.markEndpointFalsePositive(rec.endpointString, rec.source, true);
+                // A grouped row stands for every source of the endpoint
+                if (groupEndpoints.isSelected()) store.markEndpointFalsePositive(rec.endpointString, true);
+                else store.markEndpointFalsePositive(rec.endpointString, rec.source, true);
             }
             refreshAll();
         });
         endpointPopup.add(endpointFalsePosItem);
+        JMenuItem endpointFalsePosSource = new JMenuItem("Mark all from this JS source as False Positive");
+        endpointFalsePosSource.addActionListener(e -> {
+            java.util.Set<String> sources = new java.util.LinkedHashSet<>();
+            for (int r : endpointTable.getSelectedRows()) {
+                EndpointRecord rec = endpointModel.rows.get(endpointTable.convertRowIndexToModel(r));
+                if (rec != null) sources.add(rec.source == null ? "" : rec.source);
+            }
+            for (String src : sources) store.markEndpointsFalsePositiveBySource(src, true);
+            refreshAll();
+        });
+        endpointPopup.add(endpointFalsePosSource);
+        JMenuItem endpointCopyHost = new JMenuItem("Copy all endpoints for this host");
+        endpointCopyHost.addActionListener(e -> {
+            java.util.Set<String> hosts = new java.util.LinkedHashSet<>();
+            for (int r : endpointTable.getSelectedRows()) {
+                String host = DataStore.targetHostOf(endpointModel.rows.get(endpointTable.convertRowIndexToModel(r)));
+                if (host != null) hosts.add(host);
+            }
+            if (hosts.isEmpty()) {
+                JOptionPane.showMessageDialog(root, "No host known for the selection (relative endpoint from an inline script?).", "Paramamador", JOptionPane.INFORMATION_MESSAGE);
+                return;
+            }
+            java.util.Set<String> values = new java.util.LinkedHashSet<>();
+            for (String host : hosts) {
+                for (EndpointRecord rec : store.endpointsForHost(host)) {
+                    if (!rec.falsePositive && !rec.notSure) values.add(rec.endpointString);
+                }
+            }
+            Toolkit.getDefaultToolkit().getSystemClipboard().setContents(new java.awt.datatransfer.StringSelection(String.join("\n", values) + "\n"), null);
+        });
+        endpointPopup.add(endpointCopyHost);
         JMenuItem endpointAddToGlobalIgnored = new JMenuItem("Add Endpoint to Global Ignored");
         endpointAddToGlobalIgnored.addActionListener(e -> {
             int[] rows = endpointTable.getSelectedRows();
@@ -435,7 +535,9 @@ public class ParamamadorTab {
         JPanel top = new JPanel(new BorderLayout());
         top.add(new JLabel("Filter:"), BorderLayout.WEST);
         top.add(filter, BorderLayout.CENTER);
+        groupEndpoints.addActionListener(e -> refreshAll());
         JPanel actions = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        actions.add(groupEndpoints);
         actions.add(copy);
         actions.add(addManual);
         actions.add(sendToRepeater);
@@ -465,7 +567,7 @@ public class ParamamadorTab {
             int r = notSureTable.getSelectedRow();
             if (r >= 0) {
                 int m = notSureTable.convertRowIndexToModel(r);
-                notSureContext.setText(Optional.ofNullable(notSureModel.rows.get(m).contextSnippet).orElse(""));
+                notSureContext.setText(store.contextOf(notSureModel.rows.get(m)));
             }
         });
 
@@ -767,6 +869,7 @@ public class ParamamadorTab {
         JButton rescan = new JButton("Rescan Site Tree");
         JButton save = new JButton("Save now");
         JButton load = new JButton("Load JSON...");
+        JButton exportEndpoints = new JButton("Export endpoints...");
 
         apply.addActionListener(e -> applySettings());
         clear.addActionListener(e -> clearData());
@@ -797,7 +900,30 @@ public class ParamamadorTab {
             }
         });
 
-        actions.add(apply); actions.add(clear); actions.add(rescan); actions.add(save); actions.add(load);
+        // Snapshots only reference snippets in stored JS bodies; this writes a file with their text
+        exportEndpoints.addActionListener(e -> {
+            JFileChooser fc = new JFileChooser();
+            fc.setDialogTitle("Export endpoints with context snippets");
+            fc.setFileFilter(new FileNameExtensionFilter("JSON files", "json"));
+            try {
+                fc.setCurrentDirectory(settings.getExportDir().toFile());
+            } catch (Throwable t1) {}
+            if (fc.showSaveDialog(root) != JFileChooser.APPROVE_OPTION || fc.getSelectedFile() == null) return;
+            Path target = fc.getSelectedFile().toPath();
+            // Reading the referenced bodies can take a while on large projects
+            Thread t = new Thread(() -> {
+                try {
+                    store.exportEndpoints(target);
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(root, "Exported endpoints to " + target, "Paramamador", JOptionPane.INFORMATION_MESSAGE));
+                } catch (Throwable ex) {
+                    SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(root, "Export failed: " + ex.getMessage(), "Paramamador", JOptionPane.ERROR_MESSAGE));
+                }
+            }, "paramamador-export");
+            t.setDaemon(true);
+            t.start();
+        });
+
+        actions.add(apply); actions.add(clear); actions.add(rescan); actions.add(save); actions.add(load); actions.add(exportEndpoints);
 
         p.add(form, BorderLayout.CENTER);
         p.add(actions, BorderLayout.SOUTH);
@@ -1157,18 +1283,7 @@ public class ParamamadorTab {
     }
 
     private void pruneEndpointEverywhere(String endpointValue) {
-        if (endpointValue == null || endpointValue.isBlank()) return;
-        String needle = endpointValue.trim();
-        try {
-            java.util.Iterator<java.util.Map.Entry<String, EndpointRecord>> it = store.endpoints().entrySet().iterator();
-            while (it.hasNext()) {
-                java.util.Map.Entry<String, EndpointRecord> en = it.next();
-                EndpointRecord rec = en.getValue();
-                if (rec != null && rec.endpointString != null && needle.equals(rec.endpointString.trim())) {
-                    it.remove();
-                }
-            }
-        } catch (Throwable ignored) {}
+        try { store.removeEndpointsByValue(endpointValue); } catch (Throwable ignored) {}
     }
 
     private void applySettings() {
@@ -1192,11 +1307,48 @@ public class ParamamadorTab {
     }
 
     // Table models
+
+    /** Fires one event per updated existing row (clearing {@code updated}) and one for the rows appended since {@code from}. */
+    private static void fireChanges(AbstractTableModel model, BitSet updated, int from, int to) {
+        for (int i = updated.nextSetBit(0); i >= 0 && i < from; i = updated.nextSetBit(i + 1)) model.fireTableRowsUpdated(i, i);
+        updated.clear();
+        if (to > from) model.fireTableRowsInserted(from, to - 1);
+    }
+
     private static class ParameterTableModel extends AbstractTableModel {
         private final String[] cols = {"Name", "Sources", "Types", "Examples", "Count", "OnlyInCode", "Pattern"};
         private List<ParameterRecord> rows = new ArrayList<>();
+        // Row index by parameter name, for in-place updates
+        private final Map<String, Integer> index = new HashMap<>();
+        private int committedSize = 0;
+        private final BitSet updated = new BitSet();
+
+        public void setRows(List<ParameterRecord> r) {
+            this.rows = new ArrayList<>(r);
+            index.clear();
+            for (int i = 0; i < rows.size(); i++) index.put(rows.get(i).name, i);
+            committedSize = rows.size();
+            updated.clear();
+            fireTableDataChanged();
+        }
+
+        /** Replaces or appends the row for {@code r}; events go out on {@link #commit()}. */
+        void upsert(ParameterRecord r) {
+            Integer i = index.get(r.name);
+            if (i == null) {
+                index.put(r.name, rows.size());
+                rows.add(r);
+            } else {
+                rows.set(i, r);
+                updated.set(i);
+            }
+        }
+
+        void commit() {
+            fireChanges(this, updated, committedSize, rows.size());
+            committedSize = rows.size();
+        }
 
-        public void setRows(List<ParameterRecord> r) { this.rows = new ArrayList<>(r); fireTableDataChanged(); }
         @Override public int getRowCount() { return rows.size(); }
         @Override public int getColumnCount() { return cols.length; }
         @Override public String getColumnName(int column) { return cols[column]; }
@@ -1204,10 +1356,10 @@ public class ParamamadorTab {
             ParameterRecord r = rows.get(rowIndex);
             return switch (columnIndex) {
                 case 0 -> r.name;
-                case 1 -> String.join(", ", r.sources);
+                case 1 -> r.sources.overflow() > 0 ? String.join(", ", r.sources) + " (+" + r.sources.overflow() + " hits from other sources)" : String.join(", ", r.sources);
                 case 2 -> String.join(", ", r.types);
                 case 3 -> String.join(", ", r.exampleValues);
-                case 4 -> r.count;
+                case 4 -> r.count();
                 case 5 -> r.onlyInCode;
                 case 6 -> r.patternsFromJs.isEmpty() ? "" : String.join(", ", r.patternsFromJs);
                 default -> "";
@@ -1216,10 +1368,55 @@ public class ParamamadorTab {
     }
 
     private static class EndpointTableModel extends AbstractTableModel {
-        private final String[] cols = {"Endpoint", "Source", "Type", "Referer", "FirstSeen", "Pattern"};
+        private final String[] cols;
         private List<EndpointRecord> rows = new ArrayList<>();
+        // Row index by endpoint string when grouped, else by (source, endpoint)
+        private final Map<Object, Integer> index = new HashMap<>();
+        private boolean grouped;
+        private int committedSize = 0;
+        private final BitSet updated = new BitSet();
+
+        EndpointTableModel() { this(false); }
+
+        // withReason: extra column explaining why the classifier flagged the endpoint as not sure
+        EndpointTableModel(boolean withReason) {
+            cols = withReason
+                    ? new String[]{"Endpoint", "Source", "Type", "Referer", "FirstSeen", "Pattern", "Reason"}
+                    : new String[]{"Endpoint", "Source", "Type", "Referer", "FirstSeen", "Pattern"};
+        }
+
+        public void setRows(List<EndpointRecord> records, boolean grouped) {
+            this.rows = new ArrayList<>(records == null ? List.of() : records);
+            this.grouped = grouped;
+            index.clear();
+            for (int i = 0; i < rows.size(); i++) index.put(keyOf(rows.get(i)), i);
+            committedSize = rows.size();
+            updated.clear();
+            fireTableDataChanged();
+        }
+
+        /** Replaces or appends the row for {@code r}; events go out on {@link #commit()}. */
+        void upsert(EndpointRecord r) {
+            Object k = keyOf(r);
+            Integer i = index.get(k);
+            if (i == null) {
+                index.put(k, rows.size());
+                rows.add(r);
+            } else {
+                rows.set(i, r);
+                updated.set(i);
+            }
+        }
+
+        void commit() {
+            fireChanges(this, updated, committedSize, rows.size());
+            committedSize = rows.size();
+        }
+
+        private Object keyOf(EndpointRecord r) {
+            return grouped ? r.endpointString : new EndpointKey(r.source, r.endpointString);
+        }
 
-        public void setRows(List<EndpointRecord> records) { this.rows = new ArrayList<>(records == null ? List.of() : records); fireTableDataChanged(); }
         @Override public int getRowCount() { return rows.size(); }
         @Override public int getColumnCount() { return cols.length; }
         @Override public String getColumnName(int column) { return cols[column]; }
@@ -1227,11 +1424,12 @@ public class ParamamadorTab {
             EndpointRecord r = rows.get(rowIndex);
             return switch (columnIndex) {
                 case 0 -> displayEndpoint(r);
-                case 1 -> r.source == null ? "" : r.source;
+                case 1 -> r.occurrences > 1 ? (r.source == null ? "" : r.source) + " (+" + (r.occurrences - 1) + ")" : (r.source == null ? "" : r.source);
                 case 2 -> r.type;
                 case 3 -> r.referer == null ? "" : r.referer;
                 case 4 -> new java.util.Date(r.firstSeen);
                 case 5 -> r.pattern == null ? "" : r.pattern;
+                case 6 -> NotSureClassifier.Reason.labelOf(r.notSureReason);
                 default -> "";
             };
         }
@@ -0,0 +1,256 @@
+package burp.paramamador.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Append-only line journal with group commit.
+ *
+ * {@link #append(String)} only enqueues the line; a single background thread writes all
+ * pending lines of a journal through one long-lived {@link FileChannel} and forces it once
+ * per batch. Journals are shared per file via {@link #forPath(Path)}.
+ * {@link #readLines(Path)} recovers from a crash mid-write by truncating an incomplete last line.
+ */
+public final class AppendJournal {
+
+    private static final long COMMIT_WINDOW_MS = 50;
+    private static final Map<Path, AppendJournal> JOURNALS = new ConcurrentHashMap<>();
+    private static final LinkedBlockingQueue<AppendJournal> DIRTY = new LinkedBlockingQueue<>();
+    private static final Object WRITER_LOCK = new Object();
+    private static Thread writer;
+
+    private final Path file;
+    private final ConcurrentLinkedQueue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private FileChannel channel; // guarded by this
+    private IOException failure; // a background write that failed since the last flush(); guarded by this
+
+    private AppendJournal(Path file) {
+        this.file = file;
+    }
+
+    public static AppendJournal forPath(Path file) {
+        return JOURNALS.computeIfAbsent(file.toAbsolutePath().normalize(), AppendJournal::new);
+    }
+
+    /** Queues one line (a trailing newline is added); returns immediately. */
+    public void append(String line) {
+        if (line == null) return;
+        pending.add(line);
+        if (scheduled.compareAndSet(false, true)) {
+            DIRTY.add(this);
+            ensureWriter();
+        }
+    }
+
+    /**
+     * Writes and forces everything queued so far on the calling thread. Also throws if the
+     * background writer lost lines since the previous call, so a caller that gets no exception
+     * knows everything it appended before is on disk.
+     */
+    public synchronized void flush() throws IOException {
+        IOException earlier = failure;
+        failure = null;
+        write();
+        if (earlier != null) throw earlier;
+    }
+
+    private synchronized void write() throws IOException {
+        scheduled.set(false);
+        if (pending.isEmpty()) return;
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = pending.poll()) != null) sb.append(line).append('\n');
+        try {
+            if (channel == null || !channel.isOpen()) {
+                Files.createDirectories(file.getParent());
+                recover(file);
+                channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) channel.write(buf);
+            channel.force(false);
+        } catch (IOException e) {
+            // Reopened by the next write; recover() cuts a torn last line
+            if (channel != null) {
+                try { channel.close(); } catch (Throwable ignored) {}
+                channel = null;
+            }
+            throw e;
+        }
+    }
+
+    private synchronized void failed(IOException e) {
+        if (failure == null) failure = e;
+    }
+
+    private synchronized void close() {
+        try { flush(); } catch (Throwable ignored) {}
+        if (channel != null) {
+            try { channel.close(); } catch (Throwable ignored) {}
+            channel = null;
+        }
+    }
+
+    /**
+     * Flushes, closes and moves the journal file to {@code target} (appending if it already exists);
+     * later appends start a new file. Returns false if there was nothing to rotate.
+     */
+    public synchronized boolean rotateTo(Path target) throws IOException {
+        flush();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        if (!Files.isRegularFile(file)) return false;
+        if (Files.exists(target)) {
+            recover(target);
+            try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                 FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                long pos = 0, size = in.size();
+                while (pos < size) pos += in.transferTo(pos, size - pos, out);
+                out.force(true);
+            }
+            Files.delete(file);
+        } else {
+            Files.move(file, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return true;
+    }
+
+    /**
+     * Atomically replaces the file with {@code lines}, e.g. to compact it. Appends queued before the
+     * call are written first and replaced with the rest; later appends go after {@code lines}.
+     */
+    public synchronized void replaceWith(List<String> lines) throws IOException {
+        flush();
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) sb.append(line).append('\n');
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) out.write(buf);
+            out.force(true);
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Complete lines of a journal file. Pending appends to the same file are flushed first and
+     * a torn last line (no trailing newline) is cut off the file.
+     */
+    public static List<String> readLines(Path file) throws IOException {
+        AppendJournal j = JOURNALS.get(file.toAbsolutePath().normalize());
+        if (j != null) j.write(); // leaves an earlier background failure to the next flush()
+        if (!Files.isRegularFile(file)) return List.of();
+        recover(file);
+        return Files.readAllLines(file, StandardCharsets.UTF_8);
+    }
+
+    /** Flushes and closes every journal and stops the writer thread; later appends reopen lazily. */
+    public static void closeAll() {
+        Thread t;
+        synchronized (WRITER_LOCK) {
+            t = writer;
+            writer = null;
+        }
+        if (t != null) {
+            // No interrupt: it would close the FileChannel under an in-flight write
+            try { t.join(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+        }
+        DIRTY.clear();
+        for (AppendJournal j : JOURNALS.values()) j.close();
+    }
+
+    private static void recover(Path file) throws IOException {
+        if (!Files.isRegularFile(file)) return;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            if (size == 0) return;
+            // Scan backwards for the last newline; everything after it is a partially written line
+            ByteBuffer one = ByteBuffer.allocate(8192);
+            long end = size;
+            while (end > 0) {
+                int n = (int) Math.min(one.capacity(), end);
+                one.clear().limit(n);
+                ch.read(one, end - n);
+                for (int i = n - 1; i >= 0; i--) {
+                    if (one.get(i) == '\n') {
+                        long keep = end - n + i + 1;
+                        if (keep < size) {
+                            ch.truncate(keep);
+                            ch.force(true);
+                        }
+                        return;
+                    }
+                }
+                end -= n;
+            }
+            ch.truncate(0);
+            ch.force(true);
+        }
+    }
+
+    private static void ensureWriter() {
+        synchronized (WRITER_LOCK) {
+            if (writer != null) return;
+            Thread t = new Thread(AppendJournal::writerLoop, "paramamador-journal");
+            t.setDaemon(true);
+            writer = t;
+            t.start();
+        }
+    }
+
+    private static void writerLoop() {
+        while (isCurrentWriter()) {
+            try {
+                AppendJournal first = DIRTY.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                // Let concurrent appenders join this commit
+                Thread.sleep(COMMIT_WINDOW_MS);
+                List<AppendJournal> batch = new ArrayList<>();
+                batch.add(first);
+                DIRTY.drainTo(batch);
+                for (AppendJournal j : batch) {
+                    try {
+                        j.write();
+                    } catch (IOException e) {
+                        j.failed(e);
+                    } catch (Throwable ignored) {}
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private static boolean isCurrentWriter() {
+        synchronized (WRITER_LOCK) {
+            return writer == Thread.currentThread();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package burp.paramamador.util;
+
+/**
+ * Identity of a response body, computed once by {@link ContentFingerprinter} and passed
+ * along to every consumer (JS analyzer, jsluice, scanned-file persistence).
+ *
+ * @param sha256    lowercase hex SHA-256 of the raw body bytes (file names, persisted dedupe keys); null if unavailable
+ * @param quickHash fast 64-bit hash of the same bytes (in-memory prefilter, keyed per process: never persist it)
+ * @param length    body length in bytes
+ */
+public record ContentFingerprint(String sha256, long quickHash, int length) {}
@@ -0,0 +1,107 @@
+package burp.paramamador.util;
+
+import burp.api.montoya.core.ByteArray;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hash-once content fingerprinting shared by all JS consumers.
+ *
+ * Hashes the raw body bytes. A fast 64-bit hash (8 bytes per step) plus the length is
+ * looked up first; SHA-256 is only computed for content not seen recently, so bundles
+ * that are re-fetched on every page load cost one cheap pass instead of a digest.
+ *
+ * A hit is trusted without looking at the bytes again, so the fast hash is keyed with random
+ * values drawn per process (seed and block multiplier) and never leaves it: a server cannot
+ * prepare a body that collides with another one to have it skipped or filed under a foreign hash.
+ */
+public final class ContentFingerprinter {
+    private ContentFingerprinter() {}
+
+    private record Key(long quickHash, int length) {}
+
+    private static final int MAX_CACHED = 50_000;
+    private static final Map<Key, String> SHA_BY_QUICK = new ConcurrentHashMap<>();
+    private static final LongAdder HITS = new LongAdder();
+    private static final LongAdder MISSES = new LongAdder();
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long P1 = 0x9E3779B185EBCA87L;
+    private static final long P3 = 0x165667B19E3779F9L;
+    private static final long SEED;
+    private static final long K; // odd, so the block multiply stays a bijection
+    static {
+        SecureRandom rnd = new SecureRandom();
+        SEED = rnd.nextLong();
+        K = rnd.nextLong() | 1L;
+    }
+
+    public static ContentFingerprint of(ByteArray body) {
+        return of(body == null ? new byte[0] : body.getBytes());
+    }
+
+    /** Strings are hashed as ISO-8859-1, the 1:1 byte/char mapping Burp uses for message bodies. */
+    public static ContentFingerprint of(String body) {
+        return of(body == null ? new byte[0] : body.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    public static ContentFingerprint of(byte[] bytes) {
+        long quick = quickHash(bytes);
+        Key key = new Key(quick, bytes.length);
+        String sha = SHA_BY_QUICK.get(key);
+        if (sha != null) {
+            HITS.increment();
+        } else {
+            MISSES.increment();
+            sha = sha256Hex(bytes);
+            if (sha != null) {
+                if (SHA_BY_QUICK.size() >= MAX_CACHED) SHA_BY_QUICK.clear();
+                SHA_BY_QUICK.put(key, sha);
+            }
+        }
+        return new ContentFingerprint(sha, quick, bytes.length);
+    }
+
+    static long quickHash(byte[] b) {
+        long h = SEED ^ P3 ^ ((long) b.length * P1);
+        int i = 0;
+        int n = b.length & ~7;
+        for (; i < n; i += 8) {
+            long k = (long) LONGS.get(b, i) * K;
+            h ^= Long.rotateLeft(k, 31) * P1;
+            h = Long.rotateLeft(h, 27) * P1 + P3;
+        }
+        for (; i < b.length; i++) {
+            h ^= (b[i] & 0xFFL) * K;
+            h = Long.rotateLeft(h, 11) * P1;
+        }
+        // fmix64
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static String sha256Hex(byte[] bytes) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(bytes));
+        } catch (Throwable e) {
+            return null;
+        }
+    }
+
+    public static String describe() {
+        return "fingerprints[cached=" + SHA_BY_QUICK.size() + ", prefilterHits=" + HITS.sum() + ", sha256=" + MISSES.sum() + "]";
+    }
+}
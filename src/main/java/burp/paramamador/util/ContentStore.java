@@ -0,0 +1,403 @@
+package burp.paramamador.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Content-addressed store of JS bodies: {@code <dir>/<sha256>.js.gz}, the gzipped original response
+ * bytes the hash was taken over. Shared by jsluice (which scans staged plain copies) and context
+ * snippets (which reference ranges in them instead of copying text).
+ *
+ * Bodies are written once, straight from the response bytes through a {@link FileChannel}; storing
+ * one again only marks it as recently used, and keeps it if an eviction pass had already chosen it. When the directory grows past the size limit the least
+ * recently stored bodies are deleted, except pinned ones (queued for jsluice). The
+ * {@link #beforeEvict} handler runs first, so snippets into them can be copied out while the bodies
+ * are still readable. Eviction runs on a background thread from an in-memory index of sizes in
+ * use order, built from one directory listing; writers only update it. Plain {@code <sha256>.js}
+ * files from older versions are still read.
+ */
+public final class ContentStore {
+
+    private static final String EXT = ".js.gz";
+    private static final String LEGACY_EXT = ".js";
+    private static final long CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int CACHE_BODY_MAX = 8 * 1024 * 1024; // larger bodies are read up to the snippet, not cached
+
+    private final Supplier<Path> dir;
+    private final LongSupplier maxBytes;
+
+    // Recently read bodies, decompressed, bounded by total size; snippets of one body are usually read together
+    private final Map<String, byte[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes; // guarded by cache
+
+    // Bodies in indexedDir: hash -> bytes on disk, least recently stored first. Built on the evictor
+    // thread by listing the directory once; bodies stored meanwhile wait in unindexed. All guarded by index.
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<>();
+    private final Map<String, Long> unindexed = new HashMap<>();
+    private Path indexedDir;
+    private long storedBytes;
+    // Victims of the running eviction pass not yet deleted; storing one again takes it out. Guarded by index.
+    private final Set<String> evicting = new HashSet<>();
+
+    private final ExecutorService evictor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "paramamador-content-evict");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicBoolean evictionQueued = new AtomicBoolean(false);
+
+    // hash -> pin count; pinned bodies are never evicted
+    private final Map<String, Integer> pins = new ConcurrentHashMap<>();
+    private volatile Consumer<Set<String>> beforeEvict = hashes -> {};
+
+    /** {@code maxBytes} of 0 or less means no limit. Both are read per call, settings can change. */
+    public ContentStore(Supplier<Path> dir, LongSupplier maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    private Path pathOf(String hash) {
+        return dir.get().resolve(hash + EXT);
+    }
+
+    private Path legacyPathOf(String hash) {
+        return dir.get().resolve(hash + LEGACY_EXT);
+    }
+
+    public boolean has(String hash) {
+        return hash != null && (Files.isRegularFile(pathOf(hash)) || Files.isRegularFile(legacyPathOf(hash)));
+    }
+
+    /** Stops the eviction thread; bodies stored afterwards are no longer evicted. */
+    public void close() {
+        evictor.shutdownNow();
+    }
+
+    /** Keeps the body of {@code hash} until a matching {@link #unpin}; pins are counted. */
+    public void pin(String hash) {
+        if (hash != null) pins.merge(hash, 1, Integer::sum);
+    }
+
+    public void unpin(String hash) {
+        if (hash != null) pins.computeIfPresent(hash, (h, n) -> n > 1 ? n - 1 : null);
+    }
+
+    /**
+     * Sets what runs with the hashes of bodies about to be evicted, before they are deleted and on
+     * the thread that evicts them; {@link #read} still works on them meanwhile.
+     */
+    public void beforeEvict(Consumer<Set<String>> handler) {
+        this.beforeEvict = handler == null ? hashes -> {} : handler;
+    }
+
+    // Existing body stored again: it counts as recent for retention, and a pending eviction of it is
+    // cancelled. Under the index lock, so it cannot interleave with the deletion of the same body.
+    private boolean touch(String hash) {
+        synchronized (index) {
+            for (Path p : new Path[]{pathOf(hash), legacyPathOf(hash)}) {
+                try {
+                    Files.setLastModifiedTime(p, FileTime.fromMillis(System.currentTimeMillis()));
+                } catch (IOException | RuntimeException e) {
+                    continue;
+                }
+                Long size = index.remove(hash);
+                if (size != null) index.put(hash, size);
+                evicting.remove(hash);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Stores a body given as ISO-8859-1 text unless it is already there. Returns false if it could
+     * not be stored byte for char (then offsets into it would not match the string).
+     */
+    public boolean put(String hash, String body) {
+        if (hash == null || body == null) return false;
+        if (touch(hash)) return true;
+        for (int i = 0; i < body.length(); i++) {
+            if (body.charAt(i) > 0xFF) return false;
+        }
+        return put(hash, body.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    /** Stores the original body bytes under {@code hash} unless they are already there. */
+    public boolean put(String hash, byte[] body) {
+        if (hash == null || body == null) return false;
+        if (touch(hash)) return true;
+        Path file = pathOf(hash);
+        Path tmp = null;
+        try {
+            // Written under a unique temp name and moved, so readers never see a partial body and
+            // concurrent writers of the same content do not collide. Not forced: it can be re-fetched.
+            Files.createDirectories(file.getParent());
+            tmp = Files.createTempFile(file.getParent(), hash, ".tmp");
+            try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 OutputStream out = new FastGzip(Channels.newOutputStream(ch))) {
+                out.write(body);
+            }
+            long size = Files.size(tmp);
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            added(file.getParent(), hash, size);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        } finally {
+            if (tmp != null) {
+                try { Files.deleteIfExists(tmp); } catch (Throwable ignored) {}
+            }
+        }
+    }
+
+    /** Chars {@code [offset, offset + length)} of a stored body, clipped to its size; null if the body is missing. */
+    public String read(String hash, int offset, int length) {
+        if (hash == null || offset < 0 || length < 0) return null;
+        byte[] body;
+        synchronized (cache) {
+            body = cache.get(hash);
+        }
+        if (body == null) body = load(hash, (int) Math.min(Integer.MAX_VALUE, (long) offset + length));
+        if (body == null) return null;
+        int from = Math.min(offset, body.length);
+        int to = (int) Math.min((long) offset + length, body.length);
+        return new String(body, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Several ranges of one body, as {@link #read(String, int, int)}, decompressing it at most once.
+     * Null if the body is missing.
+     */
+    public String[] read(String hash, int[] offsets, int[] lengths) {
+        if (hash == null || offsets.length != lengths.length) return null;
+        long needed = 0;
+        for (int i = 0; i < offsets.length; i++) needed = Math.max(needed, (long) Math.max(0, offsets[i]) + Math.max(0, lengths[i]));
+        byte[] body;
+        synchronized (cache) {
+            body = cache.get(hash);
+        }
+        if (body == null) body = load(hash, (int) Math.min(Integer.MAX_VALUE, needed));
+        if (body == null) return null;
+        String[] out = new String[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] < 0 || lengths[i] < 0) continue;
+            int from = Math.min(offsets[i], body.length);
+            int to = (int) Math.min((long) offsets[i] + lengths[i], body.length);
+            out[i] = new String(body, from, to - from, StandardCharsets.ISO_8859_1);
+        }
+        return out;
+    }
+
+    /**
+     * Writes a plain copy of a stored body to {@code <stagingDir>/<hash>.js} for tools that need a
+     * file (jsluice); the caller deletes it. Returns null if the body is missing.
+     */
+    public Path stage(String hash, Path stagingDir) throws IOException {
+        if (hash == null) return null;
+        Path target = stagingDir.resolve(hash + LEGACY_EXT);
+        Files.createDirectories(stagingDir);
+        try (InputStream in = open(hash)) {
+            if (in == null) return null;
+            Files.copy(in, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return target;
+    }
+
+    private InputStream open(String hash) throws IOException {
+        Path file = pathOf(hash);
+        if (Files.isRegularFile(file)) return new GZIPInputStream(Files.newInputStream(file), 64 * 1024);
+        Path legacy = legacyPathOf(hash);
+        return Files.isRegularFile(legacy) ? Files.newInputStream(legacy) : null;
+    }
+
+    // At least the first {@code needed} bytes of a body. Bodies up to CACHE_BODY_MAX are read whole and
+    // cached; beyond that decompression stops at the end of the snippet.
+    private byte[] load(String hash, int needed) {
+        byte[] body;
+        boolean whole;
+        try (InputStream in = open(hash)) {
+            if (in == null) return null;
+            int want = Math.max(needed, CACHE_BODY_MAX + 1);
+            body = in.readNBytes(want);
+            whole = body.length < want;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        if (!whole) return body;
+        synchronized (cache) {
+            if (cache.put(hash, body) == null) cachedBytes += body.length;
+            Iterator<byte[]> it = cache.values().iterator();
+            while (cachedBytes > CACHE_BYTES && it.hasNext()) {
+                cachedBytes -= it.next().length;
+                it.remove();
+            }
+        }
+        return body;
+    }
+
+    // Size-bounded retention: once over the limit, least recently stored bodies are deleted down to 90% of it
+    private void added(Path in, String hash, long size) {
+        if (maxBytes.getAsLong() <= 0) return;
+        boolean over;
+        synchronized (index) {
+            if (in.equals(indexedDir)) {
+                Long prev = index.put(hash, size);
+                storedBytes += size - (prev == null ? 0 : prev);
+            } else {
+                unindexed.put(hash, size);
+            }
+            over = !in.equals(indexedDir) || storedBytes > maxBytes.getAsLong();
+        }
+        if (over && evictionQueued.compareAndSet(false, true)) {
+            try {
+                evictor.execute(() -> {
+                    evictionQueued.set(false);
+                    try {
+                        evict(in);
+                    } catch (RuntimeException ignored) {}
+                });
+            } catch (RejectedExecutionException closed) {
+                evictionQueued.set(false);
+            }
+        }
+    }
+
+    // Evictor thread only
+    private void evict(Path in) {
+        long limit = maxBytes.getAsLong();
+        if (limit <= 0) return;
+        boolean indexed;
+        synchronized (index) {
+            indexed = in.equals(indexedDir);
+        }
+        if (!indexed) {
+            Map<String, Long> listed = list(in);
+            if (listed == null) return;
+            synchronized (index) {
+                index.clear();
+                index.putAll(listed);
+                storedBytes = 0;
+                for (long size : listed.values()) storedBytes += size;
+                for (Map.Entry<String, Long> e : unindexed.entrySet()) {
+                    if (index.putIfAbsent(e.getKey(), e.getValue()) == null) storedBytes += e.getValue();
+                }
+                unindexed.clear();
+                indexedDir = in;
+            }
+        }
+        long target = limit - limit / 10;
+        Map<String, Long> victims = new LinkedHashMap<>();
+        synchronized (index) {
+            long left = storedBytes;
+            for (Map.Entry<String, Long> e : index.entrySet()) {
+                if (left <= target) break;
+                if (pins.containsKey(e.getKey())) continue;
+                victims.put(e.getKey(), e.getValue());
+                left -= e.getValue();
+            }
+            evicting.addAll(victims.keySet());
+        }
+        if (victims.isEmpty()) return;
+        try {
+            try {
+                beforeEvict.accept(victims.keySet());
+            } catch (RuntimeException ignored) {}
+            for (Map.Entry<String, Long> e : victims.entrySet()) {
+                String hash = e.getKey();
+                boolean deleted = false;
+                synchronized (index) {
+                    // Stored again since it was chosen (a new snippet may point into it), or pinned meanwhile
+                    if (!evicting.remove(hash) || pins.containsKey(hash)) continue;
+                    try {
+                        deleted = Files.deleteIfExists(in.resolve(hash + EXT)) | Files.deleteIfExists(in.resolve(hash + LEGACY_EXT));
+                    } catch (IOException ignored) {}
+                    if (deleted && index.remove(hash) != null) storedBytes -= e.getValue();
+                }
+                if (!deleted) continue;
+                synchronized (cache) {
+                    byte[] b = cache.remove(hash);
+                    if (b != null) cachedBytes -= b.length;
+                }
+            }
+        } finally {
+            synchronized (index) {
+                evicting.clear();
+            }
+        }
+    }
+
+    // hash -> size of the bodies in a directory, oldest first; null if it cannot be listed
+    private static Map<String, Long> list(Path in) {
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> s = Files.list(in)) {
+            s.filter(ContentStore::isBody).forEach(files::add);
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+        files.sort(Comparator.comparingLong(ContentStore::modified));
+        Map<String, Long> out = new LinkedHashMap<>();
+        for (Path f : files) out.merge(hashOf(f), size(f), Long::sum);
+        return out;
+    }
+
+    private static String hashOf(Path p) {
+        String name = p.getFileName().toString();
+        return name.substring(0, name.length() - (name.endsWith(EXT) ? EXT.length() : LEGACY_EXT.length()));
+    }
+
+    private static boolean isBody(Path p) {
+        String name = p.getFileName() == null ? "" : p.getFileName().toString();
+        return name.endsWith(EXT) || name.endsWith(LEGACY_EXT);
+    }
+
+    private static long size(Path p) {
+        try { return Files.size(p); } catch (IOException e) { return 0; }
+    }
+
+    private static long modified(Path p) {
+        try { return Files.getLastModifiedTime(p).toMillis(); } catch (IOException e) { return 0; }
+    }
+
+    // JS compresses well even at the fastest level, and bodies are written on analysis threads
+    private static final class FastGzip extends GZIPOutputStream {
+        FastGzip(OutputStream out) throws IOException {
+            super(out, 64 * 1024);
+            def.setLevel(Deflater.BEST_SPEED);
+        }
+    }
+}
@@ -1,13 +1,32 @@
 package burp.paramamador.util;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 
 public final class IOUtils {
     private IOUtils() {}
 
+    @FunctionalInterface
+    public interface WriterBody {
+        void write(Writer out) throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface StreamBody {
+        void write(OutputStream out) throws IOException;
+    }
+
     public static void ensureDir(Path dir) throws IOException {
         if (dir == null) return;
         if (!Files.exists(dir)) {
@@ -19,5 +38,36 @@ public final class IOUtils {
         Files.createDirectories(file.getParent());
         Files.writeString(file, data, StandardCharsets.UTF_8);
     }
-}
 
+    /**
+     * Streams UTF-8 content into {@code <file>.tmp}, forces it to disk and moves it over {@code file}.
+     * Readers see either the old or the new file, never a partial one.
+     */
+    public static void writeAtomically(Path file, WriterBody body) throws IOException {
+        writeBytesAtomically(file, out -> {
+            Writer w = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 64 * 1024);
+            body.write(w);
+            w.flush();
+        });
+    }
+
+    /** Binary variant of {@link #writeAtomically(Path, WriterBody)}; the stream is unbuffered. */
+    public static void writeBytesAtomically(Path file, StreamBody body) throws IOException {
+        Files.createDirectories(file.getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            OutputStream out = Channels.newOutputStream(ch);
+            body.write(out);
+            out.flush();
+            ch.force(true);
+        } catch (IOException | RuntimeException e) {
+            try { Files.deleteIfExists(tmp); } catch (Throwable ignored) {}
+            throw e;
+        }
+        try {
+            Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
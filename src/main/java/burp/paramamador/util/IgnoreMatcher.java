@@ -0,0 +1,125 @@
+package burp.paramamador.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable, precompiled form of the global ignore lists.
+ *
+ * Source patterns are case-insensitive substrings of the JS URL and are matched with one
+ * Aho-Corasick pass (a dense DFA over the characters that occur in the patterns).
+ * Ignored values are exact, case-insensitive matches after trimming.
+ * {@link burp.paramamador.Settings} builds a new instance whenever either list changes.
+ */
+public final class IgnoreMatcher {
+
+    // Column for each pattern char; every other char uses column 0 (no edge anywhere)
+    private final Map<Character, Integer> columns = new HashMap<>();
+    private final int[] asciiColumns = new int[128];
+    private final int[][] next;
+    private final boolean[] terminal;
+    private final Set<String> values = new HashSet<>();
+
+    public IgnoreMatcher(Collection<String> sourcePatterns, Collection<String> ignoredValues) {
+        List<String> pats = new ArrayList<>();
+        for (String p : sourcePatterns) {
+            if (p == null || p.isEmpty()) continue; // an empty pattern would match every source
+            pats.add(lower(p));
+        }
+        for (String p : pats) {
+            for (int i = 0; i < p.length(); i++) columns.putIfAbsent(p.charAt(i), columns.size() + 1);
+        }
+        int width = columns.size() + 1;
+        for (Map.Entry<Character, Integer> e : columns.entrySet()) {
+            if (e.getKey() < 128) asciiColumns[e.getKey()] = e.getValue();
+        }
+
+        // Trie
+        List<int[]> trie = new ArrayList<>();
+        List<Boolean> term = new ArrayList<>();
+        trie.add(new int[width]);
+        term.add(false);
+        for (String p : pats) {
+            int node = 0;
+            for (int i = 0; i < p.length(); i++) {
+                int col = columns.get(p.charAt(i));
+                if (trie.get(node)[col] == 0) {
+                    trie.add(new int[width]);
+                    term.add(false);
+                    trie.get(node)[col] = trie.size() - 1;
+                }
+                node = trie.get(node)[col];
+            }
+            term.set(node, true);
+        }
+
+        // Failure links folded into a full transition table (BFS order)
+        this.next = trie.toArray(new int[0][]);
+        this.terminal = new boolean[next.length];
+        for (int i = 0; i < terminal.length; i++) terminal[i] = term.get(i);
+        int[] fail = new int[next.length];
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for (int col = 1; col < width; col++) {
+            int child = next[0][col];
+            if (child != 0) queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            terminal[node] |= terminal[fail[node]];
+            for (int col = 1; col < width; col++) {
+                int child = next[node][col];
+                if (child != 0) {
+                    fail[child] = next[fail[node]][col];
+                    queue.add(child);
+                } else {
+                    next[node][col] = next[fail[node]][col];
+                }
+            }
+        }
+
+        for (String v : ignoredValues) {
+            if (v == null) continue;
+            String t = v.trim();
+            if (!t.isEmpty()) values.add(t.toLowerCase(Locale.ROOT));
+        }
+    }
+
+    /** True if the JS source URL/name contains any ignored source pattern (case-insensitive). */
+    public boolean isIgnoredSource(String urlOrName) {
+        if (urlOrName == null || next.length == 1) return false;
+        int state = 0;
+        for (int i = 0; i < urlOrName.length(); i++) {
+            state = next[state][column(Character.toLowerCase(urlOrName.charAt(i)))];
+            if (terminal[state]) return true;
+        }
+        return false;
+    }
+
+    /** True if the trimmed endpoint value equals an ignored value (case-insensitive). */
+    public boolean isIgnoredValue(String endpointValue) {
+        if (endpointValue == null || values.isEmpty()) return false;
+        String v = endpointValue.trim();
+        return !v.isEmpty() && values.contains(v.toLowerCase(Locale.ROOT));
+    }
+
+    private int column(char c) {
+        if (c < 128) return asciiColumns[c];
+        Integer col = columns.get(c);
+        return col == null ? 0 : col;
+    }
+
+    public boolean hasIgnoredValues() { return !values.isEmpty(); }
+
+    private static String lower(String s) {
+        char[] cs = s.toCharArray();
+        for (int i = 0; i < cs.length; i++) cs[i] = Character.toLowerCase(cs[i]);
+        return new String(cs);
+    }
+}
@@ -0,0 +1,108 @@
+package burp.paramamador.util;
+
+import burp.api.montoya.core.Registration;
+import burp.api.montoya.scope.Scope;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Memoizes Burp scope decisions for URLs checked on the hot path (JS matches, referers, jsluice results).
+ *
+ * Keys are normalized URLs: scheme and host lowercased, default port and fragment dropped.
+ * Path and query are kept because advanced scope rules may match on them. The whole cache
+ * is dropped whenever Burp reports a scope change.
+ */
+public final class ScopeCache {
+
+    private static final int MAX_CACHED = 20_000;
+
+    private final Scope scope;
+    private final Map<String, Boolean> decisions = new ConcurrentHashMap<>();
+    // Bumped on invalidation so a lookup that raced with a scope change does not re-insert a stale decision
+    private final AtomicLong generation = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private volatile Registration changeReg;
+
+    public ScopeCache(Scope scope) {
+        this.scope = scope;
+        try {
+            this.changeReg = scope.registerScopeChangeHandler(change -> invalidate());
+        } catch (Throwable ignored) {}
+    }
+
+    /** Cached equivalent of {@link Scope#isInScope(String)}; blank or failing URLs are out of scope. */
+    public boolean isInScope(String url) {
+        if (url == null || url.isBlank()) return false;
+        String key = normalize(url);
+        Boolean cached = decisions.get(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        long gen = generation.get();
+        boolean in;
+        try {
+            in = scope.isInScope(url);
+        } catch (Throwable t) {
+            return false;
+        }
+        if (decisions.size() >= MAX_CACHED) decisions.clear();
+        decisions.put(key, in);
+        if (generation.get() != gen) decisions.remove(key);
+        return in;
+    }
+
+    public void invalidate() {
+        generation.incrementAndGet();
+        decisions.clear();
+        invalidations.increment();
+    }
+
+    public void shutdown() {
+        Registration r = changeReg;
+        changeReg = null;
+        if (r != null) {
+            try { r.deregister(); } catch (Throwable ignored) {}
+        }
+        decisions.clear();
+    }
+
+    public String describe() {
+        long h = hits.sum();
+        long m = misses.sum();
+        long total = h + m;
+        String rate = total == 0 ? "n/a" : String.format(Locale.ROOT, "%.1f%%", 100.0 * h / total);
+        return "scopeCache[cached=" + decisions.size() + ", hits=" + h + ", misses=" + m + ", hitRate=" + rate
+                + ", invalidations=" + invalidations.sum() + "]";
+    }
+
+    static String normalize(String url) {
+        String u = url.trim();
+        int hash = u.indexOf('#');
+        if (hash >= 0) u = u.substring(0, hash);
+        int sep = u.indexOf("://");
+        if (sep <= 0) return u;
+        String scheme = u.substring(0, sep).toLowerCase(Locale.ROOT);
+        int authStart = sep + 3;
+        int authEnd = authStart;
+        while (authEnd < u.length()) {
+            char c = u.charAt(authEnd);
+            if (c == '/' || c == '?') break;
+            authEnd++;
+        }
+        String authority = u.substring(authStart, authEnd).toLowerCase(Locale.ROOT);
+        if (("http".equals(scheme) && authority.endsWith(":80")) || ("https".equals(scheme) && authority.endsWith(":443"))) {
+            authority = authority.substring(0, authority.lastIndexOf(':'));
+        }
+        String rest = u.substring(authEnd);
+        if (rest.isEmpty() || rest.charAt(0) == '?') rest = "/" + rest;
+        return scheme + "://" + authority + rest;
+    }
+}
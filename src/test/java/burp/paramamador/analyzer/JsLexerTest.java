@@ -0,0 +1,201 @@
+package burp.paramamador.analyzer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link JsLexer} against the regex extractor it replaced, on the corpus under
+ * {@code src/test/resources/js}, plus regression cases for the regex-vs-division heuristic.
+ */
+class JsLexerTest {
+
+    private static final List<String> CORPUS = List.of(
+            "jquery-3.6.1.min.js", "underscore-1.13.4.js", "underscore-1.13.4.min.js", "app-bundle.js");
+
+    // Where the lexer deliberately differs from the regexes: spans the regexes glued across literal
+    // boundaries ("-" only from the regexes, "+" only from the lexer), per file and kind
+    private static final Map<String, List<String>> KNOWN_DIFFERENCES = Map.of(
+            "underscore-1.13.4.js tpl", List.of(
+                    "-Uhttps://docs.python.org/library/functions.html#range).",
+                    "-Uhttps://en.wikipedia.org/wiki/Fisher\u00e2\u0080\u0093Yates_shuffle).",
+                    "-Uhttps://people.mozilla.org/~jorendorff/es6-draft.html#sec-tolength"),
+            "underscore-1.13.4.min.js rel", List.of("-!=typeof/./&&", "-:return+r!=+r"),
+            "app-bundle.js abs", List.of("+/auth/logout", "-/auth/logout',avatar:"));
+
+    // The extractor before JsLexer: one regex pass per kind over the whole body
+    private static final class RegexExtractor {
+        static final Pattern FULL_URL = Pattern.compile("(?i)(https?:\\/\\/[^\\s\"'\\\\<>]+)");
+        static final Pattern ABS_PATH = Pattern.compile(
+                "(?:\\\"|')"
+                + "(/(?:(?:%[0-9A-Fa-f]{2})|[A-Za-z0-9\\-\\._~!\\$&'\\(\\)\\*\\+,;=:@/])+)(?:\\?(?:(?:%[0-9A-Fa-f]{2})|[A-Za-z0-9\\-\\._~!\\$&'\\(\\)\\*\\+,;=:@/?])*)?"
+                + "(?:\\\"|')");
+        static final Pattern REL_PATH = Pattern.compile(
+                "(?:\\\"|')"
+                + "(?=[^\\\"']*/)"
+                + "((?!/)(?:(?:%[0-9A-Fa-f]{2})|[A-Za-z0-9\\-\\._~!\\$&'\\(\\)\\*\\+,;=:@])(?:(?:%[0-9A-Fa-f]{2})|[A-Za-z0-9\\-\\._~!\\$&'\\(\\)\\*\\+,;=:@/])*)(?:\\?(?:(?:%[0-9A-Fa-f]{2})|[A-Za-z0-9\\-\\._~!\\$&'\\(\\)\\*\\+,;=:@/?])*)?"
+                + "(?:\\\"|')");
+        static final Pattern TEMPLATE = Pattern.compile("`([^`]+)`");
+        static final Pattern CONCAT_A = Pattern.compile("\"(?=[^\\\"]*/)(?=[^\\\"]*[A-Za-z0-9])([^\\\"]*)\"\\s*\\+\\s*([A-Za-z0-9_\\$\\.]+)");
+        static final Pattern CONCAT_B = Pattern.compile("([A-Za-z0-9_\\$\\.]+)\\s*\\+\\s*\"(?=[^\\\"]*/)(?=[^\\\"]*[A-Za-z0-9])([^\\\"]*)\"");
+
+        static Map<String, List<String>> extract(String js) {
+            Map<String, List<String>> out = new LinkedHashMap<>();
+            out.put("url", groups(FULL_URL, js, 1));
+            out.put("abs", groups(ABS_PATH, js, 1));
+            out.put("rel", groups(REL_PATH, js, 1));
+            List<String> tpl = new ArrayList<>();
+            Matcher m = TEMPLATE.matcher(js);
+            while (m.find()) {
+                String masked = m.group(1).replaceAll("\\$\\{[^}]+}", "EXPR");
+                for (String url : groups(FULL_URL, masked, 1)) tpl.add("U" + url);
+                if (masked.startsWith("/")) tpl.add("P" + masked);
+            }
+            out.put("tpl", tpl);
+            out.put("ca", concat(CONCAT_A, js));
+            out.put("cb", concat(CONCAT_B, js));
+            return out;
+        }
+
+        private static List<String> groups(Pattern p, String s, int group) {
+            List<String> out = new ArrayList<>();
+            Matcher m = p.matcher(s);
+            while (m.find()) out.add(m.group(group));
+            return out;
+        }
+
+        private static List<String> concat(Pattern p, String s) {
+            List<String> out = new ArrayList<>();
+            Matcher m = p.matcher(s);
+            while (m.find()) out.add(m.group(1) + m.group(2));
+            return out;
+        }
+    }
+
+    private static Map<String, List<String>> lexed(JsLexer.Result r) {
+        Map<String, List<String>> out = new LinkedHashMap<>();
+        out.put("url", values(r.urls));
+        out.put("abs", values(r.absPaths));
+        out.put("rel", values(r.relPaths));
+        out.put("tpl", r.templates.stream().map(c -> (c.kind() == JsLexer.Kind.TEMPLATE_URL ? "U" : "P") + c.value()).toList());
+        out.put("ca", values(r.concatA));
+        out.put("cb", values(r.concatB));
+        return out;
+    }
+
+    private static List<String> values(List<JsLexer.Candidate> cs) {
+        return cs.stream().map(JsLexer.Candidate::value).toList();
+    }
+
+    // Bodies are analyzed as ISO-8859-1 text (byte per char), so offsets match the stored bytes
+    private static String corpus(String name) throws IOException {
+        try (InputStream in = JsLexerTest.class.getResourceAsStream("/js/" + name)) {
+            if (in == null) throw new IOException("missing test resource js/" + name);
+            return new String(in.readAllBytes(), StandardCharsets.ISO_8859_1);
+        }
+    }
+
+    @Test
+    void corpusMatchesRegexExtractor() throws IOException {
+        for (String name : CORPUS) {
+            String js = corpus(name);
+            Map<String, List<String>> before = RegexExtractor.extract(js);
+            Map<String, List<String>> after = lexed(JsLexer.scan(js));
+            for (String kind : before.keySet()) {
+                List<String> diff = new ArrayList<>();
+                List<String> onlyAfter = new ArrayList<>(after.get(kind));
+                for (String v : before.get(kind)) {
+                    if (!onlyAfter.remove(v)) diff.add("-" + v);
+                }
+                for (String v : onlyAfter) diff.add("+" + v);
+                diff.sort(null);
+                assertEquals(KNOWN_DIFFERENCES.getOrDefault(name + " " + kind, List.of()), diff);
+            }
+        }
+    }
+
+    @Test
+    void chunkedScanMatchesSingleScanOnCorpus() throws Exception {
+        StringBuilder all = new StringBuilder();
+        List<String> bodies = new ArrayList<>();
+        for (String name : CORPUS) {
+            String js = corpus(name);
+            bodies.add(js);
+            all.append(js).append('\n');
+        }
+        bodies.add(all.toString());
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            for (String js : bodies) {
+                JsLexer.Result single = JsLexer.scan(js);
+                for (int chunk : new int[]{1024, 4096, 16384}) {
+                    if (js.length() > 4 * chunk) assertTrue(JsLexer.chunkStarts(js, chunk).length > 1);
+                    JsLexer.Result chunked = JsLexer.scan(js, chunk, pool);
+                    assertEquals(single.urls, chunked.urls);
+                    assertEquals(single.absPaths, chunked.absPaths);
+                    assertEquals(single.relPaths, chunked.relPaths);
+                    assertEquals(single.templates, chunked.templates);
+                    assertEquals(single.concatA, chunked.concatA);
+                    assertEquals(single.concatB, chunked.concatB);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static List<String> absPaths(String js) {
+        return JsLexer.scan(js).absPaths.stream().map(JsLexer.Candidate::value).toList();
+    }
+
+    private static String literals(String prefix, int n) {
+        StringBuilder sb = new StringBuilder(prefix);
+        for (int i = 0; i < n; i++) sb.append("u.push(\"/api/v1/res").append(i).append("\");");
+        return sb.toString();
+    }
+
+    @Test
+    void postfixIncrementIsFollowedByDivision() {
+        assertEquals(2000, absPaths(literals("n=i++/2;", 2000)).size());
+        assertEquals(List.of("/api/x"), absPaths("var r=a[0]--/b;x=\"/api/x\";"));
+        assertEquals(List.of("/api/x"), absPaths("var r=f() ++ / 2;x=\"/api/x\";"));
+    }
+
+    @Test
+    void regexStillStartsAfterOperators() {
+        assertEquals(List.of("/api/x"), absPaths("if(/\"/.test(s))x=\"/api/x\";"));
+        assertEquals(List.of("/api/x"), absPaths("return /'/g;\nx=\"/api/x\";"));
+    }
+
+    @Test
+    void unterminatedRegexResyncsAtSemicolon() {
+        assertEquals(List.of("/api/q"), absPaths("x=a+/ab;y=\"/api/q\";"));
+        assertEquals(List.of("/api/q"), absPaths("var r=/[;]\"/;x=\"/api/q\";"));
+    }
+
+    @Test
+    void chunkedScanMatchesSingleScan() throws Exception {
+        String js = literals("n=i++/2;\nm=a[1]--/3;\n", 4000);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<String> chunked = JsLexer.scan(js, 4096, pool).absPaths.stream().map(JsLexer.Candidate::value).toList();
+            assertEquals(absPaths(js), chunked);
+            assertEquals(4000, chunked.size());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
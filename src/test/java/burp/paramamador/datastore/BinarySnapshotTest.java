@@ -0,0 +1,216 @@
+package burp.paramamador.datastore;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BinarySnapshot} round trips, files of older versions and damaged files. The files under
+ * {@code src/test/resources/snapshot} were written by the version 1 and version 2 writers.
+ */
+class BinarySnapshotTest {
+
+    private static final int FOOTER_LEN = 48;
+
+    private static DataStore sampleStore() {
+        DataStore ds = new DataStore();
+        ds.addOrUpdateParam("userId", "app.example.com /api/v1/users", "query", "42");
+        ds.addOrUpdateParam("userId", "app.example.com /api/v1/orders", "query", "7");
+        ds.markOnlyInCode("token", "ABS_PATH");
+        ds.addOrUpdateParam("q", "app.example.com /search", "body", null);
+        ds.markParameterFalsePositive("q", true);
+        ds.addOrUpdateEndpoint("/api/v1/users", EndpointRecord.Type.RELATIVE, true, "https://app.example.com/static/main.js",
+                null, new SnippetRef("ab12", 1024, 40), "ABS_PATH", false, null, "https://app.example.com");
+        ds.addOrUpdateEndpoint("/api/v1/users", EndpointRecord.Type.RELATIVE, false, "https://app.example.com/static/vendor.js",
+                "x=\"/api/v1/users\"", "ABS_PATH", false, null);
+        ds.addOrUpdateEndpoint("reports/\u00e9t\u00e9", EndpointRecord.Type.CONCAT, true, "https://app.example.com/static/main.js",
+                "\"reports/\u00e9t\u00e9\"+id", "CONCAT_A", true, "(", null);
+        ds.markEndpointFalsePositive("reports/\u00e9t\u00e9", true);
+        return ds;
+    }
+
+    // Every record as JSON, in a stable order
+    private static List<String> records(DataStore ds) throws IOException {
+        List<String> out = new ArrayList<>();
+        for (ParameterRecord r : ds.parameters().values()) out.add(RecordCodecs.toJson(r));
+        for (EndpointEntry en : ds.endpointEntries()) {
+            for (EndpointRecord e : en.expand()) out.add(RecordCodecs.toJson(e));
+        }
+        out.sort(null);
+        return out;
+    }
+
+    private static List<RecordCodecs.Decoded> decode(Path file) throws IOException {
+        List<RecordCodecs.Decoded> out = new ArrayList<>();
+        if (!BinarySnapshot.read(file, (isEndpoint, d) -> out.add(d))) return null;
+        return out;
+    }
+
+    private static Path resource(String name) throws IOException {
+        Path file = Files.createTempFile("snapshot", ".bin");
+        file.toFile().deleteOnExit();
+        try (InputStream in = BinarySnapshotTest.class.getResourceAsStream("/snapshot/" + name)) {
+            if (in == null) throw new IOException("missing test resource snapshot/" + name);
+            Files.write(file, in.readAllBytes());
+        }
+        return file;
+    }
+
+    private static Path written(DataStore ds) throws IOException {
+        Path file = Files.createTempFile("snapshot", ".bin");
+        file.toFile().deleteOnExit();
+        BinarySnapshot.write(file, ds.parameters(), ds.endpointEntries());
+        return file;
+    }
+
+    @Test
+    void roundTripKeepsEveryField() throws IOException {
+        DataStore before = sampleStore();
+        Path file = written(before);
+        DataStore after = new DataStore();
+        assertTrue(after.loadBinarySnapshot(file));
+        assertEquals(records(before), records(after));
+        EndpointRecord ref = after.getEndpoint("/api/v1/users", "https://app.example.com/static/main.js");
+        assertEquals(new SnippetRef("ab12", 1024, 40), ref.contextRef);
+        assertNull(ref.contextSnippet);
+    }
+
+    @Test
+    void emptyStoreRoundTrips() throws IOException {
+        List<RecordCodecs.Decoded> decoded = decode(written(new DataStore()));
+        assertTrue(decoded != null && decoded.isEmpty());
+    }
+
+    @Test
+    void readsVersion2Files() throws IOException {
+        List<RecordCodecs.Decoded> decoded = decode(resource("binary-snapshot-v2.bin"));
+        assertTrue(decoded != null);
+        assertEquals(5, decoded.size());
+        RecordCodecs.Decoded user = decoded.stream().filter(d -> "userId".equals(d.name)).findFirst().orElseThrow();
+        assertEquals(List.of("app.example.com /api/v1/users", "app.example.com /api/v1/orders"), user.sources);
+        assertEquals(List.of("query"), user.types);
+        assertEquals(2L, user.count);
+        RecordCodecs.Decoded concat = decoded.stream().filter(d -> "reports/\u00e9t\u00e9".equals(d.endpointString)).findFirst().orElseThrow();
+        assertEquals(EndpointRecord.Type.CONCAT, concat.type);
+        assertEquals("\"reports/\u00e9t\u00e9\"+id", concat.contextSnippet);
+        assertTrue(concat.notSure);
+        assertEquals("(", concat.notSureReason);
+        for (RecordCodecs.Decoded d : decoded) assertNull(d.contextRef);
+
+        DataStore ds = new DataStore();
+        assertTrue(ds.loadBinarySnapshot(resource("binary-snapshot-v2.bin")));
+        assertEquals(3, ds.endpointCount());
+        assertEquals("https://app.example.com", ds.getEndpoint("/api/v1/users", "https://app.example.com/static/main.js").referer);
+    }
+
+    @Test
+    void rejectsVersionsBelowMinimum() throws IOException {
+        assertNull(decode(resource("binary-snapshot-v1.bin")));
+    }
+
+    @Test
+    void rejectsTruncatedFiles() throws IOException {
+        byte[] full = Files.readAllBytes(written(sampleStore()));
+        for (int len : new int[]{0, 4, 5, FOOTER_LEN, full.length / 2, full.length - FOOTER_LEN, full.length - 1}) {
+            Path cut = Files.createTempFile("snapshot", ".bin");
+            cut.toFile().deleteOnExit();
+            Files.write(cut, Arrays.copyOf(full, len));
+            assertNull(decode(cut), "truncated to " + len);
+        }
+    }
+
+    @Test
+    void rejectsBadFooter() throws IOException {
+        byte[] full = Files.readAllBytes(written(sampleStore()));
+        int footer = full.length - FOOTER_LEN;
+
+        byte[] magic = full.clone();
+        magic[magic.length - 1] = 'X';
+        assertNull(decode(file(magic)));
+
+        // Table offset that does not end where the footer starts
+        byte[] table = full.clone();
+        ByteBuffer.wrap(table).putLong(footer + 36, ByteBuffer.wrap(full).getLong(footer + 36) + 1);
+        assertNull(decode(file(table)));
+
+        // Sections out of order
+        byte[] order = full.clone();
+        ByteBuffer.wrap(order).putLong(footer, ByteBuffer.wrap(full).getLong(footer + 12) + 1);
+        assertNull(decode(file(order)));
+    }
+
+    @Test
+    void corruptRecordsFailWithIOException() throws IOException {
+        byte[] full = Files.readAllBytes(written(sampleStore()));
+        int footer = full.length - FOOTER_LEN;
+        // More parameter records than there are: decoding runs into the other sections
+        byte[] count = full.clone();
+        ByteBuffer.wrap(count).putInt(footer + 8, 1_000_000);
+        assertTrue(failsWithIOException(file(count)));
+        // Dictionary offsets pointing past the end
+        byte[] dict = full.clone();
+        int tableOffset = (int) ByteBuffer.wrap(full).getLong(footer + 36);
+        for (int i = tableOffset; i < footer; i += 4) ByteBuffer.wrap(dict).putInt(i, Integer.MAX_VALUE / 2);
+        assertTrue(failsWithIOException(file(dict)));
+    }
+
+    @Test
+    void damagedRecordBytesNeverEscapeAsUncheckedExceptions() throws IOException {
+        byte[] full = Files.readAllBytes(written(sampleStore()));
+        int end = (int) ByteBuffer.wrap(full).getLong(full.length - FOOTER_LEN + 24); // dictionary offset
+        java.util.Random random = new java.util.Random(13);
+        for (int i = 0; i < 2000; i++) {
+            byte[] damaged = full.clone();
+            for (int k = 0; k < 3; k++) damaged[5 + random.nextInt(end - 5)] = (byte) random.nextInt(256);
+            Path file = file(damaged);
+            try {
+                BinarySnapshot.read(file, (isEndpoint, d) -> {});
+            } catch (IOException expected) {
+                // rejected as corrupt
+            } catch (RuntimeException e) {
+                throw new AssertionError("unchecked exception for damaged file " + i + ": " + e, e);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
+    private static boolean failsWithIOException(Path file) {
+        try {
+            BinarySnapshot.read(file, (isEndpoint, d) -> {});
+            return false;
+        } catch (IOException expected) {
+            return true;
+        } catch (RuntimeException other) {
+            throw new AssertionError("expected an IOException, got " + other, other);
+        }
+    }
+
+    private static Path file(byte[] content) throws IOException {
+        Path file = Files.createTempFile("snapshot", ".bin");
+        file.toFile().deleteOnExit();
+        Files.write(file, content);
+        return file;
+    }
+
+    @Test
+    void loadOfUnreadableFileMergesNothing() throws IOException {
+        byte[] full = Files.readAllBytes(written(sampleStore()));
+        DataStore ds = new DataStore();
+        assertFalse(ds.loadBinarySnapshot(file(Arrays.copyOf(full, full.length - 1))));
+        assertEquals(0, ds.endpointCount());
+        assertTrue(ds.parameters().isEmpty());
+    }
+}
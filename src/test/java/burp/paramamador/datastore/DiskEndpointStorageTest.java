@@ -0,0 +1,443 @@
+package burp.paramamador.datastore;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link DiskEndpointStorage}: entries written out and read back, records rewritten, copied forward
+ * or removed while a lookup decodes them, and entries removed while they are being written out.
+ * Mutations follow the {@link EndpointStorage} protocol the way {@link DataStore} does.
+ */
+class DiskEndpointStorageTest {
+
+    private static final int CACHE = 16;
+
+    private static DiskEndpointStorage open(int segmentBytes) throws IOException {
+        return open(Files.createTempDirectory("paramamador-disk-test"), segmentBytes);
+    }
+
+    private static DiskEndpointStorage open(Path dir, int segmentBytes) throws IOException {
+        return new DiskEndpointStorage(dir, new SymbolTable(), CACHE, segmentBytes);
+    }
+
+    /** Sets one occurrence of {@code endpoint}, looking it up again while the entry is unlinked. */
+    private static void put(EndpointStorage s, String endpoint, String source, String snippet) {
+        while (true) {
+            EndpointEntry en = s.getOrCreate(endpoint);
+            synchronized (en) {
+                if (en.removed) continue;
+                EndpointEntry.Occurrence o = en.find(source);
+                if (o == null) o = en.add(source);
+                o.type = EndpointRecord.Type.RELATIVE;
+                o.inScope = true;
+                o.referer = "https://app.example.com/";
+                o.contextSnippet = snippet;
+                o.pattern = "ABS_PATH";
+                o.firstSeen = 1_700_000_000_000L;
+                en.dirty = true;
+                return;
+            }
+        }
+    }
+
+    /** Removes the entry for {@code endpoint} if there is one; true if it did. */
+    private static boolean remove(EndpointStorage s, String endpoint) {
+        while (true) {
+            EndpointEntry en = s.get(endpoint);
+            if (en == null) return false;
+            synchronized (en) {
+                if (en.removed) continue;
+                en.removed = true;
+                s.remove(en);
+                return true;
+            }
+        }
+    }
+
+    private static String snippetOf(EndpointStorage s, String endpoint, String source) {
+        EndpointEntry en = s.get(endpoint);
+        assertNotNull(en);
+        EndpointRecord r = en.record(source);
+        return r == null ? null : r.contextSnippet;
+    }
+
+    private static int segmentFiles(Path dir) throws IOException {
+        return segmentFiles(dir, "endpoints-*.seg");
+    }
+
+    private static int segmentFiles(Path dir, String glob) throws IOException {
+        int n = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, glob)) {
+            for (Path ignored : files) n++;
+        }
+        return n;
+    }
+
+    /** Looks {@code endpoint} up on its own thread, stopping after the first decode until {@link #finish}. */
+    private static final class PausedLookup extends Thread {
+        private final DiskEndpointStorage storage;
+        private final String endpoint;
+        private final CountDownLatch decoded = new CountDownLatch(1);
+        private final CountDownLatch go = new CountDownLatch(1);
+        final AtomicInteger decodes = new AtomicInteger();
+        volatile EndpointEntry result;
+        volatile Throwable error;
+
+        PausedLookup(DiskEndpointStorage storage, String endpoint) throws InterruptedException {
+            this.storage = storage;
+            this.endpoint = endpoint;
+            storage.afterDecode = () -> {
+                if (Thread.currentThread() != this || decodes.incrementAndGet() > 1) return;
+                decoded.countDown();
+                try {
+                    go.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            };
+            start();
+            assertTrue(decoded.await(10, TimeUnit.SECONDS), "lookup did not reach the disk");
+        }
+
+        @Override
+        public void run() {
+            try {
+                result = storage.get(endpoint);
+            } catch (Throwable e) {
+                error = e;
+            }
+        }
+
+        EndpointEntry finish() throws InterruptedException {
+            go.countDown();
+            join();
+            storage.afterDecode = null;
+            if (error != null) throw new AssertionError("lookup failed", error);
+            return result;
+        }
+    }
+
+    /** Stores new values until {@code until} holds, letting the writer catch up every few values. */
+    private static void churn(DiskEndpointStorage s, String prefix, java.util.function.BooleanSupplier until) throws Exception {
+        for (int i = 0; i < 1000 && !until.getAsBoolean(); i++) {
+            put(s, prefix + i, "a.js", "filler");
+            if (i % 8 == 7) s.drainWriter();
+        }
+        s.drainWriter();
+    }
+
+    @Test
+    void evictedEntriesAreReadBackIntact() throws Exception {
+        DiskEndpointStorage s = open(DiskEndpointStorage.SEGMENT_BYTES);
+        try {
+            List<EndpointEntry> created = new ArrayList<>();
+            for (int i = 0; i < 500; i++) {
+                EndpointEntry en = s.getOrCreate("/api/v1/item/" + i);
+                synchronized (en) {
+                    EndpointEntry.Occurrence o = en.add("https://app.example.com/static/main.js");
+                    o.type = EndpointRecord.Type.values()[i % EndpointRecord.Type.values().length];
+                    o.inScope = i % 2 == 0;
+                    o.notSure = i % 3 == 0;
+                    o.notSureReason = o.notSure ? "(" : null;
+                    o.falsePositive = i % 5 == 0;
+                    o.referer = i % 7 == 0 ? null : "https://app.example.com/";
+                    if (i % 4 == 0) o.contextRef(new SnippetRef("ab12", i * 10, 40));
+                    else o.contextSnippet = "x=\"/api/v1/item/" + i + "\" // \u00e9t\u00e9";
+                    o.pattern = "ABS_PATH";
+                    o.firstSeen = 1_700_000_000_000L + i;
+                    en.dirty = true;
+                }
+                created.add(en);
+            }
+            List<String> before = new ArrayList<>();
+            for (EndpointEntry en : created) before.add(RecordCodecs.toJson(en.expand().get(0)));
+            s.drainWriter();
+
+            int unlinked = 0;
+            for (EndpointEntry en : created) if (en.removed) unlinked++;
+            assertTrue(unlinked >= 500 - 2 * CACHE, "only " + unlinked + " entries were written out");
+            assertEquals(500, s.size());
+            for (int i = 0; i < 500; i++) {
+                EndpointEntry en = s.get("/api/v1/item/" + i);
+                assertNotNull(en);
+                assertEquals(1, en.size());
+                assertEquals(before.get(i), RecordCodecs.toJson(en.expand().get(0)));
+            }
+            assertNull(s.failure());
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    void changesAfterReadBackSurviveTheNextEviction() throws Exception {
+        DiskEndpointStorage s = open(DiskEndpointStorage.SEGMENT_BYTES);
+        try {
+            for (int i = 0; i < 200; i++) put(s, "/e/" + i, "a.js", "first " + i);
+            s.drainWriter();
+            for (int i = 0; i < 200; i++) {
+                put(s, "/e/" + i, "b.js", "second " + i);
+                if (i % 2 == 0) put(s, "/e/" + i, "a.js", "changed " + i);
+            }
+            s.drainWriter();
+            // A read-only pass loads every entry back and lets it be evicted again without a rewrite
+            for (int i = 0; i < 200; i++) assertEquals(2, s.get("/e/" + i).size());
+            s.drainWriter();
+
+            for (int i = 0; i < 200; i++) {
+                assertEquals((i % 2 == 0 ? "changed " : "first ") + i, snippetOf(s, "/e/" + i, "a.js"));
+                assertEquals("second " + i, snippetOf(s, "/e/" + i, "b.js"));
+            }
+            Set<String> seen = new HashSet<>();
+            for (EndpointEntry en : s.values()) seen.add(en.endpointString);
+            assertEquals(200, seen.size());
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    void victimsLookedUpAgainBeforeWriteBackDoNotStopEviction() throws Exception {
+        DiskEndpointStorage s = open(4096);
+        try {
+            List<EndpointEntry> cached = new ArrayList<>();
+            for (int i = 0; i < CACHE; i++) cached.add(s.getOrCreate("/c/" + i));
+            EndpointEntry victim = cached.get(0);
+            synchronized (victim) {
+                // One over: the pass picks the eldest and then waits for its monitor in write-back
+                s.getOrCreate("/over");
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (!writerBlocked()) {
+                    assertTrue(System.nanoTime() < deadline, "writer never reached the victim");
+                    Thread.sleep(1);
+                }
+                assertTrue(s.get("/c/0") == victim);
+            }
+            s.drainWriter();
+            s.drainWriter();
+            assertFalse(victim.removed);
+            assertTrue(cached.get(1).removed, "cache was left over its size");
+        } finally {
+            s.close();
+        }
+    }
+
+    private static boolean writerBlocked() {
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t.getName().equals("paramamador-endpoint-writer") && t.getState() == Thread.State.BLOCKED) return true;
+        }
+        return false;
+    }
+
+    @Test
+    void lookupsRacingCopyForwardSeeEveryUpdate() throws Exception {
+        // Small segments: every few hundred rewrites roll a segment and copy sparse ones forward
+        Path dir = Files.createTempDirectory("paramamador-disk-test");
+        DiskEndpointStorage s = open(dir, 4096);
+        int n = 300, rounds = 20;
+        try {
+            for (int i = 0; i < n; i++) put(s, "/r/" + i, "a.js", "round 0");
+            s.drainWriter();
+
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            List<Thread> readers = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                Thread th = new Thread(() -> {
+                    try {
+                        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+                        while (!done.get()) {
+                            String k = "/r/" + rnd.nextInt(n);
+                            EndpointEntry en = s.get(k);
+                            if (en == null) throw new AssertionError("lost " + k);
+                            if (!k.equals(en.endpointString)) throw new AssertionError(en.endpointString + " for " + k);
+                            EndpointRecord r = en.record("a.js");
+                            if (r == null || !r.contextSnippet.startsWith("round ")) throw new AssertionError("bad record for " + k);
+                        }
+                    } catch (Throwable e) {
+                        error.compareAndSet(null, e);
+                    }
+                });
+                th.start();
+                readers.add(th);
+            }
+            int maxFiles = 0;
+            for (int round = 1; round <= rounds; round++) {
+                for (int i = 0; i < n; i++) {
+                    // Every third value stays put so that its segment goes sparse and is copied forward
+                    if (i % 3 != 0) put(s, "/r/" + i, "a.js", "round " + round);
+                }
+                maxFiles = Math.max(maxFiles, segmentFiles(dir));
+            }
+            done.set(true);
+            for (Thread th : readers) th.join();
+            s.drainWriter();
+            if (error.get() != null) throw new AssertionError("reader failed", error.get());
+
+            for (int i = 0; i < n; i++) {
+                assertEquals("round " + (i % 3 == 0 ? 0 : rounds), snippetOf(s, "/r/" + i, "a.js"), "/r/" + i);
+                assertEquals(1, s.get("/r/" + i).size());
+            }
+            assertEquals(n, s.size());
+            assertNull(s.failure());
+            // Each round rewrites about 12 KB; without copy-forward the kept values would pin the early segments
+            assertTrue(maxFiles < 20, maxFiles + " segment files");
+        } finally {
+            s.close();
+        }
+        assertFalse(Files.exists(dir));
+    }
+
+    @Test
+    void lookupRetriesWhenTheRecordIsRewrittenWhileItDecodes() throws Exception {
+        DiskEndpointStorage s = open(4096);
+        try {
+            put(s, "/v", "a.js", "old");
+            for (int i = 0; i < 40; i++) put(s, "/f/" + i, "a.js", "filler");
+            s.drainWriter();
+
+            PausedLookup lookup = new PausedLookup(s, "/v");
+            EndpointEntry mine = s.getOrCreate("/v");
+            synchronized (mine) {
+                mine.find("a.js").contextSnippet = "new";
+                mine.dirty = true;
+            }
+            churn(s, "/g/", () -> mine.removed);
+            assertTrue(mine.removed, "rewritten entry was not written out");
+
+            EndpointEntry seen = lookup.finish();
+            assertEquals(2, lookup.decodes.get());
+            assertEquals("new", seen.record("a.js").contextSnippet);
+            assertTrue(seen == s.get("/v"));
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    void lookupRetriesWhenTheRecordIsCopiedForwardWhileItDecodes() throws Exception {
+        // Half a kilobyte holds a handful of records, so the first segment is soon left with only /v
+        Path dir = Files.createTempDirectory("paramamador-disk-test");
+        DiskEndpointStorage s = open(dir, 512);
+        try {
+            put(s, "/v", "a.js", "kept");
+            for (int i = 0; i < 40; i++) put(s, "/f/" + i, "a.js", "filler");
+            s.drainWriter();
+            assertEquals(1, segmentFiles(dir, "endpoints-*-0.seg"));
+
+            PausedLookup lookup = new PausedLookup(s, "/v");
+            for (int i = 0; i < 40; i++) assertTrue(remove(s, "/f/" + i));
+            churn(s, "/g/", () -> {
+                try {
+                    return segmentFiles(dir, "endpoints-*-0.seg") == 0;
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            assertEquals(0, segmentFiles(dir, "endpoints-*-0.seg"), "first segment was not copied forward");
+
+            EndpointEntry seen = lookup.finish();
+            assertEquals(2, lookup.decodes.get());
+            assertEquals("kept", seen.record("a.js").contextSnippet);
+            assertTrue(seen == s.get("/v"));
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    void lookupOfAValueRemovedWhileItDecodesFindsNothing() throws Exception {
+        DiskEndpointStorage s = open(4096);
+        try {
+            put(s, "/v", "a.js", "gone");
+            for (int i = 0; i < 40; i++) put(s, "/f/" + i, "a.js", "filler");
+            s.drainWriter();
+
+            PausedLookup lookup = new PausedLookup(s, "/v");
+            assertTrue(remove(s, "/v"));
+
+            assertNull(lookup.finish());
+            assertEquals(1, lookup.decodes.get());
+            assertNull(s.get("/v"));
+            assertEquals(40, s.size());
+        } finally {
+            s.close();
+        }
+    }
+
+    @Test
+    void removedEntriesStayRemovedWhileEvictionRuns() throws Exception {
+        DiskEndpointStorage s = open(8192);
+        int n = 3000;
+        try {
+            ConcurrentLinkedQueue<String> toRemove = new ConcurrentLinkedQueue<>();
+            AtomicBoolean done = new AtomicBoolean();
+            AtomicReference<Throwable> error = new AtomicReference<>();
+            Thread remover = new Thread(() -> {
+                try {
+                    while (true) {
+                        String k = toRemove.poll();
+                        if (k == null) {
+                            if (done.get() && toRemove.isEmpty()) return;
+                            Thread.onSpinWait();
+                            continue;
+                        }
+                        if (!remove(s, k)) throw new AssertionError("missing " + k);
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            remover.start();
+            for (int i = 0; i < n; i++) {
+                put(s, "/d/" + i, "a.js", "v" + i);
+                // Removing values a few dozen behind the newest hits entries that are queued for write-back
+                if (i >= 40 && i % 2 == 0) toRemove.add("/d/" + (i - 40));
+                // Odd values are never removed
+                if (i % 5 == 0) put(s, "/d/" + (i / 2 | 1), "b.js", "late");
+            }
+            done.set(true);
+            remover.join();
+            s.drainWriter();
+            if (error.get() != null) throw new AssertionError("remover failed", error.get());
+
+            Set<String> expected = new HashSet<>();
+            for (int i = 0; i < n; i++) {
+                boolean removed = i % 2 == 0 && i + 40 < n;
+                if (!removed) expected.add("/d/" + i);
+            }
+            Set<String> seen = new HashSet<>();
+            for (EndpointEntry en : s.values()) assertTrue(seen.add(en.endpointString), "twice: " + en.endpointString);
+            assertEquals(expected.size(), s.size());
+            assertEquals(expected, seen);
+            for (int i = 0; i < n; i++) {
+                String k = "/d/" + i;
+                if (expected.contains(k)) assertEquals("v" + i, snippetOf(s, k, "a.js"), k);
+                else assertNull(s.get(k), k);
+            }
+        } finally {
+            s.close();
+        }
+    }
+}
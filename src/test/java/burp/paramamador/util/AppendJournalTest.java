@@ -0,0 +1,113 @@
+package burp.paramamador.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Crash recovery, rotation and failure reporting of {@link AppendJournal}. */
+class AppendJournalTest {
+
+    private static Path newJournalFile() throws IOException {
+        return Files.createTempDirectory("journal").resolve("changes.log");
+    }
+
+    private static String content(Path file) throws IOException {
+        return Files.readString(file, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void tornLastLineIsCutOnRead() throws IOException {
+        Path file = newJournalFile();
+        Files.writeString(file, "a\nb\n{\"op\":\"par", StandardCharsets.UTF_8);
+        assertEquals(List.of("a", "b"), AppendJournal.readLines(file));
+        assertEquals("a\nb\n", content(file));
+    }
+
+    @Test
+    void fileWithoutAnyCompleteLineIsEmptied() throws IOException {
+        Path file = newJournalFile();
+        Files.writeString(file, "no newline yet", StandardCharsets.UTF_8);
+        assertEquals(List.of(), AppendJournal.readLines(file));
+        assertEquals(0L, Files.size(file));
+    }
+
+    @Test
+    void tornLineLongerThanTheScanBufferIsCut() throws IOException {
+        Path file = newJournalFile();
+        Files.writeString(file, "first\n" + "x".repeat(20_000), StandardCharsets.UTF_8);
+        assertEquals(List.of("first"), AppendJournal.readLines(file));
+    }
+
+    @Test
+    void appendAfterACrashStartsOnANewLine() throws IOException {
+        Path file = newJournalFile();
+        Files.writeString(file, "a\ntorn", StandardCharsets.UTF_8);
+        AppendJournal j = AppendJournal.forPath(file);
+        j.append("b");
+        j.flush();
+        assertEquals("a\nb\n", content(file));
+    }
+
+    @Test
+    void rotateAppendsOntoAnExistingTarget() throws IOException {
+        Path file = newJournalFile();
+        Path target = file.resolveSibling("changes.log.compacting");
+        // Left by an interrupted compaction, itself cut mid-line
+        Files.writeString(target, "old1\nold2\nto", StandardCharsets.UTF_8);
+        AppendJournal j = AppendJournal.forPath(file);
+        j.append("new1");
+        j.append("new2");
+        assertTrue(j.rotateTo(target));
+        assertEquals("old1\nold2\nnew1\nnew2\n", content(target));
+        assertFalse(Files.exists(file));
+
+        // Later appends start a fresh file; nothing left to rotate until then
+        assertFalse(j.rotateTo(file.resolveSibling("other")));
+        j.append("after");
+        j.flush();
+        assertEquals("after\n", content(file));
+        assertEquals("old1\nold2\nnew1\nnew2\n", content(target));
+    }
+
+    @Test
+    void rotateMovesWhenTargetIsMissing() throws IOException {
+        Path file = newJournalFile();
+        Path target = file.resolveSibling("changes.log.compacting");
+        AppendJournal j = AppendJournal.forPath(file);
+        j.append("one");
+        assertTrue(j.rotateTo(target));
+        assertEquals("one\n", content(target));
+        assertFalse(Files.exists(file));
+    }
+
+    @Test
+    void flushReportsAnEarlierBackgroundFailureOnce() throws Exception {
+        Path dir = Files.createTempDirectory("journal");
+        // A regular file where the journal's directory should be: every background write fails
+        Path blocker = dir.resolve("blocked");
+        Files.writeString(blocker, "");
+        Path file = blocker.resolve("changes.log");
+        AppendJournal j = AppendJournal.forPath(file);
+        j.append("lost");
+        // The background writer picks the line up after its commit window
+        Thread.sleep(1000);
+
+        // Writable again: this flush has nothing of its own to write, yet reports the lost line
+        Files.delete(blocker);
+        assertThrows(IOException.class, j::flush);
+        j.flush();
+
+        j.append("kept");
+        j.flush();
+        assertEquals("kept\n", content(file));
+    }
+}
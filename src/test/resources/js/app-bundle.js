@@ -0,0 +1,16 @@
+/*! app bundle, webpack-style fixture for JsLexerTest. See https://example.com/docs/build */
+(self.webpackChunkapp=self.webpackChunkapp||[]).push([[179],{4821:function(e,t,n){"use strict";
+var r=n(7294),o=n(9669),a=n.n(o);
+const API_BASE="https://api.example.com/v2",CDN="https://cdn.example.com/static/";
+var i={users:"/api/v1/users",orders:"/api/v1/orders?status=open&limit=50",login:"/auth/login",logout:'/auth/logout',avatar:"img/avatars/default.png"};
+function u(e){return fetch("/api/v1/users/"+e,{headers:{"X-Requested-With":"XMLHttpRequest"}}).then(function(e){return e.json()})}
+function c(e,t){return a().get(`${API_BASE}/accounts/${e}/invoices?page=${t}`)}
+function s(e){return a().post(`/api/v1/orders/${e.id}/cancel`,{reason:e.reason})}
+function l(e){var t=e.length,n=t++/2,r=t--/3;return e.slice(n,r)}
+var f=/^\/api\/v[0-9]+\/"?(users|orders)/i,d=/['"]/g,p=/\/\*.*?\*\//;
+var h=window.location.origin+"/graphql",m="/static/js/"+chunkId+".chunk.js";
+// legacy endpoint kept for old clients: https://legacy.example.com/rest/v1/ping
+function v(e){return e.replace(d,"").split("/")}
+var g={path:"reports/monthly/summary",download:"files/export.csv?format=csv"};
+t.default={getUser:u,getInvoices:c,cancel:s,routes:i,extra:g,graph:h,chunk:m,pattern:f,strip:v,half:l,cmt:p};
+},7294:function(e){e.exports={tpl:`<a href="https://help.example.com/faq">help</a>`,base:"/"+"assets/"+version}}}]);